@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The Java 8 implementation of the {@link Platform}: counters are {@link LongAdder}s, which
+ * only spread over more cells when threads actually contend, and parallel work runs in the
+ * common {@link ForkJoinPool} instead of threads of the agent's own.
+ * <p>
+ * This class is compiled for Java 8, and is only ever loaded by {@link Platform#get()}.
+ * </p>
+ */
+final class Java8Platform extends Platform
+{
+    @Override
+    String getName()
+    {
+        return "Java 8";
+    }
+
+    @Override
+    Counter newCounter()
+    {
+        return new AdderCounter();
+    }
+
+    @Override
+    int getSharedParallelism()
+    {
+        return ForkJoinPool.getCommonPoolParallelism();
+    }
+
+    @Override
+    Executor sharedExecutor()
+    {
+        return ForkJoinPool.commonPool();
+    }
+
+    private static final class AdderCounter extends Counter
+    {
+        private final LongAdder adder = new LongAdder();
+
+        @Override
+        void increment()
+        {
+            adder.increment();
+        }
+
+        @Override
+        long sum()
+        {
+            return adder.sum();
+        }
+    }
+}
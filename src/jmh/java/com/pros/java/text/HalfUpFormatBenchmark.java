@@ -0,0 +1,194 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures {@code DecimalFormat.format(double)} in {@code HALF_UP} mode, which is the path
+ * that reaches the patched {@code java.text.DigitList.shouldRoundUp}.  The same benchmark is
+ * meant to be run three ways, to compare the cost of the patch:
+ * <ul>
+ *   <li>on an affected Java 8 JVM without the agent ({@code gradle jmh}),</li>
+ *   <li>on the same JVM with the agent ({@code gradle jmhPatched}), optionally with the
+ *       fast digit fill ({@code gradle jmhPatched -PjmhAgentOptions=fastDigits}), and</li>
+ *   <li>on Java 8u40 or later, which includes the official fix
+ *       ({@code gradle jmh -PjmhJava=/path/to/jdk8u40/bin/java}).</li>
+ * </ul>
+ * {@link #bigDecimalReference()} is an alternative way to round the same inputs, as a point of
+ * reference only: it rounds the <em>shortest</em> decimal representation of the double, and so
+ * does not always produce the same result as {@code DecimalFormat} for values near a tie.
+ * {@link #halfUpFormatter()} produces the same output as the patched {@code DecimalFormat},
+ * into a reused buffer; {@link #halfUpScaler()} the same digits, as a scaled {@code long}.
+ * {@link #halfUpFormatCache()} looks the text up in a cache that holds every input value.
+ * <p>
+ * {@link #decimalFormatBigDecimal()} formats a new {@code BigDecimal} with the shortest digits of
+ * each input value, as for amounts computed in decimal; compare it with and without the
+ * agent's {@code fastBigDecimal} option ({@code -PjmhAgentOptions=fastBigDecimal}).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class HalfUpFormatBenchmark
+{
+    /** Sets of input values with different likelihood of reaching the HALF_UP tie rules. */
+    public enum Distribution
+    {
+        /** Every value has a 5 in the first digit beyond the formatted scale, as in 99.995. */
+        TIES
+        {
+            @Override
+            double next(Random random, int scale)
+            {
+                long units = random.nextInt(1000000);
+                return (units * 10 + 5) / Math.pow(10, scale + 1);
+            }
+        },
+
+        /** Prices from 0.01 to 10000 with 2 to 6 decimal digits, so ties are uncommon. */
+        PRICES
+        {
+            @Override
+            double next(Random random, int scale)
+            {
+                int decimals = 2 + random.nextInt(5);
+                long units = 1 + (long) (random.nextDouble() * 10000 * Math.pow(10, decimals));
+                return units / Math.pow(10, decimals);
+            }
+        };
+
+        abstract double next(Random random, int scale);
+    }
+
+    private static final int VALUE_COUNT = 1024; // power of 2
+
+    @Param({"0", "2", "4", "6"})
+    int scale;
+
+    @Param({"TIES", "PRICES"})
+    Distribution distribution;
+
+    private final double[] values = new double[VALUE_COUNT];
+    private final long[] unscaledValues = new long[VALUE_COUNT];
+    private final int[] valueScales = new int[VALUE_COUNT];
+    private int index;
+    private NumberFormat format;
+    private HalfUpFormatter formatter;
+    private HalfUpFormatCache cache;
+    private char[] buffer;
+
+    @Setup
+    public void setUp()
+    {
+        Random random = new Random(20140624L); // same inputs for every run
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = distribution.next(random, scale);
+            BigDecimal value = BigDecimal.valueOf(values[i]);
+            unscaledValues[i] = value.unscaledValue().longValue();
+            valueScales[i] = value.scale();
+        }
+
+        format = NumberFormat.getInstance(Locale.US);
+        format.setMinimumFractionDigits(scale);
+        format.setMaximumFractionDigits(scale);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        formatter = HalfUpFormatter.getInstance(Locale.US, scale);
+        buffer = new char[formatter.getMaximumLength()];
+        cache = new HalfUpFormatCache(formatter, 4 * VALUE_COUNT);
+    }
+
+    private double nextValue()
+    {
+        return values[index++ & (VALUE_COUNT - 1)];
+    }
+
+    @Benchmark
+    public String decimalFormat()
+    {
+        return format.format(nextValue());
+    }
+
+    @Benchmark
+    public String decimalFormatBigDecimal()
+    {
+        // A new instance each time, as BigDecimal caches its own text
+        int i = index++ & (VALUE_COUNT - 1);
+        return format.format(BigDecimal.valueOf(unscaledValues[i], valueScales[i]));
+    }
+
+    @Benchmark
+    public int halfUpFormatter()
+    {
+        return formatter.format(nextValue(), buffer, 0);
+    }
+
+    @Benchmark
+    public String halfUpFormatCache()
+    {
+        return cache.format(nextValue());
+    }
+
+    @Benchmark
+    public long halfUpScaler()
+    {
+        return HalfUpScaler.round(nextValue(), scale);
+    }
+
+    @Benchmark
+    public String bigDecimalReference()
+    {
+        return BigDecimal.valueOf(nextValue()).setScale(scale, RoundingMode.HALF_UP).toPlainString();
+    }
+}
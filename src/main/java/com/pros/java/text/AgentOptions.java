@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The options passed to the agent on the JVM command line, following the agent JAR path:
+ * <pre>
+ * -javaagent:path/to/patch.jar=cacheDir=/var/tmp/digitlist-patch,counters
+ * </pre>
+ * The same options are passed to {@code agentmain} when attaching to a running JVM.
+ * Multiple options are separated by commas, and each option is a {@code name=value} pair;
+ * flags may be given by name alone.
+ * Unrecognized options are reported on {@code System.err} and otherwise ignored, so that a
+ * typo never prevents the application from starting.
+ */
+final class AgentOptions
+{
+    /** Directory where patched bytecode is cached between JVM runs (optional). */
+    static final String CACHE_DIR = "cacheDir";
+
+    /** Counts rounding decisions and publishes them through JMX (optional flag). */
+    static final String COUNTERS = "counters";
+
+    /** Compares the patched and original code on one in this many decisions (optional). */
+    static final String SHADOW_SAMPLE = "shadowSample";
+
+    /** File that shadow comparison differences are appended to. */
+    static final String SHADOW_LOG = "shadowLog";
+
+    /** Counts the classes loaded by the agent at startup, and reports its cost (optional flag). */
+    static final String STARTUP_STATS = "startupStats";
+
+    /** Copies the fix into {@code shouldRoundUp} instead of adding a method (optional flag). */
+    static final String INLINE = "inline";
+
+    /** Computes the digits of HALF_UP results without FloatingDecimal (optional flag). */
+    static final String FAST_DIGITS = "fastDigits";
+
+    /** Rounds BigDecimals of up to 18 digits without laying them out as text (optional flag). */
+    static final String FAST_BIG_DECIMAL = "fastBigDecimal";
+
+    /** Records Flight Recorder events about the agent and the patch (optional flag). */
+    static final String JFR = "jfr";
+
+    /**
+     * Java version for the agent to decide by instead of {@code java.version} (optional).  The
+     * bytecode checks still decide whether the class is patched; this only keeps the
+     * transformer registered on a JVM that is known to be unaffected, to measure its cost.
+     * When attaching, it likewise decides whether the loaded class is examined at all.
+     */
+    static final String ASSUME_VERSION = "assumeVersion";
+
+    /** File that the outcome of attaching to a running JVM is written to (set by the tool). */
+    static final String REPORT = "report";
+
+    /** ASM JAR to add to the class path of a running JVM that lacks it (set by the tool). */
+    static final String ASM_JAR = "asmJar";
+
+    private static final String DEFAULT_SHADOW_LOG = "digitlist-shadow.log";
+
+    private static final Set<String> KNOWN_OPTIONS = Collections.unmodifiableSet(
+        new HashSet<String>(Arrays.asList(
+            CACHE_DIR, COUNTERS, SHADOW_SAMPLE, SHADOW_LOG, STARTUP_STATS, INLINE, FAST_DIGITS,
+            FAST_BIG_DECIMAL, JFR, ASSUME_VERSION, REPORT, ASM_JAR)));
+
+    private final Map<String, String> values;
+
+    private AgentOptions(Map<String, String> values)
+    {
+        this.values = values;
+    }
+
+    /**
+     * @param agentArgs the agent argument string as given to {@code premain}, may be {@code null}
+     * @return the parsed options, never {@code null}
+     */
+    static AgentOptions parse(String agentArgs)
+    {
+        Map<String, String> values = new HashMap<String, String>();
+        if (agentArgs != null)
+        {
+            for (String option : agentArgs.split(","))
+            {
+                option = option.trim();
+                if (option.length() == 0)
+                {
+                    continue;
+                }
+                int eq = option.indexOf('=');
+                String name = eq < 0 ? option : option.substring(0, eq).trim();
+                String value = eq < 0 ? "" : option.substring(eq + 1).trim();
+                if (KNOWN_OPTIONS.contains(name))
+                {
+                    values.put(name, value);
+                }
+                else
+                {
+                    System.err.println("Ignoring unknown agent option: " + option);
+                }
+            }
+        }
+        return new AgentOptions(values);
+    }
+
+    String get(String name)
+    {
+        return values.get(name);
+    }
+
+    /**
+     * @return whether a flag option is set, either by name alone or as {@code name=true}
+     */
+    boolean isEnabled(String name)
+    {
+        String value = get(name);
+        return value != null && (value.length() == 0 || "true".equalsIgnoreCase(value));
+    }
+
+    /**
+     * @return the variant of the patch that the options ask for, or {@code null} for the
+     *     standard patch
+     */
+    String getVariant()
+    {
+        if (get(SHADOW_SAMPLE) != null)
+        {
+            if (isEnabled(COUNTERS))
+            {
+                System.err.println("Ignoring agent option " + COUNTERS + ": not available with "
+                    + SHADOW_SAMPLE);
+            }
+            return DigitListPatch.SHADOW_VARIANT;
+        }
+        return isEnabled(COUNTERS) ? DigitListPatch.COUNTED_VARIANT : null;
+    }
+
+    /**
+     * @return whether the options ask for the standard patch to be copied inline; the variants
+     *     of the patch always add methods
+     */
+    boolean isInline()
+    {
+        if (isEnabled(INLINE) && (get(SHADOW_SAMPLE) != null || isEnabled(COUNTERS)))
+        {
+            System.err.println("Ignoring agent option " + INLINE + ": not available with "
+                + COUNTERS + " or " + SHADOW_SAMPLE);
+            return false;
+        }
+        return isEnabled(INLINE);
+    }
+
+    /**
+     * @return whether the options ask for the fast digit fill; not with the variants, whose
+     *     counts and comparisons would miss the decisions that it makes
+     */
+    boolean isFastDigits()
+    {
+        return isFastPath(FAST_DIGITS);
+    }
+
+    /** @return whether the options ask for the fast path for {@code BigDecimal}; as above */
+    boolean isFastBigDecimal()
+    {
+        return isFastPath(FAST_BIG_DECIMAL);
+    }
+
+    private boolean isFastPath(String name)
+    {
+        if (isEnabled(name) && (get(SHADOW_SAMPLE) != null || isEnabled(COUNTERS)))
+        {
+            System.err.println("Ignoring agent option " + name + ": not available with "
+                + COUNTERS + " or " + SHADOW_SAMPLE);
+            return false;
+        }
+        return isEnabled(name);
+    }
+
+    /**
+     * @return the shadow comparison sampling interval: one in this many decisions, or zero
+     *     to start with sampling off
+     */
+    int getShadowSample()
+    {
+        String value = get(SHADOW_SAMPLE);
+        try
+        {
+            return value == null || value.length() == 0 ? 0 : Math.max(0, Integer.parseInt(value));
+        }
+        catch (NumberFormatException e)
+        {
+            System.err.println("Ignoring invalid agent option " + SHADOW_SAMPLE + "=" + value);
+            return 0;
+        }
+    }
+
+    /** @return the file to log shadow comparison differences to */
+    File getShadowLog()
+    {
+        String file = get(SHADOW_LOG);
+        return new File(file == null || file.length() == 0 ? DEFAULT_SHADOW_LOG : file);
+    }
+
+    /** @return the file named by a path option, or {@code null} if it was not given */
+    File getFile(String name)
+    {
+        String file = get(name);
+        return file == null || file.length() == 0 ? null : new File(file);
+    }
+
+    /** @return the Java version that decides whether the patch may be needed */
+    String getJavaVersion()
+    {
+        String version = get(ASSUME_VERSION);
+        return version == null || version.length() == 0
+            ? System.getProperty("java.version") : version;
+    }
+
+    /** @return the patch cache directory, or {@code null} if caching was not requested */
+    File getCacheDir()
+    {
+        return getFile(CACHE_DIR);
+    }
+}
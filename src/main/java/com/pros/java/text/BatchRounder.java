@@ -0,0 +1,435 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.text.DecimalFormat;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-rounds a large file of prices {@code HALF_UP}, with the patched semantics, and without
+ * a patched JVM: the {@code round} command.
+ * <pre>
+ * java -jar patch.jar round in=prices.csv out=rounded.csv scale=2 column=3 header=true
+ * java -jar patch.jar round in=prices.bin format=binary order=little out=rounded.txt
+ * </pre>
+ * The input is either delimited text (without quoting), of which one column is rounded and the
+ * rest copied as is, or binary {@code double}s, which are written out one per line.  Fields
+ * that are not plain decimal numbers are copied unchanged.
+ * <p>
+ * The input file is memory-mapped in chunks of {@code chunk} megabytes; text chunks are
+ * aligned to lines (a line belongs to the chunk in which it starts), binary chunks to whole
+ * values.  Each chunk is rounded and formatted by {@link HalfUpFormatter} on a thread of its
+ * own, into memory, and the results are written through a {@code FileChannel} in input order,
+ * with at most two chunks per thread in flight.  Progress is reported every few seconds.
+ * </p>
+ */
+final class BatchRounder
+{
+    /** Lines may not be longer than this, in bytes. */
+    private static final int MAX_LINE = 1 << 20;
+
+    /** Longest text accepted as a number; longer fields are copied unchanged. */
+    private static final int MAX_NUMBER = 64;
+
+    private static final long PROGRESS_NANOS = 5000000000L;
+
+    // configuration; defaults can be overridden by name=value arguments
+    File in;
+    File out;
+    boolean binary;
+    ByteOrder order = ByteOrder.BIG_ENDIAN;
+    int scale = 2;
+    int column;
+    byte delimiter = ',';
+    boolean header;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long chunkSize = 64L << 20; // bytes
+
+    private HalfUpFormatter formatter;
+    private final AtomicLong rounded = new AtomicLong();
+    private final AtomicLong unchanged = new AtomicLong();
+    private final AtomicLong lines = new AtomicLong();
+
+    public static void main(String ... args)
+    throws Exception
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg : arg.substring(0, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        BatchRounder rounder = new BatchRounder();
+        try
+        {
+            String in = options.remove("in");
+            rounder.in = in == null ? null : new File(in);
+            rounder.out = new File(option(options, "out", in + ".rounded"));
+            rounder.binary = "binary".equals(option(options, "format", "text"));
+            rounder.order = "little".equals(option(options, "order", "big"))
+                ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN;
+            rounder.scale = Integer.parseInt(option(options, "scale", rounder.scale));
+            rounder.column = Integer.parseInt(option(options, "column", rounder.column));
+            String delimiter = option(options, "delimiter", ",");
+            rounder.delimiter = (byte) ("tab".equals(delimiter) ? '\t' : delimiter.charAt(0));
+            rounder.header = Boolean.parseBoolean(option(options, "header", rounder.header));
+            rounder.threads = Integer.parseInt(option(options, "threads", rounder.threads));
+            rounder.chunkSize = (long) Integer.parseInt(option(options, "chunk", 64)) << 20;
+        }
+        catch (NumberFormatException e)
+        {
+            options.put(e.getMessage(), null);
+        }
+        if (!options.isEmpty() || rounder.in == null)
+        {
+            System.err.println("Invalid option(s): " + options.keySet());
+            System.err.println("Options: in=<file> out=<file> format=text|binary order=big|little"
+                + " scale=2 column=0 delimiter=,|tab header=false threads=<count> chunk=64");
+            System.exit(2);
+        }
+        rounder.run(System.out);
+    }
+
+    /** Removes and returns an option, or returns the default if it was not given. */
+    private static String option(Map<String, String> options, String name, Object defaultValue)
+    {
+        String value = options.remove(name);
+        return value == null ? String.valueOf(defaultValue) : value;
+    }
+
+    /**
+     * Rounds the whole input into the output file, reporting progress and the summary to
+     * {@code summary}.
+     *
+     * @return the number of values rounded
+     */
+    long run(PrintStream summary)
+    throws IOException, InterruptedException, ExecutionException
+    {
+        if (scale < 0 || column < 0 || threads <= 0 || chunkSize < 8 || chunkSize > 1L << 30)
+        {
+            throw new IllegalArgumentException("Invalid configuration");
+        }
+        DecimalFormat format = DifferentialVerifier.halfUpFormat();
+        format.setMinimumFractionDigits(scale);
+        format.setMaximumFractionDigits(scale);
+        formatter = new HalfUpFormatter(format);
+
+        long start = System.nanoTime();
+        FileInputStream inStream = new FileInputStream(in);
+        FileOutputStream outStream = new FileOutputStream(out);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long size;
+        try
+        {
+            final FileChannel input = inStream.getChannel();
+            FileChannel output = outStream.getChannel();
+            size = input.size();
+            long chunkSize = this.chunkSize & ~7L; // whole doubles
+            if (binary && size % 8 != 0)
+            {
+                throw new IOException(in + " is not a whole number of doubles: " + size + " bytes");
+            }
+
+            Deque<Future<ByteBuffer>> pending = new ArrayDeque<Future<ByteBuffer>>();
+            long lastReport = start;
+            for (long chunkStart = 0; chunkStart < size || !pending.isEmpty(); )
+            {
+                if (chunkStart < size && pending.size() < 2 * threads)
+                {
+                    final long from = chunkStart;
+                    final long to = Math.min(size, chunkStart + chunkSize);
+                    final long fileSize = size;
+                    pending.add(executor.submit(new Callable<ByteBuffer>()
+                    {
+                        @Override
+                        public ByteBuffer call()
+                        throws IOException
+                        {
+                            return binary ? roundBinary(input, from, to) : roundText(input, from, to, fileSize);
+                        }
+                    }));
+                    chunkStart = to;
+                    continue;
+                }
+
+                // Enough in flight: write the oldest chunk, which keeps the output in order
+                write(pending.removeFirst().get(), output);
+                long now = System.nanoTime();
+                if (now - lastReport >= PROGRESS_NANOS)
+                {
+                    lastReport = now;
+                    long done = Math.max(0, chunkStart - pending.size() * chunkSize);
+                    summary.printf("Progress: %,d of %,d MB (%.0f%%), %.1f MB/s%n",
+                        done >> 20, size >> 20, 100.0 * done / size, megabytesPerSecond(done, now - start));
+                }
+            }
+        }
+        finally
+        {
+            executor.shutdownNow();
+            inStream.close();
+            outStream.close();
+        }
+
+        long elapsed = System.nanoTime() - start;
+        if (binary)
+        {
+            summary.printf("Rounded %,d values to %d fraction digits%n", rounded.get(), scale);
+        }
+        else
+        {
+            summary.printf("Rounded %,d values to %d fraction digits in %,d lines,"
+                + " %,d fields left unchanged%n", rounded.get(), scale, lines.get(), unchanged.get());
+        }
+        summary.printf("Read %,d MB in %.2f s: %.1f MB/s, %,.0f values/s with %d threads%n",
+            size >> 20, elapsed / 1e9, megabytesPerSecond(size, elapsed),
+            rounded.get() / (elapsed / 1e9), threads);
+        return rounded.get();
+    }
+
+    private static double megabytesPerSecond(long bytes, long nanos)
+    {
+        return bytes / (1024.0 * 1024.0) / (nanos / 1e9);
+    }
+
+    private static void write(ByteBuffer buffer, FileChannel output)
+    throws IOException
+    {
+        buffer.flip();
+        while (buffer.hasRemaining())
+        {
+            output.write(buffer);
+        }
+    }
+
+    ByteBuffer roundBinary(FileChannel input, long from, long to)
+    throws IOException
+    {
+        MappedByteBuffer map = input.map(FileChannel.MapMode.READ_ONLY, from, to - from);
+        DoubleBuffer doubles = map.order(order).asDoubleBuffer();
+        int valueLength = 3 * formatter.getMaximumLength() + 1;
+        ByteBuffer result = ByteBuffer.allocate(
+            (int) Math.min(Integer.MAX_VALUE - 8, (long) doubles.remaining() * 8 + valueLength));
+        double[] values = new double[1024];
+        while (doubles.hasRemaining())
+        {
+            int count = Math.min(values.length, doubles.remaining());
+            doubles.get(values, 0, count);
+            for (int done = 0; done < count; )
+            {
+                done += formatter.format(values, done, count - done, result, (byte) '\n', null);
+                if (done < count)
+                {
+                    result = grow(result, valueLength);
+                }
+            }
+            rounded.addAndGet(count);
+        }
+        return result;
+    }
+
+    /**
+     * Rounds the lines that start in {@code [from, to)}; the last may continue past {@code to}.
+     */
+    ByteBuffer roundText(FileChannel input, long from, long to, long size)
+    throws IOException
+    {
+        long mapStart = from == 0 ? 0 : from - 1; // to see whether a line starts at 'from'
+        long mapEnd = Math.min(size, to + MAX_LINE);
+        MappedByteBuffer map = input.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+        int limit = (int) (to - mapStart);
+        int pos = 0;
+        if (from > 0)
+        {
+            while (pos < map.limit() && map.get(pos) != '\n')
+            {
+                pos++; // the rest of a line that belongs to the previous chunk
+            }
+            pos++;
+        }
+
+        ByteBuffer result = ByteBuffer.allocate(Math.max(0, limit - pos) + (limit - pos) / 4 + 64);
+        byte[] line = new byte[256];
+        char[] number = new char[MAX_NUMBER];
+        char[] text = new char[formatter.getMaximumLength()];
+        long chunkRounded = 0;
+        long chunkUnchanged = 0;
+        long chunkLines = 0;
+        while (pos < limit)
+        {
+            int end = pos;
+            while (end < map.limit() && map.get(end) != '\n')
+            {
+                end++;
+            }
+            if (end == map.limit() && mapEnd < size)
+            {
+                throw new IOException("Line at byte " + (mapStart + pos) + " is longer than "
+                    + MAX_LINE + " bytes");
+            }
+            int length = end - pos;
+            if (line.length < length)
+            {
+                line = new byte[Math.max(length, 2 * line.length)];
+            }
+            map.position(pos);
+            map.get(line, 0, length);
+            boolean newline = end < map.limit();
+            pos = end + 1;
+            chunkLines++;
+
+            if (result.remaining() < length + text.length + 1)
+            {
+                result = grow(result, length + text.length + 1);
+            }
+            if (header && mapStart + pos - length - 1 == 0)
+            {
+                result.put(line, 0, length); // the header line
+            }
+            else
+            {
+                // Find the column; a trailing '\r' is not part of the last field
+                int fieldStart = 0;
+                for (int field = 0; field < column && fieldStart <= length; field++)
+                {
+                    while (fieldStart < length && line[fieldStart] != delimiter)
+                    {
+                        fieldStart++;
+                    }
+                    fieldStart++;
+                }
+                int fieldEnd = fieldStart;
+                while (fieldEnd < length && line[fieldEnd] != delimiter && line[fieldEnd] != '\r')
+                {
+                    fieldEnd++;
+                }
+
+                int formatted = fieldStart <= length ? round(line, fieldStart, fieldEnd, number, text) : -1;
+                if (formatted < 0)
+                {
+                    result.put(line, 0, length);
+                    chunkUnchanged++;
+                }
+                else
+                {
+                    result.put(line, 0, fieldStart);
+                    for (int i = 0; i < formatted; i++)
+                    {
+                        result.put((byte) text[i]); // ASCII with Locale.ROOT symbols
+                    }
+                    result.put(line, fieldEnd, length - fieldEnd);
+                    chunkRounded++;
+                }
+            }
+            if (newline)
+            {
+                result.put((byte) '\n');
+            }
+        }
+        rounded.addAndGet(chunkRounded);
+        unchanged.addAndGet(chunkUnchanged);
+        lines.addAndGet(chunkLines);
+        return result;
+    }
+
+    /**
+     * @return the length of the rounded text in {@code text}, or {@code -1} if the field is not
+     *     a finite decimal number
+     */
+    private int round(byte[] line, int start, int end, char[] number, char[] text)
+    {
+        int length = end - start;
+        if (length == 0 || length > number.length)
+        {
+            return -1;
+        }
+        for (int i = 0; i < length; i++)
+        {
+            byte b = line[start + i];
+            if ((b < '0' || b > '9') && b != '.' && b != '-' && b != '+' && b != 'e' && b != 'E')
+            {
+                return -1; // also rejects the forms parseDouble would take: "NaN", "0x1p3", "1d"
+            }
+            number[i] = (char) b;
+        }
+        double value;
+        try
+        {
+            value = Double.parseDouble(new String(number, 0, length));
+        }
+        catch (NumberFormatException e)
+        {
+            return -1;
+        }
+        if (Double.isInfinite(value))
+        {
+            return -1;
+        }
+        return formatter.format(value, text, 0);
+    }
+
+    private static ByteBuffer grow(ByteBuffer buffer, int needed)
+    {
+        long capacity = Math.max((long) buffer.capacity() * 2, (long) buffer.position() + needed);
+        if (capacity > Integer.MAX_VALUE - 8)
+        {
+            throw new IllegalStateException("Output of one chunk exceeds 2 GB; use a smaller chunk");
+        }
+        ByteBuffer bigger = ByteBuffer.allocate((int) capacity);
+        buffer.flip();
+        bigger.put(buffer);
+        return bigger;
+    }
+}
@@ -0,0 +1,500 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.RoundingMode;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Measures what the agent's transformer costs the loading of a large application: the JVM
+ * calls {@code transform} for every class defined while it is registered, until
+ * {@code java.text.DigitList} has been handled.  Run it from the agent JAR, without the agent:
+ * <pre>
+ * java -jar patch-with-asm.jar classload classes=50000 loaders=100 budget=2
+ * </pre>
+ * Each run starts a new JVM, with or without {@code -javaagent}, that defines {@code classes}
+ * synthetic classes of {@code classBytes} bytes through {@code loaders} class loaders, and
+ * loads {@code DigitList} by formatting a number either before the synthetic classes
+ * ({@code early}, as most applications do) or after them ({@code late}, so that the transformer
+ * sees every one of them).  The four combinations are run {@code runs} times, interleaved, and
+ * the median time to define the classes and the median wall time of the whole JVM are reported
+ * for each, along with the agent's own count of callbacks.
+ * <p>
+ * On a JVM that does not need the patch, the transformer is never registered, so there is
+ * nothing to measure; pass {@code agentOptions=assumeVersion=1.8.0_31} to measure it anyway.
+ * The run fails if the late case costs more than {@code budget} microseconds per class, or if
+ * either case adds more than {@code startupBudget} milliseconds to the wall time of the JVM.
+ * </p>
+ */
+final class ClassLoadBenchmark
+{
+    /** Line on which a child JVM reports its measurements to the parent. */
+    static final String RESULT = "classload-result";
+
+    /** Line on which a child JVM with the agent reports the agent's startup cost. */
+    static final String STARTUP = "classload-startup";
+
+    /** Name of every synthetic class, with the digits replaced for each one. */
+    private static final String NAME = "synthetic/L0000/C000000";
+
+    private static final int LOADER_DIGITS_AT = 11;
+
+    private static final int CLASS_DIGITS_AT = 17;
+
+    /** Size of a synthetic class file without padding. */
+    static final int MIN_CLASS_BYTES = 55 + NAME.length();
+
+    private static final String[] WHEN = { "early", "late" };
+
+    // configuration; defaults can be overridden by name=value arguments
+    int classes = 50000;
+    int loaders = 100;
+    int classBytes = 2048;
+    int runs = 5;
+    String agent = codeSource();
+    String agentOptions = "";
+    String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+    double budget;
+    double startupBudget;
+
+    public static void main(String ... args)
+    throws Exception
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg : arg.substring(0, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        ClassLoadBenchmark benchmark = new ClassLoadBenchmark();
+        String child = options.remove("child");
+        try
+        {
+            benchmark.classes = Integer.parseInt(option(options, "classes", benchmark.classes));
+            benchmark.loaders = Integer.parseInt(option(options, "loaders", benchmark.loaders));
+            benchmark.classBytes =
+                Integer.parseInt(option(options, "classBytes", benchmark.classBytes));
+            benchmark.runs = Integer.parseInt(option(options, "runs", benchmark.runs));
+            benchmark.agent = option(options, "agent", benchmark.agent);
+            benchmark.agentOptions = option(options, "agentOptions", benchmark.agentOptions);
+            benchmark.java = option(options, "java", benchmark.java);
+            benchmark.budget = Double.parseDouble(option(options, "budget", benchmark.budget));
+            benchmark.startupBudget =
+                Double.parseDouble(option(options, "startupBudget", benchmark.startupBudget));
+        }
+        catch (NumberFormatException e)
+        {
+            options.put(e.getMessage(), null);
+        }
+        if (!options.isEmpty())
+        {
+            System.err.println("Invalid option(s): " + options.keySet());
+            System.err.println("Options: classes=50000 loaders=100 classBytes=2048 runs=5"
+                + " agent=<JAR> agentOptions=<options> java=<path> budget=<us per class>"
+                + " startupBudget=<ms>");
+            System.exit(2);
+        }
+        if (child != null)
+        {
+            benchmark.runChild("late".equals(child));
+            return;
+        }
+        int failures = benchmark.run(System.out);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Removes and returns an option, or returns the default if it was not given. */
+    private static String option(Map<String, String> options, String name, Object defaultValue)
+    {
+        String value = options.remove(name);
+        return value == null ? String.valueOf(defaultValue) : value;
+    }
+
+    /** @return the JAR this class was loaded from, or {@code null} if it is not a JAR */
+    private static String codeSource()
+    {
+        URL location =
+            ClassLoadBenchmark.class.getProtectionDomain().getCodeSource().getLocation();
+        try
+        {
+            File file = new File(location.toURI());
+            return file.isFile() ? file.getPath() : null;
+        }
+        catch (URISyntaxException e)
+        {
+            return null;
+        }
+        catch (IllegalArgumentException e)
+        {
+            return null; // not a file: URL
+        }
+    }
+
+    /**
+     * Runs every combination in child JVMs, writing the results to {@code summary}.
+     *
+     * @return the number of budgets exceeded
+     */
+    int run(PrintStream summary)
+    throws IOException, InterruptedException
+    {
+        checkConfiguration();
+        if (runs <= 0 || budget < 0 || startupBudget < 0)
+        {
+            throw new IllegalArgumentException("Invalid configuration");
+        }
+        if (agent == null || !new File(agent).isFile())
+        {
+            throw new IllegalArgumentException(
+                "No agent JAR: run the command from the JAR, or give agent=<path>");
+        }
+        String agentArgument = "-javaagent:" + agent
+            + (agentOptions.length() == 0 ? "" : "=" + agentOptions);
+        summary.printf("Defining %d classes of %d bytes through %d class loaders,"
+            + " median of %d run(s)%n", classes, classBytes, loaders, runs);
+        summary.printf("Java: %s%nAgent: %s%n", java, agentArgument);
+
+        child(null, false); // warm up the file system cache, discarded
+        Sample[][][] samples = new Sample[WHEN.length][2][runs];
+        for (int run = 0; run < runs; run++)
+        {
+            for (int when = 0; when < WHEN.length; when++)
+            {
+                samples[when][0][run] = child(null, when == 1);
+                samples[when][1][run] = child(agentArgument, when == 1);
+            }
+        }
+
+        summary.printf("%nDigitList  agent     load ms   process ms  callbacks  transformer%n");
+        double[][] loadMillis = new double[WHEN.length][2];
+        double[][] processMillis = new double[WHEN.length][2];
+        for (int when = 0; when < WHEN.length; when++)
+        {
+            for (int withAgent = 0; withAgent < 2; withAgent++)
+            {
+                Sample[] runSamples = samples[when][withAgent];
+                double[] load = new double[runs];
+                double[] process = new double[runs];
+                for (int run = 0; run < runs; run++)
+                {
+                    load[run] = runSamples[run].loadNanos / 1e6;
+                    process[run] = runSamples[run].processNanos / 1e6;
+                }
+                loadMillis[when][withAgent] = median(load);
+                processMillis[when][withAgent] = median(process);
+                Sample last = runSamples[runs - 1];
+                summary.printf("%-9s  %-5s  %10.1f  %11.1f  %9d  %s%n", WHEN[when],
+                    withAgent == 0 ? "no" : "yes", loadMillis[when][withAgent],
+                    processMillis[when][withAgent], last.transformCalls,
+                    withAgent == 0 ? "-" : !last.registeredAtStart ? "not registered"
+                        : last.registeredAtEnd ? "still registered" : "removed");
+            }
+        }
+
+        summary.println();
+        double[] perClass = new double[WHEN.length];
+        double[] startup = new double[WHEN.length];
+        for (int when = 0; when < WHEN.length; when++)
+        {
+            double load = loadMillis[when][1] - loadMillis[when][0];
+            perClass[when] = load * 1e3 / classes;
+            startup[when] = processMillis[when][1] - processMillis[when][0];
+            summary.printf("Agent overhead, DigitList %-5s: %+.1f ms loading (%+.3f us per class),"
+                + " %+.1f ms process%n", WHEN[when], load, perClass[when], startup[when]);
+        }
+        Sample late = samples[1][1][runs - 1];
+        if (late.startup != null)
+        {
+            summary.println("Agent startup (late): " + late.startup);
+        }
+        if (!late.registeredAtStart)
+        {
+            summary.println("The transformer was not registered, so only premain was measured;"
+                + " add agentOptions=assumeVersion=1.8.0_31 to measure it on this JVM");
+        }
+
+        int failures = 0;
+        if (budget > 0 && perClass[1] > budget)
+        {
+            summary.printf("Over budget: %.3f us per class, budget %.3f%n", perClass[1], budget);
+            failures++;
+        }
+        for (int when = 0; when < WHEN.length; when++)
+        {
+            if (startupBudget > 0 && startup[when] > startupBudget)
+            {
+                summary.printf("Over startup budget (DigitList %s): %.1f ms, budget %.1f%n",
+                    WHEN[when], startup[when], startupBudget);
+                failures++;
+            }
+        }
+        return failures;
+    }
+
+    private void checkConfiguration()
+    {
+        if (classes <= 0 || classes > 1000000 || loaders <= 0 || loaders > 10000
+            || classBytes < MIN_CLASS_BYTES || classBytes > MIN_CLASS_BYTES + 0xFFFF)
+        {
+            throw new IllegalArgumentException("Invalid configuration");
+        }
+    }
+
+    /** Runs one child JVM and collects its measurements. */
+    private Sample child(String agentArgument, boolean late)
+    throws IOException, InterruptedException
+    {
+        List<String> command = new ArrayList<String>();
+        command.add(java);
+        if (agentArgument != null)
+        {
+            command.add(agentArgument);
+        }
+        command.addAll(Arrays.asList("-cp", System.getProperty("java.class.path"),
+            DigitListPatch.class.getName(), "classload", "child=" + (late ? "late" : "early"),
+            "classes=" + classes, "loaders=" + loaders, "classBytes=" + classBytes));
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectErrorStream(true).start();
+        StringBuilder output = new StringBuilder();
+        Sample sample = null;
+        BufferedReader reader =
+            new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+        try
+        {
+            String line;
+            while ((line = reader.readLine()) != null)
+            {
+                output.append(line).append('\n');
+                if (line.startsWith(RESULT + ' '))
+                {
+                    sample = Sample.parse(line);
+                }
+                else if (line.startsWith(STARTUP + ' ') && sample != null)
+                {
+                    sample.startup = line.substring(STARTUP.length() + 1);
+                }
+            }
+        }
+        finally
+        {
+            reader.close();
+        }
+        int status = process.waitFor();
+        if (status != 0 || sample == null)
+        {
+            throw new IOException("Child JVM failed with status " + status + ": " + command
+                + "\n" + output);
+        }
+        sample.processNanos = System.nanoTime() - start;
+        return sample;
+    }
+
+    /** Defines the synthetic classes, and reports the time taken on {@code System.out}. */
+    void runChild(boolean late)
+    {
+        checkConfiguration();
+        boolean registeredAtStart = DigitListPatch.registered;
+        int digits = late ? 0 : formatOnce();
+        SyntheticLoader[] classLoaders = loaders(loaders);
+        long loadNanos = defineClasses(classLoaders, classes, classBytes);
+        if (late)
+        {
+            digits = formatOnce();
+        }
+        System.out.println(RESULT + ' ' + loadNanos + ' ' + DigitListPatch.transformCalls.get()
+            + ' ' + registeredAtStart + ' ' + DigitListPatch.registered + ' ' + digits);
+        if (DigitListPatch.installed)
+        {
+            System.out.println(STARTUP + ' ' + DigitListPatch.startupSummary());
+        }
+    }
+
+    /** Loads {@code java.text.DigitList}, as an application would. */
+    private static int formatOnce()
+    {
+        NumberFormat format = NumberFormat.getInstance(Locale.US);
+        format.setMaximumFractionDigits(2);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        return format.format(1.005).length();
+    }
+
+    static SyntheticLoader[] loaders(int count)
+    {
+        SyntheticLoader[] classLoaders = new SyntheticLoader[count];
+        for (int i = 0; i < count; i++)
+        {
+            classLoaders[i] = new SyntheticLoader();
+        }
+        return classLoaders;
+    }
+
+    /**
+     * Defines {@code classes} synthetic classes, spread over the class loaders in turn.
+     *
+     * @return the time taken, in nanoseconds
+     */
+    static long defineClasses(SyntheticLoader[] classLoaders, int classes, int classBytes)
+    {
+        byte[] classFile = classFile(classBytes);
+        long start = System.nanoTime();
+        for (int i = 0; i < classes; i++)
+        {
+            int loader = i % classLoaders.length;
+            rename(classFile, loader, i);
+            classLoaders[loader].define(classFile);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * Generates the class file of an empty class, {@code synthetic.L0000.C000000}, padded to
+     * {@code classBytes} with an unused constant.  Use {@link #rename} to make it another class.
+     */
+    static byte[] classFile(int classBytes)
+    {
+        try
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(classBytes);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); // minor version
+            out.writeShort(50); // Java 6
+            out.writeShort(6); // constant pool count
+            out.writeByte(7); // #1 CONSTANT_Class
+            out.writeShort(2);
+            out.writeByte(1); // #2 CONSTANT_Utf8
+            out.writeUTF(NAME);
+            out.writeByte(7); // #3 CONSTANT_Class
+            out.writeShort(4);
+            out.writeByte(1); // #4 CONSTANT_Utf8
+            out.writeUTF("java/lang/Object");
+            out.writeByte(1); // #5 CONSTANT_Utf8, padding
+            char[] padding = new char[classBytes - MIN_CLASS_BYTES];
+            Arrays.fill(padding, 'x');
+            out.writeUTF(new String(padding));
+            out.writeShort(0x21); // ACC_PUBLIC | ACC_SUPER
+            out.writeShort(1); // this class
+            out.writeShort(3); // super class
+            out.writeShort(0); // interfaces
+            out.writeShort(0); // fields
+            out.writeShort(0); // methods
+            out.writeShort(0); // attributes
+            out.flush();
+            return bytes.toByteArray();
+        }
+        catch (IOException e)
+        {
+            throw new AssertionError(e);
+        }
+    }
+
+    /** Changes the digits in the name of a class file from {@link #classFile}. */
+    static void rename(byte[] classFile, int loader, int index)
+    {
+        int name = 16; // after the magic, the versions, the count, #1 and the length of #2
+        putDigits(classFile, name + LOADER_DIGITS_AT, 4, loader);
+        putDigits(classFile, name + CLASS_DIGITS_AT, 6, index);
+    }
+
+    private static void putDigits(byte[] bytes, int at, int width, int value)
+    {
+        for (int i = at + width - 1; i >= at; i--)
+        {
+            bytes[i] = (byte) ('0' + value % 10);
+            value /= 10;
+        }
+    }
+
+    static double median(double[] values)
+    {
+        double[] sorted = values.clone();
+        Arrays.sort(sorted);
+        int middle = sorted.length / 2;
+        return sorted.length % 2 != 0 ? sorted[middle] : (sorted[middle - 1] + sorted[middle]) / 2;
+    }
+
+    /** A class loader of its own for some of the synthetic classes, like a plugin's. */
+    static final class SyntheticLoader extends ClassLoader
+    {
+        SyntheticLoader()
+        {
+            super(null);
+        }
+
+        Class<?> define(byte[] classFile)
+        {
+            return defineClass(null, classFile, 0, classFile.length);
+        }
+    }
+
+    /** The measurements of one child JVM. */
+    private static final class Sample
+    {
+        long loadNanos;
+        long processNanos;
+        long transformCalls;
+        boolean registeredAtStart;
+        boolean registeredAtEnd;
+        String startup;
+
+        static Sample parse(String line)
+        {
+            String[] fields = line.split(" ");
+            Sample sample = new Sample();
+            sample.loadNanos = Long.parseLong(fields[1]);
+            sample.transformCalls = Long.parseLong(fields[2]);
+            sample.registeredAtStart = Boolean.parseBoolean(fields[3]);
+            sample.registeredAtEnd = Boolean.parseBoolean(fields[4]);
+            return sample;
+        }
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+/**
+ * A fix for one JDK class, which the agent's single transformer applies when that class is
+ * loaded.  Patches are looked up by class name in a {@link PatchRegistry}, so the cost to every
+ * other class load does not grow with the number of patches.
+ * <p>
+ * A patch usually transplants code from a template class compiled along with the agent, as
+ * {@link DigitListPatch.TemplateMethodAdapter} does for {@code java.text.DigitList}.
+ * </p>
+ */
+interface ClassPatch
+{
+    /** @return the internal name of the class to patch, such as {@code java/text/DigitList} */
+    String getTargetClassName();
+
+    /**
+     * A coarse check, made once when the agent starts; a patch that cannot apply is not
+     * registered at all.
+     *
+     * @param javaVersion value of the {@code java.version} system property, may be {@code null}
+     * @return {@code false} only if the running JVM is known not to need the patch
+     */
+    boolean mayApply(String javaVersion);
+
+    /**
+     * Called once, when the target class is loaded (or retransformed).  Any check that needs
+     * the bytecode, such as its version, is made here.
+     *
+     * @param classfileBytes the original bytecode of the target class
+     * @return the patched bytecode, or {@code null} to leave the class unchanged
+     */
+    byte[] apply(byte[] classfileBytes);
+}
@@ -0,0 +1,358 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares {@code DecimalFormat}'s {@code HALF_UP} output with a {@code BigDecimal} reference
+ * ({@link HalfUpRounding#rounded}) over far more values than the {@link SelfTest}, using every
+ * core.  Run it with the agent, like the self test:
+ * <pre>
+ * java -javaagent:patch.jar -jar patch.jar verify ties=100000000 random=1000000000 out=verify.log
+ * </pre>
+ * Two kinds of cases are generated:
+ * <ul>
+ *   <li>for every scale from 0 to {@code maxScale}, the doubles nearest to each tie
+ *       (k + &frac12;) / 10<sup>scale</sup> for k from 0 to {@code ties - 1}, together with
+ *       their {@code radius} neighbors on either side ({@link Math#nextUp} and
+ *       {@code nextAfter} downwards); and</li>
+ *   <li>{@code random} samples: arbitrary doubles and doubles close to a tie, each at a random
+ *       scale, from a sequence fixed by {@code seed}.</li>
+ * </ul>
+ * Besides equality with the reference, the tie cases check that the output never decreases
+ * while the input increases.  The work is split into chunks that idle threads claim in turn
+ * (Java 6 has no fork/join framework); failures are written to the {@code out} file as they
+ * are found, and the summary reports the throughput of each thread.
+ */
+final class DifferentialVerifier
+{
+    /** Number of ties, or random samples, in one unit of work. */
+    private static final int CHUNK = 4096;
+
+    private static final long[] POW10 = HalfUpRounding.POW10;
+
+    // configuration; defaults can be overridden by name=value arguments
+    int maxScale = 10;
+    long ties = 1000000;
+    int radius = 2;
+    long random = 1000000;
+    long seed = 20140624L;
+    int threads = Runtime.getRuntime().availableProcessors();
+    File out = new File("verify-halfup.log");
+
+    private final DecimalFormat subject;
+    private final AtomicLong nextChunk = new AtomicLong();
+    private final AtomicLong mismatches = new AtomicLong();
+    private final AtomicLong nonMonotonic = new AtomicLong();
+    private PrintWriter report;
+
+    /** @param subject the format under test; it is cloned for each thread and its digits set */
+    DifferentialVerifier(DecimalFormat subject)
+    {
+        this.subject = subject;
+    }
+
+    /** Creates the usual subject: {@code HALF_UP}, no grouping, {@link Locale#ROOT} symbols. */
+    static DecimalFormat halfUpFormat()
+    {
+        DecimalFormat format = new DecimalFormat("0", DecimalFormatSymbols.getInstance(Locale.ROOT));
+        format.setGroupingUsed(false);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        return format;
+    }
+
+    public static void main(String ... args)
+    throws Exception
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg : arg.substring(0, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        DifferentialVerifier verifier = new DifferentialVerifier(halfUpFormat());
+        try
+        {
+            verifier.maxScale = Integer.parseInt(option(options, "maxScale", verifier.maxScale));
+            verifier.ties = Long.parseLong(option(options, "ties", verifier.ties));
+            verifier.radius = Integer.parseInt(option(options, "radius", verifier.radius));
+            verifier.random = Long.parseLong(option(options, "random", verifier.random));
+            verifier.seed = Long.parseLong(option(options, "seed", verifier.seed));
+            verifier.threads = Integer.parseInt(option(options, "threads", verifier.threads));
+            verifier.out = new File(option(options, "out", verifier.out));
+        }
+        catch (NumberFormatException e)
+        {
+            options.put(e.getMessage(), null);
+        }
+        if (!options.isEmpty())
+        {
+            System.err.println("Invalid option(s): " + options.keySet());
+            System.err.println("Options: maxScale=10 ties=1000000 radius=2 random=1000000"
+                + " seed=<long> threads=<count> out=<file>");
+            System.exit(2);
+        }
+        System.out.printf("Agent installed: %s, patch applied: %s, Java %s%n",
+            DigitListPatch.installed ? "yes" : "NO", DigitListPatch.applied ? "yes" : "NO",
+            System.getProperty("java.version"));
+        long failures = verifier.run(System.out);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Removes and returns an option, or returns the default if it was not given. */
+    private static String option(Map<String, String> options, String name, Object defaultValue)
+    {
+        String value = options.remove(name);
+        return value == null ? String.valueOf(defaultValue) : value;
+    }
+
+    /**
+     * Runs every case, writing failures to {@link #out} and the summary to {@code summary}.
+     *
+     * @return the number of failed cases
+     */
+    long run(PrintStream summary)
+    throws IOException, InterruptedException
+    {
+        if (maxScale < 0 || maxScale >= POW10.length || ties < 0 || radius < 0 || random < 0
+            || ties > 1L << 52)
+        {
+            throw new IllegalArgumentException("Invalid configuration");
+        }
+        final long tieChunksPerScale = (ties + CHUNK - 1) / CHUNK;
+        final long tieChunks = tieChunksPerScale * (maxScale + 1);
+        final long chunks = tieChunks + (random + CHUNK - 1) / CHUNK;
+        summary.printf("Verifying %d cases on %d thread(s), failures to %s%n",
+            ties * (2 * radius + 1) * (maxScale + 1) + random, threads, out);
+
+        report = new PrintWriter(new OutputStreamWriter(new FileOutputStream(out), "UTF-8"));
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        long start = System.nanoTime();
+        try
+        {
+            List<Future<long[]>> workers = new ArrayList<Future<long[]>>();
+            for (int i = 0; i < threads; i++)
+            {
+                workers.add(executor.submit(new Callable<long[]>()
+                {
+                    @Override
+                    public long[] call()
+                    {
+                        return work(tieChunksPerScale, tieChunks, chunks);
+                    }
+                }));
+            }
+
+            long total = 0;
+            double seconds = (System.nanoTime() - start) / 1e9;
+            for (int i = 0; i < workers.size(); i++)
+            {
+                long[] result;
+                try
+                {
+                    result = workers.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    throw new IllegalStateException("Verification thread failed", e.getCause());
+                }
+                seconds = (System.nanoTime() - start) / 1e9;
+                double cpuSeconds = result[1] < 0 ? seconds : result[1] / 1e9;
+                summary.printf("  thread %2d: %,15d cases, %,12.0f cases/s (CPU time %.1f s)%n",
+                    i, result[0], result[0] / Math.max(cpuSeconds, 1e-9), cpuSeconds);
+                total += result[0];
+            }
+            summary.printf("Total: %,d cases in %.1f s, %,.0f cases/s, %,.0f cases/s per thread%n",
+                total, seconds, total / seconds, total / seconds / threads);
+            summary.printf("Mismatches: %d, non-monotonic: %d%n", mismatches.get(), nonMonotonic.get());
+        }
+        finally
+        {
+            executor.shutdown();
+            report.close();
+        }
+        return mismatches.get() + nonMonotonic.get();
+    }
+
+    /** @return the number of cases checked and the thread's CPU time, or -1 if unavailable */
+    private long[] work(long tieChunksPerScale, long tieChunks, long chunks)
+    {
+        ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        boolean cpuTime = threadBean.isCurrentThreadCpuTimeSupported();
+        long cpuStart = cpuTime ? threadBean.getCurrentThreadCpuTime() : 0;
+        DecimalFormat format = (DecimalFormat) subject.clone();
+        long cases = 0;
+        for (long chunk = nextChunk.getAndIncrement(); chunk < chunks;
+            chunk = nextChunk.getAndIncrement())
+        {
+            if (chunk < tieChunks)
+            {
+                int scale = (int) (chunk / tieChunksPerScale);
+                long first = (chunk % tieChunksPerScale) * CHUNK;
+                cases += verifyTies(format, scale, first, Math.min(ties, first + CHUNK));
+            }
+            else
+            {
+                long index = chunk - tieChunks;
+                long count = Math.min(CHUNK, random - index * CHUNK);
+                cases += verifyRandom(format, new Random(seed + index * 0x9E3779B97F4A7C15L), count);
+            }
+        }
+        long cpu = cpuTime ? threadBean.getCurrentThreadCpuTime() - cpuStart : -1;
+        return new long[] {cases, cpu};
+    }
+
+    private long verifyTies(DecimalFormat format, int scale, long first, long end)
+    {
+        setScale(format, scale);
+        double previousValue = -1;
+        BigDecimal previousResult = null;
+        long cases = 0;
+        for (long k = first; k < end; k++)
+        {
+            double tie = (k + 0.5) / POW10[scale]; // the nearest double to the exact tie
+            double value = tie;
+            for (int i = 0; i < radius; i++)
+            {
+                value = Math.nextAfter(value, Double.NEGATIVE_INFINITY);
+            }
+            for (int i = -radius; i <= radius; i++, value = Math.nextUp(value))
+            {
+                String actual = verify(format, value, scale);
+                cases++;
+                if (value > previousValue)
+                {
+                    BigDecimal result = new BigDecimal(actual);
+                    if (previousResult != null && result.compareTo(previousResult) < 0)
+                    {
+                        nonMonotonic.incrementAndGet();
+                        failure("NON-MONOTONIC scale=%d %s -> %s but %s -> %s",
+                            scale, previousValue, previousResult, value, actual);
+                    }
+                    previousValue = value;
+                    previousResult = result;
+                }
+            }
+        }
+        return cases;
+    }
+
+    private long verifyRandom(DecimalFormat format, Random rnd, long count)
+    {
+        for (long i = 0; i < count; i++)
+        {
+            int scale = rnd.nextInt(maxScale + 1);
+            double value;
+            if (rnd.nextBoolean())
+            {
+                do
+                {
+                    value = Math.abs(Double.longBitsToDouble(rnd.nextLong()));
+                }
+                while (Double.isNaN(value) || Double.isInfinite(value));
+            }
+            else
+            {
+                long k = (rnd.nextLong() >>> 1) % POW10[15];
+                value = (k + 0.5) / POW10[scale];
+                for (int ulps = rnd.nextInt(2 * radius + 1) - radius; ulps != 0; )
+                {
+                    value = ulps > 0 ? Math.nextUp(value) : Math.nextAfter(value, 0.0);
+                    ulps += ulps > 0 ? -1 : 1;
+                }
+            }
+            setScale(format, scale);
+            verify(format, value, scale);
+        }
+        return count;
+    }
+
+    /** @return the output of the format under test */
+    private String verify(DecimalFormat format, double value, int scale)
+    {
+        String actual = format.format(value);
+        String expected = HalfUpRounding.rounded(value, scale).toPlainString();
+        if (!expected.equals(actual))
+        {
+            mismatches.incrementAndGet();
+            failure("MISMATCH scale=%d value=%s (0x%016x) actual=%s expected=%s",
+                scale, value, Double.doubleToRawLongBits(value), actual, expected);
+        }
+        return actual;
+    }
+
+    private static void setScale(DecimalFormat format, int scale)
+    {
+        if (format.getMaximumFractionDigits() != scale || format.getMinimumFractionDigits() != scale)
+        {
+            format.setMaximumFractionDigits(scale);
+            format.setMinimumFractionDigits(scale);
+        }
+    }
+
+    private void failure(String format, Object ... args)
+    {
+        synchronized (report)
+        {
+            report.printf(format, args);
+            report.println();
+            report.flush(); // failures are streamed, so a long run can be watched or interrupted
+        }
+    }
+}
@@ -34,6 +34,10 @@
 
 package com.pros.java.text;
 
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.concurrent.atomic.AtomicLongArray;
+
 /**
  * Patch shim template -- allows javac to generate the bytecode for what could be complex
  * behavior, and then the necessary parts will be transplanted into the bytecode of the
@@ -47,6 +51,272 @@ abstract class DigitList
 {
     char[] digits;
     int count;
+    int decimalAt;
+    boolean isNegative;
+    RoundingMode roundingMode;
+
+    // Indexes of the rounding decision counters within each stripe of __patched__counters
+    static final int CALLS = 0;              // every HALF_UP decision
+    static final int ABOVE_FIVE = 1;         // rounding digit > '5'
+    static final int TIE_MORE_DIGITS = 2;    // '5' followed by more digits
+    static final int TIE_EXACT = 3;          // last digit '5', allDecimalDigits
+    static final int TIE_TRUNCATED = 4;      // last digit '5', inexact, !alreadyRounded
+    static final int TIE_ALREADY_ROUNDED = 5; // last digit '5', inexact, alreadyRounded
+    static final int DIFFERS = 6;            // result differs from the original (buggy) code
+    static final int COUNTER_COUNT = 7;
+
+    /**
+     * Distance between stripes, in longs: 128 bytes, so that no two stripes share a cache line
+     * (or an adjacent-line prefetch pair).  Striped arrays start with one stripe of padding,
+     * which keeps the first stripe off the cache line of the array header.
+     */
+    static final int STRIPE_WIDTH = 16;
+
+    /**
+     * Rounding decision counters, only present when the agent's {@code counters} option is
+     * enabled: one stripe of {@link #STRIPE_WIDTH} longs per group of threads, so that
+     * formatting threads do not contend on the same cache line.  Read by
+     * {@link PatchStatistics}, which sums the stripes.
+     */
+    static AtomicLongArray __patched__counters;
+
+    // Layout of __patched__ring: three header values on separate cache lines, then records
+    static final int RING_HEAD = 0;                    // sequence number of the next record
+    static final int RING_TAIL = STRIPE_WIDTH;         // sequence number of the next to drain
+    static final int RING_DROPPED = 2 * STRIPE_WIDTH;  // records lost because the ring was full
+    static final int RING_RECORDS = 3 * STRIPE_WIDTH;
+    static final int RING_CAPACITY = 1024;
+
+    // Layout of one record in __patched__ring
+    static final int RECORD_SEQUENCE = 0;  // sequence number + 1, written last
+    static final int RECORD_POSITIONS = 1; // count << 32 | maximumDigits
+    static final int RECORD_FLAGS = 2;
+    static final int RECORD_DIGITS = 3;    // two longs, 16 digits of 4 bits each
+    static final int RECORD_WIDTH = 5;
+    static final int DIGITS_PER_LONG = 16;
+
+    static final int FLAG_ALREADY_ROUNDED = 1;
+    static final int FLAG_ALL_DECIMAL_DIGITS = 2;
+    static final int FLAG_PATCHED_RESULT = 4;
+    static final int FLAG_ORIGINAL_RESULT = 8;
+
+    /**
+     * Differences found by shadow comparison, only present when the agent's
+     * {@code shadowSample} option is enabled: a fixed-size ring that formatting threads
+     * append to without locking, and that {@link ShadowCompareLog} drains.
+     */
+    static AtomicLongArray __patched__ring;
+
+    /**
+     * System property through which the agent passes the initial sampling interval to
+     * {@link #__patched__init}, which cannot see agent classes; its presence selects the ring
+     * over the counters.
+     */
+    static final String SAMPLE_INTERVAL_PROPERTY = "com.pros.java.text.DigitListPatch.shadowSample";
+
+    /** Compare one in this many decisions; zero turns sampling off. */
+    static volatile int __patched__sampleInterval;
+
+    /**
+     * Decisions since the last sample, one count per stripe of {@link #STRIPE_WIDTH} longs, as
+     * for the counters, so that formatting threads do not write the same cache line; updated
+     * without synchronization, so sampling is approximate.
+     */
+    static long[] __patched__sampleCounts;
+
+    /** Returned by {@link #__patched__fastUnscaled} when the digits must be generated as before. */
+    static final long NOT_FAST = -1L;
+
+    /** The largest scale (number of fraction digits) that {@link #__patched__fastUnscaled} supports. */
+    static final int MAX_FAST_SCALE = 18;
+
+    /** Results of {@link #__patched__fastUnscaled} are always below this limit (2<sup>53</sup>). */
+    static final long FAST_LIMIT = 1L << 53;
+
+    private static final long LOW_32_BITS = 0xFFFFFFFFL;
+
+    /**
+     * Powers of ten up to 10<sup>{@link #MAX_FAST_SCALE}</sup>, as {@code long} and as
+     * {@code double} (exact: every power of ten up to 10<sup>22</sup> is a double), only
+     * present in the target when the agent's {@code fastDigits} or {@code fastBigDecimal} option
+     * is enabled.
+     */
+    static long[] __patched__fastPow10;
+    static double[] __patched__fastPow10Double;
+
+    static
+    {
+        __patched__fastInit(); // for HalfUpRounding; the target calls it from its own initializer
+    }
+
+    /**
+     * Inserted at the start of the target's static initializer, along with the tables, when
+     * the agent's {@code fastDigits} option is enabled.
+     */
+    static void __patched__fastInit()
+    {
+        long[] pow10 = new long[MAX_FAST_SCALE + 1];
+        double[] pow10Double = new double[MAX_FAST_SCALE + 1];
+        long pow = 1;
+        for (int i = 0; i <= MAX_FAST_SCALE; i++)
+        {
+            pow10[i] = pow;
+            pow10Double[i] = pow;
+            pow *= 10;
+        }
+        __patched__fastPow10Double = pow10Double;
+        __patched__fastPow10 = pow10;
+    }
+
+    /**
+     * Inserted at the start of the target's static initializer, along with the counters and
+     * the ring; creates whichever the variant in place uses.
+     */
+    static void __patched__init()
+    {
+        int stripes = 1; // a power of 2 for masking, about twice the number of processors
+        while (stripes < 64 && stripes < 2 * Runtime.getRuntime().availableProcessors())
+        {
+            stripes <<= 1;
+        }
+        String sampleInterval = System.getProperty(SAMPLE_INTERVAL_PROPERTY);
+        if (sampleInterval != null)
+        {
+            __patched__ring = new AtomicLongArray(RING_RECORDS + RING_CAPACITY * RECORD_WIDTH);
+            __patched__sampleCounts = new long[(stripes + 1) * STRIPE_WIDTH];
+            __patched__sampleInterval = Integer.parseInt(sampleInterval);
+            return;
+        }
+        __patched__counters = new AtomicLongArray((stripes + 1) * STRIPE_WIDTH);
+    }
+
+    /**
+     * @param length length of an array of stripes, whose count is a power of 2, after the
+     *     stripe of padding
+     * @return index of the stripe of the current thread
+     */
+    static int __patched__stripe(int length)
+    {
+        int stripeMask = length / STRIPE_WIDTH - 2;
+        return (((int) Thread.currentThread().getId() & stripeMask) + 1) * STRIPE_WIDTH;
+    }
+
+    /**
+     * Stands for the original {@code shouldRoundUp} method of the target, which is copied
+     * under this name, unpatched, for shadow comparison.
+     */
+    abstract boolean __original__shouldRoundUp(
+        int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits);
+
+    /**
+     * Shadow comparing variant of {@link #__patched__shouldRoundUp_HALF_UP}, called instead of
+     * it when the agent's {@code shadowSample} option is enabled.  The patched result is always
+     * returned; on a sample of the decisions, the original code runs as well, and differences
+     * are recorded for {@link ShadowCompareLog}.  With sampling off, the only cost is a branch.
+     */
+    boolean __patched__shouldRoundUp_HALF_UP_shadow(
+        int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+    {
+        boolean patched = __patched__shouldRoundUp_HALF_UP(maximumDigits, alreadyRounded, allDecimalDigits);
+        int interval = __patched__sampleInterval;
+        if (interval != 0)
+        {
+            long[] sampleCounts = __patched__sampleCounts;
+            int stripe = __patched__stripe(sampleCounts.length);
+            long sampleCount = sampleCounts[stripe] + 1;
+            if (sampleCount < interval)
+            {
+                sampleCounts[stripe] = sampleCount;
+            }
+            else
+            {
+                sampleCounts[stripe] = 0;
+                boolean original = __original__shouldRoundUp(maximumDigits, alreadyRounded, allDecimalDigits);
+                if (original != patched)
+                {
+                    __patched__record(maximumDigits, (alreadyRounded ? FLAG_ALREADY_ROUNDED : 0)
+                        | (allDecimalDigits ? FLAG_ALL_DECIMAL_DIGITS : 0)
+                        | (patched ? FLAG_PATCHED_RESULT : 0)
+                        | (original ? FLAG_ORIGINAL_RESULT : 0));
+                }
+            }
+        }
+        return patched;
+    }
+
+    /**
+     * Appends a record to the ring, or counts it as dropped if the ring is full; never blocks
+     * and never allocates.
+     */
+    void __patched__record(int maximumDigits, int flags)
+    {
+        AtomicLongArray ring = __patched__ring;
+        long sequence;
+        do
+        {
+            sequence = ring.get(RING_HEAD);
+            if (sequence - ring.get(RING_TAIL) >= RING_CAPACITY)
+            {
+                ring.incrementAndGet(RING_DROPPED);
+                return;
+            }
+        }
+        while (!ring.compareAndSet(RING_HEAD, sequence, sequence + 1));
+
+        long low = 0;
+        long high = 0;
+        int digitCount = Math.min(count, 2 * DIGITS_PER_LONG);
+        for (int i = digitCount - 1; i >= 0; i--)
+        {
+            long digit = digits[i] - '0';
+            if (i >= DIGITS_PER_LONG)
+            {
+                high = (high << 4) | digit;
+            }
+            else
+            {
+                low = (low << 4) | digit;
+            }
+        }
+        int record = RING_RECORDS + (int) (sequence % RING_CAPACITY) * RECORD_WIDTH;
+        ring.set(record + RECORD_POSITIONS, ((long) count << 32) | (maximumDigits & 0xFFFFFFFFL));
+        ring.set(record + RECORD_FLAGS, flags);
+        ring.set(record + RECORD_DIGITS, low);
+        ring.set(record + RECORD_DIGITS + 1, high);
+        ring.lazySet(record + RECORD_SEQUENCE, sequence + 1); // publishes the record
+    }
+
+    /**
+     * Counting variant of {@link #__patched__shouldRoundUp_HALF_UP}, called instead of it when
+     * the agent's {@code counters} option is enabled.
+     */
+    boolean __patched__shouldRoundUp_HALF_UP_counted(
+        int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+    {
+        AtomicLongArray counters = __patched__counters;
+        int stripe = __patched__stripe(counters.length());
+        counters.incrementAndGet(stripe + CALLS);
+
+        char digit = digits[maximumDigits];
+        boolean last = maximumDigits == count - 1;
+        if (digit > '5')
+        {
+            counters.incrementAndGet(stripe + ABOVE_FIVE);
+        }
+        else if (digit == '5')
+        {
+            counters.incrementAndGet(stripe + (!last ? TIE_MORE_DIGITS
+                : allDecimalDigits ? TIE_EXACT
+                : alreadyRounded ? TIE_ALREADY_ROUNDED
+                : TIE_TRUNCATED));
+        }
+        // The original code returned false for a last digit >= '5' that was already rounded
+        if (last && alreadyRounded && (digit > '5' || (digit == '5' && allDecimalDigits)))
+        {
+            counters.incrementAndGet(stripe + DIFFERS);
+        }
+        return __patched__shouldRoundUp_HALF_UP(maximumDigits, alreadyRounded, allDecimalDigits);
+    }
 
     /**
      * Shim method to be inserted into {@code java.text.DigitList} by the patch routine.
@@ -87,4 +357,242 @@ abstract class DigitList
         // else: digit is <= 4 and does not round up
         return false; // in original switch(), was: break;
     }
+
+    /**
+     * Called first thing in the target's {@code set(boolean, double, int, boolean)} when the
+     * agent's {@code fastDigits} option is enabled, which returns at once if this returns
+     * {@code true}.  For {@code HALF_UP} in fixed-point notation, the rounded digits are
+     * computed from the binary value directly by {@link #__patched__fastUnscaled}, leaving
+     * {@code digits}, {@code count} and {@code decimalAt} as the patched code would, without
+     * {@code FloatingDecimal}'s conversion to text or a rounding decision.  Results that round
+     * to zero, whose {@code decimalAt} depends on the digits that were rounded away, and values
+     * outside the range of the fast arithmetic are left to the original code.
+     */
+    boolean __patched__fastSet(
+        boolean isNegative, double source, int maximumDigits, boolean fixedPoint)
+    {
+        if (!fixedPoint || roundingMode != RoundingMode.HALF_UP || !(source > 0)
+            || maximumDigits < 0)
+        {
+            return false;
+        }
+        long unscaled = __patched__fastUnscaled(source, maximumDigits);
+        if (unscaled <= 0)
+        {
+            return false; // NOT_FAST, or zero
+        }
+
+        __patched__fastFill(isNegative, unscaled, maximumDigits);
+        return true;
+    }
+
+    /**
+     * Called first thing in the target's {@code set(boolean, BigDecimal, int, boolean)} when the
+     * agent's {@code fastBigDecimal} option is enabled, which returns at once if this returns
+     * {@code true}.  For {@code HALF_UP} in fixed-point notation, a value of at most
+     * {@link #MAX_FAST_SCALE} digits is rounded from its unscaled {@code long} and its scale,
+     * without laying it out as a {@code String} and scanning that.  The digits of a
+     * {@code BigDecimal} are exact, so a 5 followed by nothing always rounds up, as in
+     * {@link #__patched__shouldRoundUp_HALF_UP} with {@code allDecimalDigits}.  As for doubles,
+     * results that round to zero are left to the original code.
+     */
+    boolean __patched__fastSet(
+        boolean isNegative, BigDecimal source, int maximumDigits, boolean fixedPoint)
+    {
+        if (!fixedPoint || roundingMode != RoundingMode.HALF_UP || source.signum() <= 0
+            || maximumDigits < 0 || source.precision() > MAX_FAST_SCALE)
+        {
+            return false;
+        }
+        int scale = source.scale();
+        if (scale < -MAX_FAST_SCALE)
+        {
+            return false; // keeps decimalAt well within range
+        }
+        long unscaled = source.unscaledValue().longValue();
+        if (scale > maximumDigits)
+        {
+            int dropped = scale - maximumDigits;
+            if (dropped > MAX_FAST_SCALE)
+            {
+                return false; // rounds to zero: fewer than 19 digits are all dropped
+            }
+            long pow10 = __patched__fastPow10[dropped];
+            long remainder = unscaled % pow10;
+            unscaled = unscaled / pow10 + (remainder >= pow10 / 2 ? 1 : 0);
+            if (unscaled == 0)
+            {
+                return false;
+            }
+            scale = maximumDigits;
+        }
+        __patched__fastFill(isNegative, unscaled, scale);
+        return true;
+    }
+
+    /**
+     * Sets {@code digits}, {@code count} and {@code decimalAt} to a positive value of
+     * {@code unscaled} &times; 10<sup>-scale</sup>, without trailing zeros, as after
+     * {@code DigitList.round}.
+     */
+    private void __patched__fastFill(boolean isNegative, long unscaled, int scale)
+    {
+        long[] pow10 = __patched__fastPow10;
+        int length = 1;
+        while (length < pow10.length && unscaled >= pow10[length])
+        {
+            length++;
+        }
+        int end = length;
+        while (unscaled % 10 == 0)
+        {
+            unscaled /= 10;
+            end--;
+        }
+        char[] digits = this.digits;
+        for (int i = end - 1; i >= 0; i--)
+        {
+            digits[i] = (char) ('0' + unscaled % 10);
+            unscaled /= 10;
+        }
+        this.isNegative = isNegative;
+        decimalAt = length - scale;
+        count = end;
+    }
+
+    /**
+     * Rounds a value to {@code scale} fraction digits, exactly as the patched
+     * {@code DecimalFormat} would, without allocating; see {@link HalfUpRounding}.
+     *
+     * @param abs a finite, non-negative value ({@code -0.0} is accepted as zero)
+     * @param scale number of fraction digits, {@code >= 0}
+     * @return the rounded result multiplied by 10<sup>scale</sup>, or {@link #NOT_FAST} if
+     *     the scale exceeds {@link #MAX_FAST_SCALE} or the result would not be below
+     *     {@link #FAST_LIMIT}
+     */
+    static long __patched__fastUnscaled(double abs, int scale)
+    {
+        if (scale > MAX_FAST_SCALE)
+        {
+            return NOT_FAST;
+        }
+        long bits = Double.doubleToRawLongBits(abs) & Long.MAX_VALUE;
+        if (bits == 0)
+        {
+            return 0;
+        }
+        int biasedExponent = (int) (bits >>> 52);
+        long significand = bits & 0xFFFFFFFFFFFFFL;
+        int exponent;
+        if (biasedExponent == 0)
+        {
+            exponent = -1074; // subnormal
+        }
+        else
+        {
+            significand |= 1L << 52;
+            exponent = biasedExponent - 1075;
+        }
+
+        double[] pow10Double = __patched__fastPow10Double;
+        long rounded = __patched__fastHalfUp(significand, exponent, scale);
+        if (rounded == NOT_FAST || rounded / pow10Double[scale] != abs)
+        {
+            // The shortest representation has more than 'scale' fraction digits, so this is
+            // the value that DigitList rounds to, except for the lone 5 that FloatingDecimal
+            // writes as "5.0E-n": DigitList sees a digit after the 5 and rounds up.
+            if (rounded == 0 && abs < 1e-3 && abs == 0.5 / pow10Double[scale])
+            {
+                return 1;
+            }
+            return rounded;
+        }
+
+        // Otherwise DigitList uses the shortest representation unchanged, which can differ from
+        // 'rounded' when several decimals at this scale identify the same double.  A decimal
+        // with q fraction digits identifies the double only if the nearest one at q does.
+        int digits = scale;
+        long shortest = rounded;
+        while (digits > 0)
+        {
+            long candidate = __patched__fastHalfUp(significand, exponent, digits - 1);
+            if (candidate == NOT_FAST || candidate / pow10Double[digits - 1] != abs)
+            {
+                break;
+            }
+            shortest = candidate;
+            digits--;
+        }
+        if ((shortest & 1) != 0 && __patched__fastIsMidpoint(significand, exponent, digits)
+            && (shortest - 1) / pow10Double[digits] == abs)
+        {
+            shortest--; // FloatingDecimal breaks the tie towards the even digit
+        }
+        return shortest * __patched__fastPow10[scale - digits];
+    }
+
+    /**
+     * @return whether {@code significand * 2^exponent * 10^scale} lies exactly midway between
+     *     two integers; {@code 10^scale} contributes {@code scale} trailing zero bits
+     */
+    private static boolean __patched__fastIsMidpoint(long significand, int exponent, int scale)
+    {
+        return Long.numberOfTrailingZeros(significand) + scale == -exponent - 1;
+    }
+
+    /**
+     * @return {@code significand * 2^exponent * 10^scale} rounded {@code HALF_UP} to an
+     *     integer, or {@link #NOT_FAST} if that is not below {@link #FAST_LIMIT}
+     */
+    private static long __patched__fastHalfUp(long significand, int exponent, int scale)
+    {
+        long pow10 = __patched__fastPow10[scale];
+        if (exponent >= 0)
+        {
+            if (exponent > 0 || significand > (FAST_LIMIT - 1) / pow10)
+            {
+                return NOT_FAST; // normal doubles have bit 52 set, so exponent > 0 is too big
+            }
+            return significand * pow10;
+        }
+
+        // 128-bit product: significand < 2^53 and pow10 < 2^60, so it is below 2^113
+        long a = (significand & LOW_32_BITS) * (pow10 & LOW_32_BITS);
+        long b = (significand & LOW_32_BITS) * (pow10 >>> 32);
+        long c = (significand >>> 32) * (pow10 & LOW_32_BITS);
+        long d = (significand >>> 32) * (pow10 >>> 32);
+        long mid = (a >>> 32) + (b & LOW_32_BITS) + (c & LOW_32_BITS);
+        long lo = (mid << 32) | (a & LOW_32_BITS);
+        long hi = d + (b >>> 32) + (c >>> 32) + (mid >>> 32);
+
+        // Divide by 2^shift; HALF_UP adds the most significant bit that is shifted out
+        int shift = -exponent;
+        long quotient;
+        long halfBit;
+        if (shift >= 128)
+        {
+            return 0; // the product is less than 2^-15
+        }
+        else if (shift < 64)
+        {
+            if ((hi >>> shift) != 0)
+            {
+                return NOT_FAST;
+            }
+            quotient = (hi << (64 - shift)) | (lo >>> shift);
+            halfBit = (lo >>> (shift - 1)) & 1;
+        }
+        else if (shift == 64)
+        {
+            quotient = hi;
+            halfBit = lo >>> 63;
+        }
+        else
+        {
+            quotient = hi >>> (shift - 64);
+            halfBit = (hi >>> (shift - 65)) & 1;
+        }
+        quotient += halfBit;
+        return quotient >= 0 && quotient < FAST_LIMIT ? quotient : NOT_FAST;
+    }
 }
@@ -35,6 +35,7 @@
 package com.pros.java.text;
 
 import java.io.ByteArrayOutputStream;
+import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.lang.instrument.ClassFileTransformer;
@@ -44,9 +45,15 @@ import java.lang.reflect.Method;
 import java.math.RoundingMode;
 import java.security.ProtectionDomain;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.ClassVisitor;
 import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.Handle;
 import org.objectweb.asm.Label;
 import org.objectweb.asm.MethodVisitor;
 import org.objectweb.asm.Opcodes;
@@ -76,42 +83,328 @@ public final class DigitListPatch implements ClassFileTransformer
     /** Holds the last exception encountered during patching, if any. May be {@code null}. */
     static volatile Throwable error;
 
-    static final int ASM_VERSION;
-    static
-    {
-        int asmVer;
-        try
-        {
-            asmVer = Opcodes.class.getField("ASM5").getInt(/*static field*/ null);
-        }
-        catch (Exception notASM5) // ReflectiveOperationException not available until Java 7
-        {
-            error = notASM5;
-            asmVer = Opcodes.ASM4;
-        }
-        ASM_VERSION = asmVer;
-    }
+    /** Describes what the last patch did, and why; {@code null} until a patch is attempted. */
+    static volatile String outcome;
+
+    /** The ASM API version used to rewrite a class, or {@code null} if ASM was not needed. */
+    static volatile String asmVersion;
+
+    /** Will be {@code true} while the transformer is registered with the JVM. */
+    static volatile boolean registered;
+
+    /** Counts every {@link #transform} callback, for any class, until the transformer is removed. */
+    static final AtomicLong transformCalls = new AtomicLong();
+
+    /** Wall time spent in {@link #premain}, in nanoseconds. */
+    static volatile long premainNanos;
+
+    /** Wall time spent applying patches from {@link #transform}, in nanoseconds. */
+    static final AtomicLong transformNanos = new AtomicLong();
+
+    /**
+     * Classes loaded during {@link #premain} and while applying patches, or {@code -1} unless
+     * the agent option {@code startupStats} asked for them to be counted.
+     */
+    static volatile int premainClassesLoaded = -1;
+    static volatile int transformClassesLoaded = -1;
 
     private static final int JAVA_8_BYTECODE = 0x34; // major version 52
     private static final String TARGET_CLASS_INTERNAL_NAME = "java/text/DigitList";
+    private static final String TEMPLATE_CLASS_INTERNAL_NAME = "com/pros/java/text/DigitList";
     private static final String PATCH_METHOD_NAME = "__patched__shouldRoundUp_HALF_UP";
+    private static final String PATCH_METHOD_DESC = "(IZZ)Z";
+    private static final String PATCH_MEMBER_PREFIX = "__patched__";
+    private static final String INIT_METHOD_NAME = "__patched__init";
+    private static final String FAST_MEMBER_PREFIX = "__patched__fast";
+    private static final String FAST_INIT_METHOD_NAME = "__patched__fastInit";
+    private static final String FAST_SET_METHOD_NAME = "__patched__fastSet";
+    private static final String SET_METHOD_DESC = "(ZDIZ)V";
+    private static final String SET_BIG_DECIMAL_METHOD_DESC = "(ZLjava/math/BigDecimal;IZ)V";
+    private static final String ORIGINAL_METHOD_NAME = "__original__shouldRoundUp";
+
+    /**
+     * Names of the optional variants of the patch, which also distinguish their cached bytecode.
+     * Each is a fix method in the shim, with this suffix, that HALF_UP is redirected to instead.
+     */
+    static final String COUNTED_VARIANT = "counted";
+    static final String SHADOW_VARIANT = "shadow";
+
+    /** Distinguishes the cached bytecode of the inline patch (see {@link Rewriter#rewrite}). */
+    private static final String INLINE_KEY = "inline";
+
+    /** Distinguishes the cached bytecode with the fast digit fill (see {@link Rewriter#rewrite}). */
+    private static final String FAST_DIGITS_KEY = "fastDigits";
+
+    /** Distinguishes the cached bytecode with the BigDecimal fast path (see above). */
+    private static final String FAST_BIG_DECIMAL_KEY = "fastBigDecimal";
 
-    private DigitListPatch()
+    private static volatile byte[] templateBytecode;
+
+    private final Instrumentation instrumentation;
+    private final PatchRegistry patches;
+    private final boolean countClasses;
+
+    private DigitListPatch(Instrumentation inst, PatchRegistry patches, boolean countClasses)
+    {
+        instrumentation = inst;
+        this.patches = patches;
+        this.countClasses = countClasses;
+    }
+
+    /**
+     * Lists every patch that the agent knows: the {@code HALF_UP} fix is the first.
+     *
+     * @param inline see {@link Rewriter#rewrite}
+     * @param fastDigits see {@link Rewriter#rewrite}
+     * @param fastBigDecimal see {@link Rewriter#rewrite}
+     */
+    static PatchRegistry createRegistry(PatchCache cache, String variant, boolean inline,
+        boolean fastDigits, boolean fastBigDecimal)
     {
-        // nop
+        PatchRegistry registry = new PatchRegistry();
+        registry.register(
+            new HalfUpRoundingPatch(cache, variant, inline, fastDigits, fastBigDecimal));
+        return registry;
     }
 
-    // Self-test entry point
+    // Self-test entry point (or, given a command, one of the tools)
     public static void main(String ... args)
+    throws Exception
     {
-        new SelfTest().run();
+        if (args.length == 0)
+        {
+            new SelfTest().run();
+        }
+        else if ("catalogue".equals(args[0]))
+        {
+            PatchCatalogue.build(Arrays.copyOfRange(args, 1, args.length));
+        }
+        else if ("verify".equals(args[0]))
+        {
+            DifferentialVerifier.main(Arrays.copyOfRange(args, 1, args.length));
+        }
+        else if ("stress".equals(args[0]))
+        {
+            ScalingStress.main(Arrays.copyOfRange(args, 1, args.length));
+        }
+        else if ("attach".equals(args[0]))
+        {
+            LiveAttach.main(Arrays.copyOfRange(args, 1, args.length));
+        }
+        else if ("round".equals(args[0]))
+        {
+            BatchRounder.main(Arrays.copyOfRange(args, 1, args.length));
+        }
+        else if ("classload".equals(args[0]))
+        {
+            ClassLoadBenchmark.main(Arrays.copyOfRange(args, 1, args.length));
+        }
+        else
+        {
+            System.err.println("Unknown command: " + args[0]);
+            System.err.println("Usage: (no arguments) runs the self test");
+            System.err.println("       catalogue <output file> <rt.jar or JDK home>...");
+            System.err.println("       verify [name=value]... compares HALF_UP output to BigDecimal");
+            System.err.println("       stress [name=value]... measures HALF_UP scaling with threads");
+            System.err.println("       attach <pid> [agent option]... patches a running JVM");
+            System.err.println("       round in=<file> [name=value]... rounds a file of prices HALF_UP");
+            System.err.println("       classload [name=value]... times class loading with the agent");
+            System.exit(2);
+        }
     }
 
     // Java Agent entry point
     public static void premain(String agentArgs, Instrumentation inst)
     {
-        inst.addTransformer(new DigitListPatch());
+        long start = System.nanoTime();
         installed = true;
+        AgentOptions options = AgentOptions.parse(agentArgs);
+        boolean countClasses = options.isEnabled(AgentOptions.STARTUP_STATS);
+        int classesBefore = countClasses ? inst.getAllLoadedClasses().length : 0;
+        String variant = options.getVariant();
+        File cacheDir = options.getCacheDir();
+        PatchCache cache = cacheDir != null ? new PatchCache(cacheDir) : null;
+        PatchRegistry patches = createRegistry(
+            cache, variant, options.isInline(), options.isFastDigits(), options.isFastBigDecimal());
+        String javaVersion = options.getJavaVersion();
+        patches.retainApplicable(javaVersion);
+        if (!patches.isEmpty())
+        {
+            // Otherwise, don't register at all: the JVM would call transform() for every class
+            // it ever loads, only for each call to find there is nothing to do.
+            inst.addTransformer(new DigitListPatch(inst, patches, countClasses));
+            registered = true;
+            if (SHADOW_VARIANT.equals(variant))
+            {
+                System.setProperty(DigitList.SAMPLE_INTERVAL_PROPERTY,
+                    String.valueOf(options.getShadowSample()));
+                ShadowCompareLog.start(options.getShadowLog(), options.getShadowSample());
+            }
+        }
+        if (variant != null)
+        {
+            PatchStatistics.register(); // also reports that the patch was not needed
+        }
+        if (options.isEnabled(AgentOptions.JFR))
+        {
+            FlightEvents.enable(variant); // after the transformer, in case jdk.jfr uses DigitList
+        }
+        if (countClasses)
+        {
+            premainClassesLoaded = inst.getAllLoadedClasses().length - classesBefore;
+        }
+        premainNanos = System.nanoTime() - start;
+        FlightEvents events = FlightEvents.getInstance();
+        if (events != null)
+        {
+            events.agentStarted("premain", agentArgs, registered ? "transformer registered"
+                : "not needed on Java " + javaVersion);
+        }
+    }
+
+    /**
+     * Patches a running JVM, on behalf of {@link LiveAttach#agentmain}.  If the target class is
+     * already loaded, it is retransformed with the {@linkplain Rewriter#rewrite inline patch},
+     * since retransformation cannot add methods; otherwise the standard patch is applied when
+     * the class is first loaded, as with {@link #premain}.  The variants of the patch need new
+     * members, so they are not available here.
+     *
+     * @return one of the {@link LiveAttach} outcomes, followed by an explanation
+     */
+    static String attach(AgentOptions options, Instrumentation inst)
+    {
+        installed = true;
+        if (options.getVariant() != null)
+        {
+            System.err.println("Ignoring agent options " + AgentOptions.COUNTERS + " and "
+                + AgentOptions.SHADOW_SAMPLE + ": not available when attaching");
+        }
+        if (options.isEnabled(AgentOptions.JFR))
+        {
+            FlightEvents.enable(null);
+        }
+        if (applied)
+        {
+            return LiveAttach.ALREADY_PATCHED + ": the agent patched this JVM before";
+        }
+        String javaVersion = options.getJavaVersion();
+        if (!mayRequirePatch(javaVersion))
+        {
+            return LiveAttach.NOT_NEEDED + ": Java " + javaVersion;
+        }
+        File cacheDir = options.getCacheDir();
+        PatchCache cache = cacheDir != null ? new PatchCache(cacheDir) : null;
+
+        Class<?> target = null;
+        for (Class<?> loaded : inst.getAllLoadedClasses())
+        {
+            if (TARGET_CLASS_INTERNAL_NAME.replace('/', '.').equals(loaded.getName())
+                && loaded.getClassLoader() == null)
+            {
+                target = loaded;
+                break;
+            }
+        }
+        if (target == null && registered)
+        {
+            // A second transformer would patch the bytes that the first has already patched
+            return LiveAttach.PENDING + ": " + TARGET_CLASS_INTERNAL_NAME
+                + " is not loaded yet, and the agent is already waiting to patch it";
+        }
+        if (target == null)
+        {
+            PatchRegistry patches =
+                createRegistry(cache, null, options.isInline(), options.isFastDigits(),
+                    options.isFastBigDecimal());
+            inst.addTransformer(new DigitListPatch(inst, patches, false));
+            registered = true;
+            return LiveAttach.PENDING + ": " + TARGET_CLASS_INTERNAL_NAME
+                + " is not loaded yet, and will be patched when it is";
+        }
+        for (Method method : target.getDeclaredMethods())
+        {
+            if (method.getName().startsWith(PATCH_MEMBER_PREFIX))
+            {
+                return LiveAttach.ALREADY_PATCHED + ": by an agent given on the command line";
+            }
+        }
+        if (!inst.isRetransformClassesSupported())
+        {
+            return LiveAttach.FAILED + ": the JVM does not support retransformation";
+        }
+
+        DigitListPatch transformer =
+            new DigitListPatch(inst, createRegistry(cache, null, true, false, false), false);
+        inst.addTransformer(transformer, /* canRetransform */ true);
+        registered = true;
+        try
+        {
+            inst.retransformClasses(target);
+        }
+        catch (Throwable t) // UnmodifiableClassException, or any error from the JVM
+        {
+            error = t;
+        }
+        finally
+        {
+            if (inst.removeTransformer(transformer))
+            {
+                registered = false;
+            }
+        }
+        if (applied)
+        {
+            return LiveAttach.PATCHED + ": " + TARGET_CLASS_INTERNAL_NAME + " was retransformed";
+        }
+        return error != null
+            ? LiveAttach.FAILED + ": " + error
+            : LiveAttach.NOT_NEEDED + ": " + TARGET_CLASS_INTERNAL_NAME + " does not have the bug";
+    }
+
+    /**
+     * Decides, from the {@code java.version} system property alone, whether the running JVM
+     * could possibly contain the buggy {@code java.text.DigitList}.  This is only a coarse,
+     * early filter: when in doubt, answer {@code true} and let the bytecode checks decide.
+     *
+     * @param javaVersion value of the {@code java.version} system property, may be {@code null}
+     * @return {@code false} only if the version is known to be unaffected
+     */
+    static boolean mayRequirePatch(String javaVersion)
+    {
+        if (javaVersion == null || javaVersion.length() == 0)
+        {
+            return true; // unknown
+        }
+        String[] parts = javaVersion.split("[._\\-]");
+        if (!"1".equals(parts[0]))
+        {
+            return false; // Java 9+ version scheme; the official fix was made in Java 9
+        }
+        if (parts.length < 2 || !"8".equals(parts[1]))
+        {
+            return false; // Java 7 and earlier never had the bug
+        }
+
+        int underscore = javaVersion.indexOf('_');
+        if (underscore < 0)
+        {
+            return true; // 1.8.0 GA, or a private build with no update number
+        }
+        int end = underscore + 1;
+        while (end < javaVersion.length() && Character.isDigit(javaVersion.charAt(end)))
+        {
+            end++;
+        }
+        try
+        {
+            int update = Integer.parseInt(javaVersion.substring(underscore + 1, end));
+            // Early access builds of 8u40 prior to b12 did not yet include the official fix
+            return update < 40 || javaVersion.indexOf("-ea", end) >= 0;
+        }
+        catch (NumberFormatException nfe)
+        {
+            return true;
+        }
     }
 
     @Override
@@ -123,43 +416,360 @@ public final class DigitListPatch implements ClassFileTransformer
         byte[] classfileBytes)
     throws IllegalClassFormatException
     {
-        if (!TARGET_CLASS_INTERNAL_NAME.equals(className))
+        transformCalls.incrementAndGet();
+        ClassPatch patch = patches.get(className);
+        if (patch == null)
         {
             return null; // ignore all other classes
         }
 
-        // ASM 4.x throws IAE when finding bytecode with major version 52 (Java 8) as will be
-        // the case in the Java 8 version of the target class.  :-(
-        // http://forge.ow2.org/tracker/index.php?func=detail&aid=316375&group_id=23&atid=350023
-        assert classfileBytes.length > 7;
-        int majorVersion = (((int) classfileBytes[6] & 0xFF) << 4) + ((int) classfileBytes[7] & 0xFF);
-        if (majorVersion != JAVA_8_BYTECODE)
+        long start = System.nanoTime();
+        int classesBefore = countClasses ? instrumentation.getAllLoadedClasses().length : 0;
+        FlightEvents events = FlightEvents.getInstance();
+        Object event = events != null ? events.beginTransform() : null;
+        byte[] patched = null;
+        try
         {
-            return null; // not Java 8 --> nothing needs patching
+            patched = patch.apply(classfileBytes);
+            return patched;
         }
-        else if (ASM_VERSION == Opcodes.ASM4) // don't perform hack for other ASM versions
+        finally
         {
-            classfileBytes[7]--; // HACK: pretend it's Java 7 bytecode and cross your fingers!
+            transformNanos.addAndGet(System.nanoTime() - start);
+            if (event != null)
+            {
+                events.commitTransform(event, className, classfileBytes, patched, outcome, asmVersion);
+            }
+            if (countClasses)
+            {
+                int loaded = instrumentation.getAllLoadedClasses().length - classesBefore;
+                transformClassesLoaded = Math.max(transformClassesLoaded, 0) + loaded;
+            }
+
+            // Each target class is only ever loaded once (by the boot classloader), so there is
+            // no reason to remain in the path of every class loaded after the last of them.
+            if (patches.remove(patch) && patches.isEmpty())
+            {
+                if (instrumentation.removeTransformer(this))
+                {
+                    registered = false;
+                }
+                if (countClasses)
+                {
+                    System.err.println("DigitListPatch startup: " + startupSummary());
+                }
+            }
         }
+    }
 
-        ClassWriter writer = new ClassWriter(/* flags */ 0);
-        TargetClassAdapter visitor = new TargetClassAdapter(writer);
-        try
+    /** @return the startup cost of the agent, as measured so far */
+    static String startupSummary()
+    {
+        StringBuilder summary = new StringBuilder("premain ");
+        appendMillis(summary, premainNanos);
+        if (premainClassesLoaded >= 0)
         {
-            new ClassReader(classfileBytes).accept(visitor, /* flags */ 0);
-            if (visitor.bytecodeModified)
+            summary.append(" (").append(premainClassesLoaded).append(" classes loaded)");
+        }
+        summary.append(", transform ");
+        appendMillis(summary, transformNanos.get());
+        if (transformClassesLoaded >= 0)
+        {
+            summary.append(" (").append(transformClassesLoaded).append(" classes loaded)");
+        }
+        return summary.toString();
+    }
+
+    // Without String.format, which would load more classes than the agent itself
+    private static void appendMillis(StringBuilder summary, long nanos)
+    {
+        long micros = nanos / 1000;
+        summary.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        summary.append(fraction < 100 ? (fraction < 10 ? "00" : "0") : "").append(fraction)
+            .append(" ms");
+    }
+
+    /**
+     * The fix for {@code DigitList.shouldRoundUp}'s {@code HALF_UP} case: looks for precomputed
+     * bytecode, and otherwise rewrites the class with ASM.
+     */
+    private static final class HalfUpRoundingPatch implements ClassPatch
+    {
+        private final PatchCache cache; // may be null
+        private final String variant; // may be null
+        private final boolean inline;
+        private final boolean fastDigits;
+        private final boolean fastBigDecimal;
+        private final String cacheVariant; // may be null
+
+        HalfUpRoundingPatch(PatchCache cache, String variant, boolean inline, boolean fastDigits,
+            boolean fastBigDecimal)
+        {
+            this.cache = cache;
+            this.variant = variant;
+            this.inline = inline;
+            this.fastDigits = fastDigits;
+            this.fastBigDecimal = fastBigDecimal;
+            String form = inline ? INLINE_KEY : variant;
+            form = !fastDigits ? form
+                : form == null ? FAST_DIGITS_KEY : form + '+' + FAST_DIGITS_KEY;
+            cacheVariant = !fastBigDecimal ? form
+                : form == null ? FAST_BIG_DECIMAL_KEY : form + '+' + FAST_BIG_DECIMAL_KEY;
+        }
+
+        @Override
+        public String getTargetClassName()
+        {
+            return TARGET_CLASS_INTERNAL_NAME;
+        }
+
+        @Override
+        public boolean mayApply(String javaVersion)
+        {
+            return mayRequirePatch(javaVersion);
+        }
+
+        @Override
+        public byte[] apply(byte[] classfileBytes)
+        {
+            // ASM 4.x throws IAE when finding bytecode with major version 52 (Java 8) as will be
+            // the case in the Java 8 version of the target class.  :-(
+            // http://forge.ow2.org/tracker/index.php?func=detail&aid=316375&group_id=23&atid=350023
+            assert classfileBytes.length > 7;
+            int majorVersion =
+                (((int) classfileBytes[6] & 0xFF) << 4) + ((int) classfileBytes[7] & 0xFF);
+            if (majorVersion != JAVA_8_BYTECODE)
+            {
+                outcome = "not needed: class file major version " + majorVersion;
+                return null; // not Java 8 --> nothing needs patching
+            }
+
+            // Consult the catalogue before ASM gets involved (hashing only if there is one)
+            if (PatchCatalogue.isAvailable())
+            {
+                byte[] precomputed =
+                    PatchCatalogue.lookup(PatchCache.keyFor(classfileBytes, cacheVariant));
+                if (precomputed != null)
+                {
+                    return usePrecomputed(precomputed, "the patch catalogue");
+                }
+            }
+
+            String key = null;
+            byte[] patched;
+            try
+            {
+                if (cache != null)
+                {
+                    // Unlike the catalogue, the cache may hold bytecode written by another ASM
+                    key = PatchCache.keyFor(
+                        classfileBytes, cacheVariant, REWRITE_VERSION, Rewriter.ASM_VERSION);
+                    byte[] precomputed = cache.lookup(key);
+                    if (precomputed != null)
+                    {
+                        return usePrecomputed(precomputed, "the patch cache");
+                    }
+                }
+                patched = Rewriter.rewrite(
+                    classfileBytes, variant, inline, fastDigits, fastBigDecimal);
+            }
+            catch (LinkageError noASM)
+            {
+                // Expected when running without ASM on a JDK build that the catalogue doesn't list
+                error = noASM;
+                outcome = "failed: ASM not found";
+                System.err.println("Failed to patch " + TARGET_CLASS_INTERNAL_NAME
+                    + ": this JDK build requires the ASM library on the classpath (" + noASM + ")");
+                return null; // make no changes
+            }
+            catch (Exception e)
+            {
+                error = e;
+                outcome = "failed: " + e;
+                System.err.println("Failed to patch " + TARGET_CLASS_INTERNAL_NAME);
+                e.printStackTrace(System.err);
+                return null; // make no changes
+            }
+
+            if (cache != null)
+            {
+                cache.store(key, patched);
+            }
+            if (patched != null)
             {
                 applied = true;
+                String form = (inline ? ", " + INLINE_KEY : "")
+                    + (fastDigits ? ", " + FAST_DIGITS_KEY : "")
+                    + (fastBigDecimal ? ", " + FAST_BIG_DECIMAL_KEY : "");
+                outcome = "applied by " + asmVersion
+                    + (form.length() == 0 ? "" : " (" + form.substring(2) + ")");
+            }
+            return patched;
+        }
+
+        private static byte[] usePrecomputed(byte[] precomputed, String source)
+        {
+            if (precomputed == PatchCache.UNPATCHED)
+            {
+                outcome = "not needed: known unaffected class in " + source;
+                return null;
+            }
+            applied = true;
+            outcome = "applied from " + source;
+            return precomputed;
+        }
+    }
+
+    /**
+     * Holds every direct reference to the ASM library that is needed to rewrite the target.
+     * As long as {@link DigitListPatch} only calls into this class after a catalogue miss, the
+     * JVM has no reason to load (or verify) any ASM classes when the catalogue has the patched
+     * bytecode, or when the target class is never loaded at all.  The patch cache needs
+     * {@link #ASM_VERSION}, but a hit there still skips the rewrite.
+     */
+    static final class Rewriter
+    {
+        static final int ASM_VERSION;
+        static
+        {
+            int asmVer;
+            try
+            {
+                asmVer = Opcodes.class.getField("ASM5").getInt(/*static field*/ null);
+            }
+            catch (Exception notASM5) // ReflectiveOperationException not available until Java 7
+            {
+                error = notASM5;
+                asmVer = Opcodes.ASM4;
+            }
+            ASM_VERSION = asmVer;
+            asmVersion = asmVer == Opcodes.ASM4 ? "ASM4" : "ASM5";
+        }
+
+        /**
+         * Visits a call to a method of a class (not an interface) with whichever overload of
+         * {@code visitMethodInsn} the ASM version on the class path supports.
+         */
+        @SuppressWarnings("deprecation") // the ASM 4.x overload, for when 5.x is not available
+        static void visitMethodInsn(
+            MethodVisitor mv, int opcode, String owner, String name, String desc)
+        {
+            if (ASM_VERSION == Opcodes.ASM4)
+            {
+                mv.visitMethodInsn(opcode, owner, name, desc);
+            }
+            else
+            {
+                mv.visitMethodInsn(    // this overload is only available starting in ASM 5.x
+                    opcode, owner, name, desc, false /* method owner is NOT an interface */);
+            }
+        }
+
+        /** The template, parsed once, without the debug information that the patch drops. */
+        private static final ClassReader TEMPLATE = new ClassReader(templateBytecode());
+
+        /**
+         * @param variant {@link #COUNTED_VARIANT}, {@link #SHADOW_VARIANT}, or {@code null} for
+         *     the standard patch
+         * @param inline whether to copy the body of the fix method into the {@code HALF_UP} case
+         *     in place of the original instructions, instead of calling it, so that the class
+         *     keeps the same members (as required to retransform a loaded class) and
+         *     {@code shouldRoundUp} makes no call; only for the standard patch
+         * @param fastDigits whether to also have {@code set(boolean, double, int, boolean)} compute
+         *     the digits of {@code HALF_UP} results directly, as the fixed code would, instead of
+         *     through {@code FloatingDecimal}; not for a class that is already loaded
+         * @param fastBigDecimal whether to also have {@code set(boolean, BigDecimal, int, boolean)}
+         *     round values of up to 18 digits from their unscaled {@code long}, instead of through
+         *     their text; not for a class that is already loaded
+         * @return the patched bytecode, or {@code null} if the class does not need the patch
+         */
+        static byte[] rewrite(byte[] classfileBytes, String variant, boolean inline,
+            boolean fastDigits, boolean fastBigDecimal)
+        {
+            return rewrite(classfileBytes, variant, inline, fastDigits, fastBigDecimal, inline);
+        }
+
+        /**
+         * As {@link #rewrite(byte[], String, boolean, boolean, boolean)}, with the choice of
+         * whether to try to remove the original {@code HALF_UP} case of the inline form; if it
+         * cannot be removed, or {@code stripDeadCase} is {@code false}, it is left in place.
+         */
+        static byte[] rewrite(byte[] classfileBytes, String variant, boolean inline,
+            boolean fastDigits, boolean fastBigDecimal, boolean stripDeadCase)
+        {
+            if (inline && variant != null)
+            {
+                throw new IllegalArgumentException("No inline form of the " + variant + " patch");
+            }
+            if (ASM_VERSION == Opcodes.ASM4) // don't perform hack for other ASM versions
+            {
+                classfileBytes[7]--; // HACK: pretend it's Java 7 bytecode and cross your fingers!
+            }
+
+            // A writer that shares the reader's constant pool copies every method that is not
+            // changed as it is, without parsing or rebuilding its code
+            ClassReader reader = new ClassReader(classfileBytes);
+            if (hasPatchMembers(reader))
+            {
+                // Patching the patched class again would add every member a second time, and
+                // the class would no longer load
+                if (!applied)
+                {
+                    outcome = "not needed: already patched";
+                }
+                return null;
+            }
+            ClassWriter writer = new ClassWriter(reader, /* flags */ 0);
+            TargetClassAdapter visitor = new TargetClassAdapter(
+                writer, variant, inline, fastDigits, fastBigDecimal, reader);
+            visitor.stripDeadCase = inline && stripDeadCase;
+            // Expanded frames can be dropped along with the original HALF_UP case, because
+            // none of those that follow depend on them
+            reader.accept(visitor, visitor.stripDeadCase ? ClassReader.EXPAND_FRAMES : 0);
+            if (visitor.stripDeadCase && visitor.bytecodeModified && !visitor.deadCaseStripped)
+            {
+                // Something else jumps into the original case: leave it in place, unreachable
+                // from the HALF_UP label, as the redirect does
+                writer = new ClassWriter(reader, /* flags */ 0);
+                visitor = new TargetClassAdapter(
+                    writer, variant, inline, fastDigits, fastBigDecimal, reader);
+                visitor.stripDeadCase = false;
+                reader.accept(visitor, /* flags */ 0);
+            }
+            if (visitor.bytecodeModified)
+            {
                 return writer.toByteArray();
             }
+            outcome = "not needed: " + visitor.discarded;
             return null; // prefer original bytecode over ASM-generated if patch wasn't applied
         }
-        catch (Exception e)
+
+        /** @return whether the class already has any of the members that the patch adds */
+        private static boolean hasPatchMembers(ClassReader reader)
         {
-            error = e;
-            System.err.println("Failed to patch " + TARGET_CLASS_INTERNAL_NAME);
-            e.printStackTrace(System.err);
-            return null; // make no changes
+            final boolean[] found = new boolean[1];
+            reader.accept(
+                new ClassVisitor(ASM_VERSION)
+                {
+                    @Override
+                    public FieldVisitor visitField(
+                        int access, String name, String desc, String signature, Object value)
+                    {
+                        found[0] |= name.startsWith(PATCH_MEMBER_PREFIX);
+                        return null;
+                    }
+
+                    @Override
+                    public MethodVisitor visitMethod(
+                        int access, String name, String desc, String signature, String[] exceptions)
+                    {
+                        found[0] |= name.startsWith(PATCH_MEMBER_PREFIX);
+                        return null;
+                    }
+                },
+                ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return found[0];
         }
     }
 
@@ -170,11 +780,27 @@ public final class DigitListPatch implements ClassFileTransformer
      */
     private static class TargetClassAdapter extends ClassVisitor
     {
+        final String variant;
+        final boolean inline;
+        final boolean fastDigits;
+        final boolean fastBigDecimal;
+        boolean stripDeadCase;
+        boolean deadCaseStripped;
         boolean bytecodeModified;
+        String discarded = "no HALF_UP case in shouldRoundUp(int, boolean, boolean)";
+        private final ClassReader reader;
+        private boolean staticInitializerFound;
 
-        TargetClassAdapter(ClassVisitor cv)
+        TargetClassAdapter(ClassVisitor cv, String variant, boolean inline, boolean fastDigits,
+            boolean fastBigDecimal, ClassReader reader)
         {
-            super(ASM_VERSION, cv);
+            super(Rewriter.ASM_VERSION, cv);
+            this.variant = variant;
+            this.inline = inline;
+            this.fastDigits = fastDigits;
+            this.fastBigDecimal = fastBigDecimal;
+            this.reader = reader;
+            stripDeadCase = inline;
         }
 
         @Override
@@ -184,36 +810,249 @@ public final class DigitListPatch implements ClassFileTransformer
             MethodVisitor writerVisitor =
                 super.visitMethod(access, name, desc, signature, exceptions);
 
+            if (addsStaticInitialization() && "<clinit>".equals(name))
+            {
+                staticInitializerFound = true;
+                return new StaticInitializerAdapter(writerVisitor, this);
+            }
+
+            if ("set".equals(name) && (fastDigits && SET_METHOD_DESC.equals(desc)
+                || fastBigDecimal && SET_BIG_DECIMAL_METHOD_DESC.equals(desc)))
+            {
+                return new FastPathAdapter(writerVisitor, desc);
+            }
+
             if ("shouldRoundUp".equals(name)
                 && Type.BOOLEAN_TYPE.equals(Type.getReturnType(desc)))
             {
-                Type[] args = Type.getArgumentTypes(desc);
-                Type[] target = { Type.INT_TYPE, Type.BOOLEAN_TYPE, Type.BOOLEAN_TYPE };
-                if (Arrays.equals(target, args))
-                {
-                    return new TargetMethodAdapter(this, writerVisitor);
-                }
+                Type[] args = Type.getArgumentTypes(desc);
+                Type[] target = { Type.INT_TYPE, Type.BOOLEAN_TYPE, Type.BOOLEAN_TYPE };
+                if (Arrays.equals(target, args))
+                {
+                    if (stripDeadCase)
+                    {
+                        return new TargetMethodAdapter(
+                            this, new DeadCaseStripper(writerVisitor), originalMaxLocals(name, desc));
+                    }
+                    return new TargetMethodAdapter(this, writerVisitor, 0);
+                }
+            }
+            return writerVisitor;
+        }
+
+        /**
+         * @return the number of local variable slots of a method, read ahead of the method
+         *     itself, so that the fix can be given slots of its own when it is copied inline
+         */
+        private int originalMaxLocals(final String name, final String desc)
+        {
+            final int[] maxLocals = new int[1];
+            reader.accept(
+                new ClassVisitor(Rewriter.ASM_VERSION)
+                {
+                    @Override
+                    public MethodVisitor visitMethod(
+                        int access, String n, String d, String signature, String[] exceptions)
+                    {
+                        if (!name.equals(n) || !desc.equals(d))
+                        {
+                            return null;
+                        }
+                        return new MethodVisitor(Rewriter.ASM_VERSION)
+                        {
+                            @Override
+                            public void visitMaxs(int maxStack, int locals)
+                            {
+                                maxLocals[0] = locals;
+                            }
+                        };
+                    }
+                },
+                ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            return maxLocals[0];
+        }
+
+        /** @return whether the members of the fast paths are transplanted */
+        boolean addsFastMembers()
+        {
+            return fastDigits || fastBigDecimal;
+        }
+
+        /** @return whether transplanted members have to be initialized with the target class */
+        boolean addsStaticInitialization()
+        {
+            return variant != null || addsFastMembers();
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            if (SHADOW_VARIANT.equals(variant))
+            {
+                // The original method, unpatched, is copied from a second pass over the class
+                reader.accept(new OriginalMethodCopier(cv), /* flags */ 0);
+            }
+            if (addsStaticInitialization() && !staticInitializerFound)
+            {
+                MethodVisitor mv = super.visitMethod(Opcodes.ACC_STATIC, "<clinit>", "()V", null, null);
+                mv.visitCode();
+                StaticInitializerAdapter.visitInitCalls(mv, this);
+                mv.visitInsn(Opcodes.RETURN);
+                mv.visitMaxs(/* maxStack */ 0, /* maxLocals */ 0);
+                mv.visitEnd();
+            }
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Calls the transplanted {@code __patched__init()} first thing in the target's static
+     * initializer, which creates the counters used by the counting variant of the fix, and
+     * {@code __patched__fastInit()}, which creates the tables of the fast paths.
+     * The calls take no operand stack, so the method's maximums remain valid.
+     */
+    private static class StaticInitializerAdapter extends MethodVisitor
+    {
+        private final TargetClassAdapter cv;
+
+        StaticInitializerAdapter(MethodVisitor mv, TargetClassAdapter classVisitor)
+        {
+            super(Rewriter.ASM_VERSION, mv);
+            cv = classVisitor;
+        }
+
+        @Override
+        public void visitCode()
+        {
+            super.visitCode();
+            visitInitCalls(this, cv);
+        }
+
+        static void visitInitCalls(MethodVisitor mv, TargetClassAdapter cv)
+        {
+            if (cv.variant != null)
+            {
+                visitInitCall(mv, INIT_METHOD_NAME);
+            }
+            if (cv.addsFastMembers())
+            {
+                visitInitCall(mv, FAST_INIT_METHOD_NAME);
+            }
+        }
+
+        private static void visitInitCall(MethodVisitor mv, String initMethodName)
+        {
+            Rewriter.visitMethodInsn(
+                mv, Opcodes.INVOKESTATIC, TARGET_CLASS_INTERNAL_NAME, initMethodName, "()V");
+        }
+    }
+
+    /**
+     * Calls the transplanted {@code __patched__fastSet} first thing in one of the target's
+     * {@code set} methods, with the same arguments, and returns at once if that has set the
+     * digits:
+     * <pre>
+     * if (__patched__fastSet(isNegative, source, maximumDigits, fixedPoint)) return;
+     * </pre>
+     * Like the other inserted code, the branch has no stack map frame, which only the bytecode
+     * verifier would need.
+     */
+    private static class FastPathAdapter extends MethodVisitor implements Opcodes
+    {
+        private final Type[] argumentTypes;
+        private final String fastSetDesc;
+        private final int callStack;
+
+        /** @param desc descriptor of the {@code set} method, which returns {@code void} */
+        FastPathAdapter(MethodVisitor mv, String desc)
+        {
+            super(Rewriter.ASM_VERSION, mv);
+            argumentTypes = Type.getArgumentTypes(desc);
+            fastSetDesc = Type.getMethodDescriptor(Type.BOOLEAN_TYPE, argumentTypes);
+            callStack = Type.getArgumentsAndReturnSizes(desc) >> 2; // 'this' and the arguments
+        }
+
+        @Override
+        public void visitCode()
+        {
+            super.visitCode();
+            visitVarInsn(ALOAD, 0); // 'this' (java.text.DigitList)
+            int local = 1;
+            for (Type argumentType : argumentTypes)
+            {
+                visitVarInsn(argumentType.getOpcode(ILOAD), local);
+                local += argumentType.getSize();
+            }
+            Rewriter.visitMethodInsn(
+                this, INVOKEVIRTUAL, TARGET_CLASS_INTERNAL_NAME, FAST_SET_METHOD_NAME, fastSetDesc);
+            Label originalCode = new Label();
+            visitJumpInsn(IFEQ, originalCode);
+            visitInsn(RETURN);
+            visitLabel(originalCode);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals)
+        {
+            super.visitMaxs(Math.max(maxStack, callStack), maxLocals);
+        }
+    }
+
+    /**
+     * Copies the target's original {@code shouldRoundUp} method, under a new name and without
+     * the patch, for shadow comparison.  It is made package-private, so that the shim can call
+     * it with {@code INVOKEVIRTUAL}.
+     */
+    private static class OriginalMethodCopier extends ClassVisitor
+    {
+        private final ClassVisitor outputTarget;
+
+        OriginalMethodCopier(ClassVisitor target)
+        {
+            super(Rewriter.ASM_VERSION); // using c'tor that does not chain to 'target' by default
+            outputTarget = target;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(
+            int access, String name, String desc, String signature, String[] exceptions)
+        {
+            if ("shouldRoundUp".equals(name) && "(IZZ)Z".equals(desc))
+            {
+                return outputTarget.visitMethod(access & ~Opcodes.ACC_PRIVATE,
+                    ORIGINAL_METHOD_NAME, desc, signature, exceptions);
             }
-            return writerVisitor;
+            return null; // ignore anything else
         }
     }
 
     /**
      * This adapter should only be applied to the method containing the faulty code,
      * which is conveniently preceeded immediately by a specific switch case label.
-     * The faulty bytecode is bypassed by injecting a call to an alternate implementation.
+     * The faulty bytecode is bypassed by injecting a call to an alternate implementation,
+     * or replaced by a copy of that implementation.
      */
     private static class TargetMethodAdapter extends MethodVisitor implements Opcodes
     {
         private final TargetClassAdapter cv;
+        private final int firstFreeLocal;
         private Label halfUpSwitchCaseLabel;
         private Label halfDnSwitchCaseLabel;
         private boolean canApply = true;
+        private InlineMethodAdapter inlined; // when the fix was copied inline
+        private boolean redirected; // when the case calls the fix
 
-        TargetMethodAdapter(TargetClassAdapter classVisitor, MethodVisitor mv)
+        /**
+         * @param mv a {@link DeadCaseStripper} to remove the original case when the fix is
+         *     copied inline, or the method writer
+         * @param firstFreeLocal the first local variable slot that the original method does not
+         *     use, for the locals of a fix copied inline
+         */
+        TargetMethodAdapter(TargetClassAdapter classVisitor, MethodVisitor mv, int firstFreeLocal)
         {
-            super(ASM_VERSION, mv);
+            super(Rewriter.ASM_VERSION, mv);
             cv = classVisitor;
+            this.firstFreeLocal = firstFreeLocal;
         }
 
         // Thankfully, there is only one switch block in the target method!
@@ -254,7 +1093,14 @@ public final class DigitListPatch implements ClassFileTransformer
 
                 // Inject call to and return value from the fix method, first.
                 // The existing byte code will follow (but should be unreachable).
-                redirectCaseToInvokePatchMethod();
+                if (cv.inline)
+                {
+                    inlinePatchMethod();
+                }
+                else
+                {
+                    redirectCaseToInvokePatchMethod();
+                }
             }
         }
 
@@ -268,17 +1114,7 @@ public final class DigitListPatch implements ClassFileTransformer
          */
         private void redirectCaseToInvokePatchMethod()
         {
-            String patchMethodDesc;
-            try
-            {
-                Method patchMethod = DigitList.class.getDeclaredMethod(
-                    PATCH_METHOD_NAME, Integer.TYPE, Boolean.TYPE, Boolean.TYPE);
-                patchMethodDesc = Type.getMethodDescriptor(patchMethod);
-            }
-            catch (NoSuchMethodException oops)
-            {
-                throw new IllegalStateException(oops);
-            }
+            String patchMethodDesc = PATCH_METHOD_DESC; // same for every variant
 
             // target object reference for INVOKEVIRTUAL
             visitIntInsn(ALOAD, 0); // 'this' (java.text.DigitList)
@@ -292,23 +1128,61 @@ public final class DigitListPatch implements ClassFileTransformer
             // target method arg 2: allDecimalDigits (boolean, represented as int)
             visitIntInsn(ILOAD, 3); // calling method's argument 2
 
-            if (ASM_VERSION == Opcodes.ASM4)
+            Rewriter.visitMethodInsn(this,
+                INVOKEVIRTUAL, TARGET_CLASS_INTERNAL_NAME, patchMethodName(), patchMethodDesc);
+            visitInsn(IRETURN);
+            redirected = true;
+            cv.bytecodeModified = true;
+        }
+
+        /* case HALF_UP:
+         *
+         *   // INSERTED PATCH POINT: the body of __patched__shouldRoundUp_HALF_UP, whose
+         *   // arguments are in the same local variables, and whose returns return from here
+         *
+         *   // (existing bytecode, up to the next case, is removed by the DeadCaseStripper)
+         *   break;
+         */
+        private void inlinePatchMethod()
+        {
+            inlined = new InlineMethodAdapter(mv, firstFreeLocal);
+            Rewriter.TEMPLATE.accept(
+                new ClassVisitor(Rewriter.ASM_VERSION)
+                {
+                    @Override
+                    public MethodVisitor visitMethod(
+                        int access, String name, String desc, String signature, String[] exceptions)
+                    {
+                        return PATCH_METHOD_NAME.equals(name) ? inlined : null;
+                    }
+                },
+                ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+            cv.bytecodeModified = true;
+            if (mv instanceof DeadCaseStripper)
             {
-                visitMethodInsn(
-                    INVOKEVIRTUAL, TARGET_CLASS_INTERNAL_NAME, PATCH_METHOD_NAME, patchMethodDesc);
+                ((DeadCaseStripper) mv).startStripping();
             }
-            else
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals)
+        {
+            if (inlined != null)
             {
-                visitMethodInsn(    // this overload is only available starting in ASM 5.x
-                    INVOKEVIRTUAL,
-                    TARGET_CLASS_INTERNAL_NAME,
-                    PATCH_METHOD_NAME,
-                    patchMethodDesc,
-                    false /* method owner is NOT an interface */
-                );
+                maxStack = Math.max(maxStack, inlined.maxStack);
+                maxLocals = Math.max(maxLocals, inlined.maxLocals);
             }
-            visitInsn(IRETURN);
-            cv.bytecodeModified = true;
+            if (redirected)
+            {
+                // 'this' and the three arguments of the call
+                maxStack = Math.max(maxStack, 4);
+            }
+            super.visitMaxs(maxStack, maxLocals);
+        }
+
+        private String patchMethodName()
+        {
+            return cv.variant == null ? PATCH_METHOD_NAME : PATCH_METHOD_NAME + '_' + cv.variant;
         }
 
         // Once we finish patching the buggy method with our extra method call, we need to add
@@ -319,6 +1193,10 @@ public final class DigitListPatch implements ClassFileTransformer
         public void visitEnd()
         {
             super.visitEnd(); // current method
+            if (mv instanceof DeadCaseStripper)
+            {
+                cv.deadCaseStripped = ((DeadCaseStripper) mv).isStripped();
+            }
 
             // The label offset check is delayed because the positions might not both
             // be resolved prior to this point.
@@ -326,16 +1204,21 @@ public final class DigitListPatch implements ClassFileTransformer
             {
                 // HALF_UP and HALF_DOWN jump to the same branch (as in the proposed JDK8 fix)
                 cv.bytecodeModified = false; // transform() will DISCARD any changes
+                cv.discarded = "HALF_UP and HALF_DOWN share the case at offset "
+                    + halfUpSwitchCaseLabel.getOffset() + " (fixed)";
             }
-            else if (cv.bytecodeModified)
+            else if (cv.bytecodeModified && (!cv.inline || cv.addsFastMembers()))
             {
                 // Our method call was inserted into the switch case *and* HALF_UP and HALF_DOWN
                 // are implemented by *different* blocks of code (as in the broken JDK8).
 
                 // Need to create the NEW method that is called by the redirected case block,
-                // mirroring the patch implementation inside our template.
-                new ClassReader(extractBytecode(DigitList.class))
-                    .accept(new TemplateClassAdapter(cv), /* flags */ 0);
+                // mirroring the patch implementation inside our template, along with the
+                // members of the fast paths if the class gets those too.
+                Rewriter.TEMPLATE.accept(
+                    new TemplateClassAdapter(
+                        cv, !cv.inline, cv.variant != null, cv.addsFastMembers()),
+                    ClassReader.SKIP_DEBUG);
             }
         }
     }
@@ -349,25 +1232,61 @@ public final class DigitListPatch implements ClassFileTransformer
      * For this patch, ignore everything (the default behavior of {@code ClassVisitor})
      * except the shim method.  Specifically, we <em>don't want</em> fields declared in the shim
      * because those fields (in this case) are already present in the original JDK class.
+     * The variants of the patch take every {@code __patched__} member of the shim: their own
+     * fix methods, the static fields they use, and the method that initializes those.
+     * The {@code __patched__fast} members, which make up the fast paths of {@code set}, are taken
+     * only when they are asked for.
      */
     private static class TemplateClassAdapter extends ClassVisitor
     {
         ClassVisitor outputTarget;
+        private final boolean fixMethod;
+        private final boolean allPatchMembers;
+        private final boolean fastMembers;
 
-        TemplateClassAdapter(ClassVisitor target)
+        TemplateClassAdapter(
+            ClassVisitor target, boolean fixMethod, boolean allPatchMembers, boolean fastMembers)
         {
-            super(ASM_VERSION); // using c'tor that does not chain to 'target' by default
+            super(Rewriter.ASM_VERSION); // using c'tor that does not chain to 'target' by default
             outputTarget = target;
+            this.fixMethod = fixMethod;
+            this.allPatchMembers = allPatchMembers;
+            this.fastMembers = fastMembers;
+        }
+
+        private boolean isTransplanted(String name)
+        {
+            if (name.startsWith(FAST_MEMBER_PREFIX))
+            {
+                return fastMembers;
+            }
+            if (PATCH_METHOD_NAME.equals(name))
+            {
+                return fixMethod;
+            }
+            return allPatchMembers && name.startsWith(PATCH_MEMBER_PREFIX);
+        }
+
+        @Override
+        public FieldVisitor visitField(
+            int access, String name, String desc, String signature, Object value)
+        {
+            if (isTransplanted(name))
+            {
+                return outputTarget.visitField(access, name, desc, signature, value);
+            }
+            return null; // ignore anything else
         }
 
         @Override
         public MethodVisitor visitMethod(
             int access, String name, String desc, String signature, String[] exceptions)
         {
-            if (PATCH_METHOD_NAME.equals(name))
+            if (isTransplanted(name))
             {
                 return new TemplateMethodAdapter(
-                    outputTarget.visitMethod(access, name, desc, signature, exceptions));
+                    outputTarget.visitMethod(access, name, desc, signature, exceptions),
+                    TEMPLATE_CLASS_INTERNAL_NAME, TARGET_CLASS_INTERNAL_NAME);
             }
             return null; // ignore anything else
         }
@@ -375,23 +1294,27 @@ public final class DigitListPatch implements ClassFileTransformer
 
     /**
      * Mirrors the template method, except all references to the template class
-     * will be replaced with references to the target class.
+     * will be replaced with references to the target class.  Any {@link ClassPatch} may use
+     * it to transplant code from its own template.
      */
-    private static class TemplateMethodAdapter extends MethodVisitor
+    static class TemplateMethodAdapter extends MethodVisitor
     {
-        private static final String TEMPLATE_CLASS_INTERNAL_NAME =
-            Type.getInternalName(DigitList.class);
+        private final String templateClassInternalName;
+        private final String targetClassInternalName;
 
-        TemplateMethodAdapter(MethodVisitor mv)
+        TemplateMethodAdapter(
+            MethodVisitor mv, String templateClassInternalName, String targetClassInternalName)
         {
-            super(ASM_VERSION, mv);
+            super(Rewriter.ASM_VERSION, mv);
+            this.templateClassInternalName = templateClassInternalName;
+            this.targetClassInternalName = targetClassInternalName;
         }
 
         private String masquerade(String owner)
         {
-            if (TEMPLATE_CLASS_INTERNAL_NAME.equals(owner))
+            if (templateClassInternalName.equals(owner))
             {
-                return TARGET_CLASS_INTERNAL_NAME;
+                return targetClassInternalName;
             }
             return owner;
         }
@@ -428,10 +1351,309 @@ public final class DigitListPatch implements ClassFileTransformer
         }
     }
 
-    // Helper for loading the bytecode of the template/shim
+    /**
+     * Copies the instructions of the template method into the middle of the target method,
+     * masquerading as the target class like {@link TemplateMethodAdapter}, but without the
+     * parts that belong to a whole method.  Stack map frames are not copied: like the code
+     * made unreachable by the redirect, they would only matter to the bytecode verifier, which
+     * does not check boot classes.  Any local variables of its own are moved past those of the
+     * target method.
+     */
+    private static class InlineMethodAdapter extends TemplateMethodAdapter
+    {
+        /** {@code this} and the three arguments, which both methods keep in the same slots. */
+        private static final int ARGUMENT_SLOTS = 4;
+
+        private final int firstFreeLocal;
+        int maxStack;
+        int maxLocals;
+
+        InlineMethodAdapter(MethodVisitor mv, int firstFreeLocal)
+        {
+            super(mv, TEMPLATE_CLASS_INTERNAL_NAME, TARGET_CLASS_INTERNAL_NAME);
+            this.firstFreeLocal = firstFreeLocal;
+        }
+
+        private int remap(int var)
+        {
+            return var < ARGUMENT_SLOTS ? var : firstFreeLocal + var - ARGUMENT_SLOTS;
+        }
+
+        @Override
+        public void visitCode()
+        {
+            // nop: already inside the target method
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var)
+        {
+            super.visitVarInsn(opcode, remap(var));
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment)
+        {
+            super.visitIincInsn(remap(var), increment);
+        }
+
+        @Override
+        public void visitMaxs(int maxStack, int maxLocals)
+        {
+            this.maxStack = maxStack;
+            this.maxLocals = maxLocals > ARGUMENT_SLOTS ? remap(maxLocals) : maxLocals;
+        }
+
+        @Override
+        public void visitEnd()
+        {
+            // nop: the target method continues
+        }
+    }
+
+    /**
+     * Removes the original instructions of the {@code HALF_UP} case once the fix has been copied
+     * in front of them, so that {@code shouldRoundUp} does not grow by more than the difference,
+     * and stays as small as possible for the JIT compiler's inlining limits.  Everything from
+     * {@link #startStripping()} up to the next label of the switch is dropped, except the labels
+     * themselves, which only mark positions.  The result is only {@linkplain #isStripped() valid}
+     * if the switch had a next label, and no code that remains jumps to a label in between.
+     */
+    private static class DeadCaseStripper extends MethodVisitor
+    {
+        private final Set<Label> switchLabels = new HashSet<Label>();
+        private final Set<Label> liveTargets = new HashSet<Label>();
+        private final Set<Label> deadLabels = new HashSet<Label>();
+        private boolean stripping;
+        private boolean stripped;
+
+        DeadCaseStripper(MethodVisitor mv)
+        {
+            super(Rewriter.ASM_VERSION, mv);
+        }
+
+        void startStripping()
+        {
+            stripping = true;
+        }
+
+        boolean isStripped()
+        {
+            return stripped && Collections.disjoint(deadLabels, liveTargets);
+        }
+
+        @Override
+        public void visitLabel(Label label)
+        {
+            if (stripping)
+            {
+                if (switchLabels.contains(label))
+                {
+                    stripping = false;
+                    stripped = true;
+                }
+                else
+                {
+                    deadLabels.add(label);
+                }
+            }
+            super.visitLabel(label);
+        }
+
+        @Override
+        public void visitTryCatchBlock(Label start, Label end, Label handler, String type)
+        {
+            Collections.addAll(liveTargets, start, end, handler);
+            super.visitTryCatchBlock(start, end, handler, type);
+        }
+
+        @Override
+        public void visitFrame(int type, int nLocal, Object[] local, int nStack, Object[] stack)
+        {
+            if (!stripping)
+            {
+                super.visitFrame(type, nLocal, local, nStack, stack);
+            }
+        }
+
+        @Override
+        public void visitInsn(int opcode)
+        {
+            if (!stripping)
+            {
+                super.visitInsn(opcode);
+            }
+        }
+
+        @Override
+        public void visitIntInsn(int opcode, int operand)
+        {
+            if (!stripping)
+            {
+                super.visitIntInsn(opcode, operand);
+            }
+        }
+
+        @Override
+        public void visitVarInsn(int opcode, int var)
+        {
+            if (!stripping)
+            {
+                super.visitVarInsn(opcode, var);
+            }
+        }
+
+        @Override
+        public void visitTypeInsn(int opcode, String type)
+        {
+            if (!stripping)
+            {
+                super.visitTypeInsn(opcode, type);
+            }
+        }
+
+        @Override
+        public void visitFieldInsn(int opcode, String owner, String name, String desc)
+        {
+            if (!stripping)
+            {
+                super.visitFieldInsn(opcode, owner, name, desc);
+            }
+        }
+
+        @Override
+        @Deprecated // in ASM 5.x
+        public void visitMethodInsn(int opcode, String owner, String name, String desc)
+        {
+            if (!stripping)
+            {
+                super.visitMethodInsn(opcode, owner, name, desc);
+            }
+        }
+
+        @Override // since ASM 5.x
+        public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf)
+        {
+            if (!stripping)
+            {
+                super.visitMethodInsn(opcode, owner, name, desc, itf);
+            }
+        }
+
+        @Override
+        public void visitInvokeDynamicInsn(String name, String desc, Handle bsm, Object... bsmArgs)
+        {
+            if (!stripping)
+            {
+                super.visitInvokeDynamicInsn(name, desc, bsm, bsmArgs);
+            }
+        }
+
+        @Override
+        public void visitJumpInsn(int opcode, Label label)
+        {
+            if (!stripping)
+            {
+                liveTargets.add(label);
+                super.visitJumpInsn(opcode, label);
+            }
+        }
+
+        @Override
+        public void visitLdcInsn(Object cst)
+        {
+            if (!stripping)
+            {
+                super.visitLdcInsn(cst);
+            }
+        }
+
+        @Override
+        public void visitIincInsn(int var, int increment)
+        {
+            if (!stripping)
+            {
+                super.visitIincInsn(var, increment);
+            }
+        }
+
+        @Override
+        public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels)
+        {
+            if (!stripping)
+            {
+                switchLabels.add(dflt);
+                Collections.addAll(switchLabels, labels);
+                super.visitTableSwitchInsn(min, max, dflt, labels);
+            }
+        }
+
+        @Override
+        public void visitLookupSwitchInsn(Label dflt, int[] keys, Label[] labels)
+        {
+            if (!stripping)
+            {
+                liveTargets.add(dflt);
+                Collections.addAll(liveTargets, labels);
+                super.visitLookupSwitchInsn(dflt, keys, labels);
+            }
+        }
+
+        @Override
+        public void visitMultiANewArrayInsn(String desc, int dims)
+        {
+            if (!stripping)
+            {
+                super.visitMultiANewArrayInsn(desc, dims);
+            }
+        }
+
+        @Override
+        public void visitLineNumber(int line, Label start)
+        {
+            if (!stripping)
+            {
+                super.visitLineNumber(line, start);
+            }
+        }
+    }
+
+    /**
+     * Identifies the logic that rewrites the target with the template: the adapters, the
+     * stripping of dead code, the handling of frames.  Part of the key of every cached patch
+     * ({@link PatchCache#keyFor}), so increment it with any change to the patched bytecode that
+     * a change to the template alone would not explain.
+     */
+    static final int REWRITE_VERSION = 1;
+
+    /**
+     * @return the bytecode of the template/shim, read once, without loading the template class
+     *     itself (the copy is shared: do not modify)
+     */
+    static byte[] templateBytecode()
+    {
+        byte[] bytecode = templateBytecode;
+        if (bytecode == null)
+        {
+            try
+            {
+                bytecode = extractResourceBytes(
+                    DigitListPatch.class.getClassLoader(), TEMPLATE_CLASS_INTERNAL_NAME + ".class");
+            }
+            catch (IOException e)
+            {
+                error = e;
+                throw new IllegalStateException("Could not retrieve bytecode for the template", e);
+            }
+            templateBytecode = bytecode; // racy but idempotent
+        }
+        return bytecode;
+    }
+
+    // Helper for loading the bytecode of a class
     static byte[] extractBytecode(Class<?> clazz)
     {
-        String resourceName = Type.getInternalName(clazz) + ".class";
+        String resourceName = clazz.getName().replace('.', '/') + ".class"; // no ASM Type here
         try
         {
             return extractResourceBytes(clazz.getClassLoader(), resourceName);
@@ -446,12 +1668,22 @@ public final class DigitListPatch implements ClassFileTransformer
     static byte[] extractResourceBytes(ClassLoader loader, String resourceName)
     throws IOException
     {
-        InputStream inStream = null;
+        InputStream inStream = loader.getResourceAsStream(resourceName);
+        if (inStream == null)
+        {
+            throw new IOException("Resource not found: " + resourceName);
+        }
+        return readFully(inStream);
+    }
+
+    // Reads the stream to its end, and closes it
+    static byte[] readFully(InputStream inStream)
+    throws IOException
+    {
         try
         {
-            inStream = loader.getResourceAsStream(resourceName);
             ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            byte[] buff = new byte[1024];
+            byte[] buff = new byte[8192];
             int bytesRead;
             while ((bytesRead = inStream.read(buff)) > -1)
             {
@@ -463,16 +1695,13 @@ public final class DigitListPatch implements ClassFileTransformer
         }
         finally
         {
-            if (inStream != null)
+            try
             {
-                try
-                {
-                    inStream.close();
-                }
-                catch (IOException ioe)
-                {
-                    // ignore
-                }
+                inStream.close();
+            }
+            catch (IOException ioe)
+            {
+                // ignore
             }
         }
     }
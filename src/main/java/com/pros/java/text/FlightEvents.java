@@ -0,0 +1,328 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Flight Recorder events for the agent, enabled by the agent option {@code jfr}:
+ * <ul>
+ *   <li>{@value #AGENT_EVENT}: how the agent was started, with which options, what it did,
+ *       and the time it took;</li>
+ *   <li>{@value #TRANSFORM_EVENT}: a patch was applied to a class, or discarded, and why, with
+ *       the class file sizes before and after, and the ASM API version if ASM was used; its
+ *       duration is the time spent in {@code transform()};</li>
+ *   <li>{@value #DECISIONS_EVENT}: a sample of the counters kept inside the patched
+ *       {@code java.text.DigitList} by the {@code counters} or {@code shadowSample} variants of
+ *       the patch.</li>
+ * </ul>
+ * The agent and decisions events are periodic, like {@code jdk.JVMInformation}, at the period
+ * set in the recording's settings (at every chunk by default): {@code premain} runs before a
+ * recording given on the command line is started, so an event committed there would be lost.
+ * The agent is compiled for Java 6, so the event types are created at run time with
+ * {@code jdk.jfr.EventFactory}, and every call to {@code jdk.jfr} is reflective.  On a JVM
+ * without that API (before 8u262), enabling them only prints a warning.
+ */
+final class FlightEvents
+{
+    static final String AGENT_EVENT = "com.pros.java.text.DigitListPatch.Agent";
+    static final String TRANSFORM_EVENT = "com.pros.java.text.DigitListPatch.Transform";
+    static final String DECISIONS_EVENT = "com.pros.java.text.DigitListPatch.Decisions";
+
+    private static final String[] CATEGORY = { "PROS", "DigitList Patch" };
+
+    private static volatile FlightEvents instance;
+
+    // how the agent was started, for the periodic agent event
+    private volatile String entryPoint;
+    private volatile String options;
+    private volatile String startOutcome;
+
+    private final Constructor<?> annotationElement;
+    private final Constructor<?> valueDescriptor;
+    private final Method newEvent;
+    private final Method begin;
+    private final Method end;
+    private final Method set;
+    private final Method commit;
+    private final Object agentFactory;
+    private final Object transformFactory;
+    private final Object decisionsFactory;
+
+    private FlightEvents()
+    throws Exception
+    {
+        annotationElement = Class.forName("jdk.jfr.AnnotationElement")
+            .getConstructor(Class.class, Object.class);
+        valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor")
+            .getConstructor(Class.class, String.class, List.class);
+        Class<?> factoryClass = Class.forName("jdk.jfr.EventFactory");
+        newEvent = factoryClass.getMethod("newEvent");
+        Class<?> eventClass = Class.forName("jdk.jfr.Event");
+        begin = eventClass.getMethod("begin");
+        end = eventClass.getMethod("end");
+        set = eventClass.getMethod("set", int.class, Object.class);
+        commit = eventClass.getMethod("commit");
+        Method create = factoryClass.getMethod("create", List.class, List.class);
+
+        agentFactory = create.invoke(null,
+            eventAnnotations(AGENT_EVENT, "DigitList Patch Agent",
+                "The agent was started, from the command line or by attaching"),
+            Arrays.asList(
+                field(String.class, "entryPoint", "Entry Point"),
+                field(String.class, "options", "Agent Options"),
+                field(String.class, "outcome", "Outcome"),
+                field(String.class, "patchOutcome", "Patch Outcome"),
+                field(boolean.class, "transformerRegistered", "Transformer Registered"),
+                field(long.class, "transformCalls", "Transform Calls"),
+                timespan("premainTime", "Premain Time"),
+                timespan("transformTime", "Transform Time")));
+        transformFactory = create.invoke(null,
+            eventAnnotations(TRANSFORM_EVENT, "DigitList Patch Transform",
+                "A patch was applied to a class, or discarded"),
+            Arrays.asList(
+                field(String.class, "className", "Class Name"),
+                dataAmount("inputSize", "Class File Size"),
+                dataAmount("outputSize", "Patched Class File Size"),
+                field(boolean.class, "applied", "Applied"),
+                field(String.class, "outcome", "Outcome"),
+                field(String.class, "asmVersion", "ASM API Version")));
+        decisionsFactory = create.invoke(null,
+            eventAnnotations(DECISIONS_EVENT, "DigitList Patch Decisions",
+                "HALF_UP decisions counted by the patched java.text.DigitList, since startup"),
+            Arrays.asList(
+                field(long.class, "decisions", "Decisions"),
+                field(long.class, "differentFromOriginal", "Different From Original"),
+                field(long.class, "shadowDifferences", "Shadow Differences"),
+                field(long.class, "shadowDropped", "Shadow Differences Dropped")));
+    }
+
+    /** @return the events, or {@code null} unless they are enabled and available */
+    static FlightEvents getInstance()
+    {
+        return instance;
+    }
+
+    /**
+     * Creates the event types, and registers the periodic events: {@value #DECISIONS_EVENT}
+     * only if the patch counts decisions.  Failures are only reported.
+     *
+     * @param variant the variant of the patch, or {@code null} for the standard patch
+     */
+    static synchronized void enable(String variant)
+    {
+        if (instance != null)
+        {
+            return;
+        }
+        try
+        {
+            final FlightEvents events = new FlightEvents();
+            events.addPeriodicEvent(events.agentFactory, new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    events.commitAgent();
+                }
+            });
+            if (variant != null)
+            {
+                events.addPeriodicEvent(events.decisionsFactory, new Runnable()
+                {
+                    @Override
+                    public void run()
+                    {
+                        events.commitDecisions();
+                    }
+                });
+            }
+            instance = events;
+        }
+        catch (Throwable t) // ClassNotFoundException before jdk.jfr, or any error from it
+        {
+            System.err.println("Flight Recorder events are not available: " + t);
+        }
+    }
+
+    /** @return a {@value #TRANSFORM_EVENT}, begun, to pass to {@link #commitTransform} */
+    Object beginTransform()
+    {
+        return begin(transformFactory);
+    }
+
+    /**
+     * @param patched the bytecode returned by the patch, or {@code null} if there was none
+     * @param outcome what the patch did, and why
+     * @param asmVersion the ASM API version, or {@code null} if ASM was not used
+     */
+    void commitTransform(Object event, String className, byte[] original, byte[] patched,
+        String outcome, String asmVersion)
+    {
+        commit(event, className, (long) original.length, patched == null ? 0L : (long) patched.length,
+            patched != null, outcome, asmVersion);
+    }
+
+    /**
+     * Records how the agent was started, for the {@value #AGENT_EVENT}.
+     *
+     * @param entryPoint {@code premain} or {@code agentmain}
+     * @param outcome what the entry point did
+     */
+    void agentStarted(String entryPoint, String options, String outcome)
+    {
+        this.entryPoint = entryPoint;
+        this.options = options;
+        startOutcome = outcome;
+    }
+
+    private void commitAgent()
+    {
+        if (instance != this)
+        {
+            return; // disabled after a failure
+        }
+        commit(begin(agentFactory), entryPoint, options, startOutcome, DigitListPatch.outcome,
+            DigitListPatch.registered, DigitListPatch.transformCalls.get(),
+            DigitListPatch.premainNanos, DigitListPatch.transformNanos.get());
+    }
+
+    private void commitDecisions()
+    {
+        if (instance != this)
+        {
+            return; // disabled after a failure
+        }
+        PatchStatistics statistics = new PatchStatistics();
+        commit(begin(decisionsFactory), statistics.getDecisions(),
+            statistics.getDifferentFromOriginal(), statistics.getShadowDifferences(),
+            statistics.getShadowDropped());
+    }
+
+    private void addPeriodicEvent(Object factory, Runnable hook)
+    throws Exception
+    {
+        Class<?> eventClass = newEvent.invoke(factory).getClass();
+        Class.forName("jdk.jfr.FlightRecorder")
+            .getMethod("addPeriodicEvent", Class.class, Runnable.class)
+            .invoke(null, eventClass, hook);
+    }
+
+    /** @return a new event, begun, or {@code null} if that failed */
+    private Object begin(Object factory)
+    {
+        try
+        {
+            Object event = newEvent.invoke(factory);
+            begin.invoke(event);
+            return event;
+        }
+        catch (Exception e)
+        {
+            disable(e);
+            return null;
+        }
+    }
+
+    private void commit(Object event, Object ... values)
+    {
+        if (event == null)
+        {
+            return;
+        }
+        try
+        {
+            for (int i = 0; i < values.length; i++)
+            {
+                set.invoke(event, i, values[i]);
+            }
+            end.invoke(event);
+            commit.invoke(event);
+        }
+        catch (Exception e)
+        {
+            disable(e);
+        }
+    }
+
+    // Never fail a class load, or the application, for the sake of an event
+    private static void disable(Exception e)
+    {
+        instance = null;
+        System.err.println("Flight Recorder events disabled: " + e);
+    }
+
+    private List<Object> eventAnnotations(String name, String label, String description)
+    throws Exception
+    {
+        return Arrays.asList(
+            annotation("jdk.jfr.Name", name),
+            annotation("jdk.jfr.Label", label),
+            annotation("jdk.jfr.Description", description),
+            annotation("jdk.jfr.Category", CATEGORY));
+    }
+
+    private Object field(Class<?> type, String name, String label)
+    throws Exception
+    {
+        return valueDescriptor.newInstance(type, name,
+            Collections.singletonList(annotation("jdk.jfr.Label", label)));
+    }
+
+    private Object dataAmount(String name, String label)
+    throws Exception
+    {
+        return valueDescriptor.newInstance(long.class, name, Arrays.asList(
+            annotation("jdk.jfr.Label", label), annotation("jdk.jfr.DataAmount", "BYTES")));
+    }
+
+    private Object timespan(String name, String label)
+    throws Exception
+    {
+        return valueDescriptor.newInstance(long.class, name, Arrays.asList(
+            annotation("jdk.jfr.Label", label), annotation("jdk.jfr.Timespan", "NANOSECONDS")));
+    }
+
+    private Object annotation(String type, Object value)
+    throws Exception
+    {
+        return annotationElement.newInstance(Class.forName(type).asSubclass(Annotation.class), value);
+    }
+}
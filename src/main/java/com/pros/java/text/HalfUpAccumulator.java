@@ -0,0 +1,220 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * A mutable sum of {@link HalfUpDecimal} terms at a fixed scale, for loops that would otherwise
+ * create a new value (or a new {@code BigDecimal}) for every term: adding a term whose unscaled
+ * value fits in a {@code long} does not allocate.  Each term is rounded {@code HALF_UP} to the
+ * scale of the sum as it is added, as the lines of an invoice are rounded before they are
+ * totalled; a term with no more fraction digits than the sum is added exactly.  Should the sum
+ * not fit in a {@code long}, it continues as a {@code BigDecimal} until it fits again.
+ * <p>
+ * An accumulator is not thread safe; give each thread its own, and {@link #add(HalfUpDecimal)
+ * add} their {@linkplain #get() results} together.
+ * </p>
+ */
+public final class HalfUpAccumulator
+{
+    private final int scale;
+    private long sum;
+    private BigDecimal bigSum; // null while the sum fits in a long
+
+    /**
+     * @param scale number of fraction digits of the sum, from 0 to {@link HalfUpDecimal#MAX_SCALE}
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public HalfUpAccumulator(int scale)
+    {
+        HalfUpDecimal.checkScale(scale);
+        this.scale = scale;
+    }
+
+    /** @return the number of fraction digits of the sum */
+    public int getScale()
+    {
+        return scale;
+    }
+
+    /**
+     * @param value a term, rounded {@code HALF_UP} to {@link #getScale()} fraction digits
+     * @return this accumulator
+     */
+    public HalfUpAccumulator add(HalfUpDecimal value)
+    {
+        if (value.isCompact())
+        {
+            return add(value.unscaledValue(), value.scale());
+        }
+        return addBig(value.toBigDecimal());
+    }
+
+    /**
+     * @param value a term, rounded {@code HALF_UP} to {@link #getScale()} fraction digits
+     * @return this accumulator
+     */
+    public HalfUpAccumulator subtract(HalfUpDecimal value)
+    {
+        if (value.isCompact())
+        {
+            return add(-value.unscaledValue(), value.scale());
+        }
+        return addBig(value.toBigDecimal().negate());
+    }
+
+    /**
+     * @param unscaledValue a term multiplied by 10<sup>valueScale</sup>
+     * @param valueScale number of fraction digits of the term, from 0 to
+     *     {@link HalfUpDecimal#MAX_SCALE}; the term is rounded {@code HALF_UP} to
+     *     {@link #getScale()} fraction digits
+     * @return this accumulator
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public HalfUpAccumulator add(long unscaledValue, int valueScale)
+    {
+        HalfUpDecimal.checkScale(valueScale);
+        long term = HalfUpDecimal.rescale(unscaledValue, valueScale, scale);
+        if (term == HalfUpDecimal.OVERFLOW)
+        {
+            return addBig(BigDecimal.valueOf(unscaledValue, valueScale));
+        }
+        return addTerm(term);
+    }
+
+    /**
+     * Adds a line amount, such as a price times a quantity: the product is rounded
+     * {@code HALF_UP} to {@link #getScale()} fraction digits, as
+     * {@code value.multiply(multiplier, getScale())} would round it, and added.
+     *
+     * @param value the price, for example
+     * @param multiplier the quantity, for example
+     * @return this accumulator
+     */
+    public HalfUpAccumulator addProduct(HalfUpDecimal value, long multiplier)
+    {
+        if (value.isCompact())
+        {
+            long term = HalfUpDecimal.rescale(
+                HalfUpDecimal.multiply(value.unscaledValue(), multiplier), value.scale(), scale);
+            if (term != HalfUpDecimal.OVERFLOW)
+            {
+                return addTerm(term);
+            }
+        }
+        return addBig(value.toBigDecimal().multiply(BigDecimal.valueOf(multiplier)));
+    }
+
+    /**
+     * Adds the product of two values, rounded {@code HALF_UP} to {@link #getScale()} fraction
+     * digits, as {@code value.multiply(multiplier, getScale())} would round it.
+     *
+     * @return this accumulator
+     */
+    public HalfUpAccumulator addProduct(HalfUpDecimal value, HalfUpDecimal multiplier)
+    {
+        if (value.isCompact() && multiplier.isCompact())
+        {
+            long term = HalfUpDecimal.rescale(
+                HalfUpDecimal.multiply(value.unscaledValue(), multiplier.unscaledValue()),
+                value.scale() + multiplier.scale(), scale);
+            if (term != HalfUpDecimal.OVERFLOW)
+            {
+                return addTerm(term);
+            }
+        }
+        return addBig(value.toBigDecimal().multiply(multiplier.toBigDecimal()));
+    }
+
+    /** @return the sum, with a scale of {@link #getScale()} */
+    public HalfUpDecimal get()
+    {
+        return bigSum != null ? HalfUpDecimal.of(bigSum) : HalfUpDecimal.valueOf(sum, scale);
+    }
+
+    /** @return -1, 0, or 1 as the sum is negative, zero, or positive */
+    public int signum()
+    {
+        return bigSum != null ? bigSum.signum() : Long.signum(sum);
+    }
+
+    /** Sets the sum back to zero. */
+    public void reset()
+    {
+        sum = 0;
+        bigSum = null;
+    }
+
+    @Override
+    public String toString()
+    {
+        return get().toString();
+    }
+
+    // term is at the scale of the sum
+    private HalfUpAccumulator addTerm(long term)
+    {
+        if (bigSum == null)
+        {
+            long newSum = HalfUpDecimal.add(sum, term);
+            if (newSum != HalfUpDecimal.OVERFLOW)
+            {
+                sum = newSum;
+                return this;
+            }
+        }
+        return addBig(BigDecimal.valueOf(term, scale));
+    }
+
+    private HalfUpAccumulator addBig(BigDecimal term)
+    {
+        BigDecimal newSum = (bigSum != null ? bigSum : BigDecimal.valueOf(sum, scale))
+            .add(term.setScale(scale, RoundingMode.HALF_UP));
+        long unscaled = HalfUpDecimal.unscaledOrOverflow(newSum);
+        if (unscaled == HalfUpDecimal.OVERFLOW)
+        {
+            bigSum = newSum;
+        }
+        else
+        {
+            sum = unscaled;
+            bigSum = null;
+        }
+        return this;
+    }
+}
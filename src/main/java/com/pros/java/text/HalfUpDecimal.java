@@ -0,0 +1,523 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
+
+/**
+ * An immutable decimal number with a scale of 0 to {@value #MAX_SCALE} fraction digits, whose
+ * arithmetic rounds {@link RoundingMode#HALF_UP HALF_UP} as {@code BigDecimal} does when asked
+ * to, but on a {@code long} unscaled value: a result that fits in a {@code long} costs no
+ * allocation other than the result itself.  A result that does not fit is computed with
+ * {@code BigDecimal} and kept as one, with the same value and scale; operations on it use
+ * {@code BigDecimal} too, until a result fits in a {@code long} again.
+ * <p>
+ * As with {@code BigDecimal}, the scale is part of the value: {@link #add} and {@link #subtract}
+ * keep the larger scale of the two operands, {@link #multiply(HalfUpDecimal, int)},
+ * {@link #divide} and {@link #setScale} round to the scale that they are given, and
+ * {@link #equals} compares the scale, while {@link #compareTo} does not.
+ * </p>
+ * {@link #valueOf(double, int)} rounds a {@code double} as the patched {@code DecimalFormat}
+ * does, and {@link HalfUpFormatter} formats a value as {@code DecimalFormat} formats the equal
+ * {@code BigDecimal}.  For sums in loops, which need no instance per term, see
+ * {@link HalfUpAccumulator}.
+ */
+public final class HalfUpDecimal extends Number implements Comparable<HalfUpDecimal>
+{
+    /** The largest scale (number of fraction digits) of any value. */
+    public static final int MAX_SCALE = HalfUpRounding.MAX_FAST_SCALE;
+
+    /** The value 0, with a scale of zero. */
+    public static final HalfUpDecimal ZERO = new HalfUpDecimal(0, 0, null);
+
+    /** The value 1, with a scale of zero. */
+    public static final HalfUpDecimal ONE = new HalfUpDecimal(1, 0, null);
+
+    /**
+     * Returned by the arithmetic on unscaled values when the result does not fit in a
+     * {@code long}; never the unscaled value of an instance, so that it can be negated safely.
+     */
+    static final long OVERFLOW = Long.MIN_VALUE;
+
+    private static final long serialVersionUID = 1L;
+
+    private static final long[] POW10 = HalfUpRounding.POW10;
+
+    private final long unscaled; // OVERFLOW when big holds the value
+    private final int scale;
+    private final BigDecimal big; // null when the unscaled value fits in a long
+
+    private HalfUpDecimal(long unscaled, int scale, BigDecimal big)
+    {
+        this.unscaled = unscaled;
+        this.scale = scale;
+        this.big = big;
+    }
+
+    /**
+     * @param unscaledValue the value multiplied by 10<sup>scale</sup>
+     * @param scale number of fraction digits, from 0 to {@link #MAX_SCALE}
+     * @return a value of {@code unscaledValue} &times; 10<sup>-scale</sup>
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public static HalfUpDecimal valueOf(long unscaledValue, int scale)
+    {
+        checkScale(scale);
+        if (unscaledValue == OVERFLOW)
+        {
+            return new HalfUpDecimal(OVERFLOW, scale, BigDecimal.valueOf(unscaledValue, scale));
+        }
+        return new HalfUpDecimal(unscaledValue, scale, null);
+    }
+
+    /**
+     * @param value an integer value
+     * @return the value, with a scale of zero
+     */
+    public static HalfUpDecimal valueOf(long value)
+    {
+        return valueOf(value, 0);
+    }
+
+    /**
+     * Rounds a {@code double} to {@code scale} fraction digits exactly as the patched
+     * {@code DecimalFormat} does (see {@link HalfUpFormatter}), which is not always the same as
+     * rounding its shortest or its exact decimal representation.
+     *
+     * @param value a finite value
+     * @param scale number of fraction digits, from 0 to {@link #MAX_SCALE}
+     * @return the rounded value, with the given scale
+     * @throws NumberFormatException if the value is infinite or NaN
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public static HalfUpDecimal valueOf(double value, int scale)
+    {
+        checkScale(scale);
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            throw new NumberFormatException("Not a finite value: " + value);
+        }
+        double abs = Math.abs(value);
+        long rounded = HalfUpRounding.unscaled(abs, scale);
+        if (rounded == HalfUpRounding.NOT_FAST)
+        {
+            BigDecimal exact = HalfUpRounding.rounded(abs, scale);
+            return of(value < 0 ? exact.negate() : exact);
+        }
+        return new HalfUpDecimal(value < 0 ? -rounded : rounded, scale, null);
+    }
+
+    /**
+     * @param value a value with at most {@link #MAX_SCALE} fraction digits; a negative scale is
+     *     taken as zero
+     * @return the same value, with the same scale
+     * @throws IllegalArgumentException if the scale of {@code value} is too large; use
+     *     {@link BigDecimal#setScale(int, RoundingMode)} first
+     */
+    public static HalfUpDecimal valueOf(BigDecimal value)
+    {
+        if (value.scale() < 0)
+        {
+            value = value.setScale(0);
+        }
+        checkScale(value.scale());
+        return of(value);
+    }
+
+    /** @return a value equal to {@code value}, whose scale is within range */
+    static HalfUpDecimal of(BigDecimal value)
+    {
+        long unscaled = unscaledOrOverflow(value);
+        return new HalfUpDecimal(unscaled, value.scale(), unscaled == OVERFLOW ? value : null);
+    }
+
+    /** @return whether the unscaled value fits in a {@code long} (see {@link #unscaledValue()}) */
+    public boolean isCompact()
+    {
+        return big == null;
+    }
+
+    /**
+     * @return the value multiplied by 10<sup>{@link #scale()}</sup>
+     * @throws ArithmeticException if that does not fit in a {@code long}
+     */
+    public long unscaledValue()
+    {
+        if (big != null)
+        {
+            throw new ArithmeticException("Unscaled value does not fit in a long: " + big);
+        }
+        return unscaled;
+    }
+
+    /** @return the number of fraction digits */
+    public int scale()
+    {
+        return scale;
+    }
+
+    /** @return -1, 0, or 1 as the value is negative, zero, or positive */
+    public int signum()
+    {
+        return big != null ? big.signum() : Long.signum(unscaled);
+    }
+
+    /**
+     * @param augend the value to add
+     * @return the exact sum, with the larger scale of the two
+     */
+    public HalfUpDecimal add(HalfUpDecimal augend)
+    {
+        int resultScale = Math.max(scale, augend.scale);
+        if (big == null && augend.big == null)
+        {
+            long sum = add(
+                scaleUp(unscaled, resultScale - scale),
+                scaleUp(augend.unscaled, resultScale - augend.scale));
+            if (sum != OVERFLOW)
+            {
+                return new HalfUpDecimal(sum, resultScale, null);
+            }
+        }
+        return of(toBigDecimal().add(augend.toBigDecimal()));
+    }
+
+    /**
+     * @param subtrahend the value to subtract
+     * @return the exact difference, with the larger scale of the two
+     */
+    public HalfUpDecimal subtract(HalfUpDecimal subtrahend)
+    {
+        int resultScale = Math.max(scale, subtrahend.scale);
+        if (big == null && subtrahend.big == null)
+        {
+            // -OVERFLOW == OVERFLOW, so an overflow of either operand carries through
+            long difference = add(
+                scaleUp(unscaled, resultScale - scale),
+                -scaleUp(subtrahend.unscaled, resultScale - subtrahend.scale));
+            if (difference != OVERFLOW)
+            {
+                return new HalfUpDecimal(difference, resultScale, null);
+            }
+        }
+        return of(toBigDecimal().subtract(subtrahend.toBigDecimal()));
+    }
+
+    /**
+     * @param multiplier an integer, such as a quantity
+     * @return the exact product, with the same scale as this value
+     */
+    public HalfUpDecimal multiply(long multiplier)
+    {
+        if (big == null)
+        {
+            long product = multiply(unscaled, multiplier);
+            if (product != OVERFLOW)
+            {
+                return new HalfUpDecimal(product, scale, null);
+            }
+        }
+        return of(toBigDecimal().multiply(BigDecimal.valueOf(multiplier)));
+    }
+
+    /**
+     * @param multiplier the value to multiply by
+     * @param resultScale number of fraction digits of the result, from 0 to {@link #MAX_SCALE}
+     * @return the product, rounded {@code HALF_UP} to {@code resultScale} fraction digits
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public HalfUpDecimal multiply(HalfUpDecimal multiplier, int resultScale)
+    {
+        checkScale(resultScale);
+        if (big == null && multiplier.big == null)
+        {
+            long product = rescale(
+                multiply(unscaled, multiplier.unscaled), scale + multiplier.scale, resultScale);
+            if (product != OVERFLOW)
+            {
+                return new HalfUpDecimal(product, resultScale, null);
+            }
+        }
+        return of(toBigDecimal().multiply(multiplier.toBigDecimal())
+            .setScale(resultScale, RoundingMode.HALF_UP));
+    }
+
+    /**
+     * @param divisor the value to divide by
+     * @param resultScale number of fraction digits of the result, from 0 to {@link #MAX_SCALE}
+     * @return the quotient, rounded {@code HALF_UP} to {@code resultScale} fraction digits
+     * @throws ArithmeticException if {@code divisor} is zero
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public HalfUpDecimal divide(HalfUpDecimal divisor, int resultScale)
+    {
+        checkScale(resultScale);
+        if (divisor.signum() == 0)
+        {
+            throw new ArithmeticException("Division by zero");
+        }
+        if (big == null && divisor.big == null)
+        {
+            // quotient * 10^resultScale = dividend * 10^shift / divisor, all unscaled
+            int shift = resultScale + divisor.scale - scale;
+            long dividend = shift > 0 ? scaleUp(unscaled, shift) : unscaled;
+            long scaledDivisor = shift < 0 ? scaleUp(divisor.unscaled, -shift) : divisor.unscaled;
+            if (dividend != OVERFLOW && scaledDivisor != OVERFLOW)
+            {
+                return new HalfUpDecimal(divideHalfUp(dividend, scaledDivisor), resultScale, null);
+            }
+        }
+        return of(toBigDecimal().divide(divisor.toBigDecimal(), resultScale, RoundingMode.HALF_UP));
+    }
+
+    /**
+     * @param newScale number of fraction digits of the result, from 0 to {@link #MAX_SCALE}
+     * @return the value, rounded {@code HALF_UP} if the scale is smaller than this one's
+     * @throws IllegalArgumentException if the scale is out of range
+     */
+    public HalfUpDecimal setScale(int newScale)
+    {
+        checkScale(newScale);
+        if (newScale == scale)
+        {
+            return this;
+        }
+        if (big == null)
+        {
+            long rescaled = rescale(unscaled, scale, newScale);
+            if (rescaled != OVERFLOW)
+            {
+                return new HalfUpDecimal(rescaled, newScale, null);
+            }
+        }
+        return of(toBigDecimal().setScale(newScale, RoundingMode.HALF_UP));
+    }
+
+    /** @return the value with the opposite sign, and the same scale */
+    public HalfUpDecimal negate()
+    {
+        return big == null ? new HalfUpDecimal(-unscaled, scale, null) : of(big.negate());
+    }
+
+    /** @return the absolute value, with the same scale */
+    public HalfUpDecimal abs()
+    {
+        return signum() < 0 ? negate() : this;
+    }
+
+    /** @return an equal {@code BigDecimal}, with the same scale */
+    public BigDecimal toBigDecimal()
+    {
+        return big != null ? big : BigDecimal.valueOf(unscaled, scale);
+    }
+
+    /** Compares the values numerically, regardless of their scale, as {@code BigDecimal} does. */
+    @Override
+    public int compareTo(HalfUpDecimal other)
+    {
+        if (big == null && other.big == null)
+        {
+            int commonScale = Math.max(scale, other.scale);
+            long left = scaleUp(unscaled, commonScale - scale);
+            long right = scaleUp(other.unscaled, commonScale - other.scale);
+            if (left != OVERFLOW && right != OVERFLOW)
+            {
+                return left < right ? -1 : left == right ? 0 : 1;
+            }
+        }
+        return toBigDecimal().compareTo(other.toBigDecimal());
+    }
+
+    /** Equal values have the same value and scale, as with {@code BigDecimal}. */
+    @Override
+    public boolean equals(Object obj)
+    {
+        if (obj == this)
+        {
+            return true;
+        }
+        if (!(obj instanceof HalfUpDecimal))
+        {
+            return false;
+        }
+        HalfUpDecimal other = (HalfUpDecimal) obj;
+        return scale == other.scale && unscaled == other.unscaled
+            && (big == null || big.equals(other.big));
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return big != null ? big.hashCode() : 31 * (int) (unscaled ^ (unscaled >>> 32)) + scale;
+    }
+
+    /** @return the value in plain notation, with {@link #scale()} fraction digits */
+    @Override
+    public String toString()
+    {
+        return toBigDecimal().toPlainString();
+    }
+
+    /** @return the integer part, truncated as by {@link BigDecimal#longValue()} */
+    @Override
+    public long longValue()
+    {
+        return big != null ? big.longValue() : unscaled / POW10[scale];
+    }
+
+    @Override
+    public int intValue()
+    {
+        return big != null ? big.intValue() : (int) longValue();
+    }
+
+    @Override
+    public float floatValue()
+    {
+        return toBigDecimal().floatValue();
+    }
+
+    /** @return the closest {@code double}; computed without allocating for most values */
+    @Override
+    public double doubleValue()
+    {
+        if (big == null && Math.abs(unscaled) < HalfUpRounding.FAST_LIMIT)
+        {
+            return unscaled / (double) POW10[scale]; // both exact, so the quotient is rounded once
+        }
+        return toBigDecimal().doubleValue();
+    }
+
+    static void checkScale(int scale)
+    {
+        if (scale < 0 || scale > MAX_SCALE)
+        {
+            throw new IllegalArgumentException(
+                "Scale " + scale + " is not between 0 and " + MAX_SCALE);
+        }
+    }
+
+    /** @return the unscaled value, or {@code OVERFLOW} if it does not fit in a {@code long} */
+    static long unscaledOrOverflow(BigDecimal value)
+    {
+        BigInteger unscaled = value.unscaledValue();
+        return unscaled.bitLength() < Long.SIZE ? unscaled.longValue() : OVERFLOW;
+    }
+
+    // Arithmetic on unscaled values: OVERFLOW in any operand, or a result that does not fit in
+    // a long, gives OVERFLOW
+
+    static long add(long a, long b)
+    {
+        long sum = a + b;
+        if (a == OVERFLOW || b == OVERFLOW || ((a ^ sum) & (b ^ sum)) < 0)
+        {
+            return OVERFLOW;
+        }
+        return sum;
+    }
+
+    static long multiply(long a, long b)
+    {
+        if (a == OVERFLOW || b == OVERFLOW)
+        {
+            return OVERFLOW;
+        }
+        long product = a * b;
+        if (((Math.abs(a) | Math.abs(b)) >>> 31) != 0 && b != 0 && product / b != a)
+        {
+            return OVERFLOW;
+        }
+        return product;
+    }
+
+    /** @return {@code value} &times; 10<sup>digits</sup>, for {@code digits >= 0} */
+    static long scaleUp(long value, int digits)
+    {
+        if (digits == 0 || value == 0 || value == OVERFLOW)
+        {
+            return value;
+        }
+        if (digits > MAX_SCALE || Math.abs(value) > Long.MAX_VALUE / POW10[digits])
+        {
+            return OVERFLOW;
+        }
+        return value * POW10[digits];
+    }
+
+    /**
+     * @return {@code value} &times; 10<sup>-digits</sup>, rounded {@code HALF_UP}, for
+     *     {@code digits >= 0}
+     */
+    static long scaleDownHalfUp(long value, int digits)
+    {
+        if (digits == 0 || value == OVERFLOW)
+        {
+            return value;
+        }
+        if (digits > MAX_SCALE) // |value| < 10^19, so only 5 * 10^18 and more round to one
+        {
+            return digits == MAX_SCALE + 1 && Math.abs(value) >= 5 * POW10[MAX_SCALE]
+                ? Long.signum(value) : 0;
+        }
+        long pow10 = POW10[digits];
+        long quotient = value / pow10;
+        long remainder = value % pow10;
+        return Math.abs(remainder) >= pow10 / 2 ? quotient + Long.signum(value) : quotient;
+    }
+
+    /** @return {@code value} changed from one scale to another, rounded {@code HALF_UP} */
+    static long rescale(long value, int fromScale, int toScale)
+    {
+        return toScale >= fromScale
+            ? scaleUp(value, toScale - fromScale)
+            : scaleDownHalfUp(value, fromScale - toScale);
+    }
+
+    /** @return {@code dividend / divisor}, rounded {@code HALF_UP}; neither may be OVERFLOW */
+    static long divideHalfUp(long dividend, long divisor)
+    {
+        long quotient = dividend / divisor;
+        long remainder = Math.abs(dividend % divisor);
+        if (remainder >= Math.abs(divisor) - remainder)
+        {
+            return quotient + ((dividend ^ divisor) < 0 ? -1 : 1);
+        }
+        return quotient;
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.pros.java.text;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Remembers the text of recently formatted values, for data in which the same values recur
+ * many times, such as price lists.  A hit costs one hash of the value's bits and a probe of a
+ * few adjacent slots, without locking or allocating; a miss formats the value with the
+ * {@link HalfUpFormatter} that the cache was created for (which determines the rounding
+ * scale, symbols and other configuration), and stores the result.
+ * <p>
+ * The cache is set-associative: a value can only be stored in the {@value #SET_SIZE} slots of
+ * the set that its hash selects.  When a set is full, a CLOCK sweep over it chooses the entry
+ * to replace: entries that were hit since the last sweep are spared once, so values seen only
+ * once are evicted before frequently used ones.
+ * </p>
+ * The cache is thread safe; threads that miss on the same value at the same time may each
+ * format it, and may each store it.
+ */
+public final class HalfUpFormatCache
+{
+    /** Slots per set; a power of 2. */
+    static final int SET_SIZE = 8;
+
+    private final HalfUpFormatter formatter;
+    private final AtomicReferenceArray<Entry> slots;
+    private final int setMask;
+    private final int[] hands; // CLOCK position within each set; updated racily
+    private final Platform.Counter hits = Platform.get().newCounter();
+    private final Platform.Counter misses = Platform.get().newCounter();
+    private final Platform.Counter evictions = Platform.get().newCounter();
+
+    private static final class Entry
+    {
+        final long bits;
+        final String text;
+        volatile boolean referenced;
+
+        Entry(long bits, String text)
+        {
+            this.bits = bits;
+            this.text = text;
+        }
+    }
+
+    /**
+     * @param formatter formats the values that are not cached
+     * @param capacity the maximum number of values to keep; rounded up to a power of 2, and to
+     *     at least {@value #SET_SIZE}
+     */
+    public HalfUpFormatCache(HalfUpFormatter formatter, int capacity)
+    {
+        if (capacity <= 0)
+        {
+            throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+        }
+        if (capacity > 1 << 30)
+        {
+            throw new IllegalArgumentException("Capacity too large: " + capacity);
+        }
+        this.formatter = formatter;
+        int sets = Math.max(1, Integer.highestOneBit(capacity - 1) * 2 / SET_SIZE);
+        slots = new AtomicReferenceArray<Entry>(sets * SET_SIZE);
+        setMask = sets - 1;
+        hands = new int[sets];
+    }
+
+    /**
+     * @return the same text as {@link HalfUpFormatter#format(double)}
+     */
+    public String format(double value)
+    {
+        long bits = Double.doubleToRawLongBits(value);
+        int base = set(bits) * SET_SIZE;
+        for (int i = 0; i < SET_SIZE; i++)
+        {
+            Entry entry = slots.get(base + i);
+            if (entry == null)
+            {
+                break; // slots are filled in order and never emptied
+            }
+            if (entry.bits == bits)
+            {
+                if (!entry.referenced)
+                {
+                    entry.referenced = true; // written only once per sweep, not on every hit
+                }
+                hits.increment();
+                return entry.text;
+            }
+        }
+
+        misses.increment();
+        String text = formatter.format(value);
+        store(base, new Entry(bits, text));
+        return text;
+    }
+
+    private void store(int base, Entry entry)
+    {
+        for (int i = 0; i < SET_SIZE; i++)
+        {
+            Entry existing = slots.get(base + i);
+            if (existing == null)
+            {
+                if (slots.compareAndSet(base + i, null, entry))
+                {
+                    return;
+                }
+                existing = slots.get(base + i);
+            }
+            if (existing.bits == entry.bits)
+            {
+                return; // stored by another thread meanwhile
+            }
+        }
+
+        // Two rounds of the hand always find an entry that was not referenced, unless other
+        // threads keep hitting; then the value is simply not stored
+        int set = base / SET_SIZE;
+        int hand = hands[set];
+        for (int n = 0; n < 2 * SET_SIZE; n++)
+        {
+            int slot = base + ((hand + n) & (SET_SIZE - 1));
+            Entry candidate = slots.get(slot);
+            if (candidate.referenced)
+            {
+                candidate.referenced = false;
+            }
+            else
+            {
+                if (slots.compareAndSet(slot, candidate, entry))
+                {
+                    evictions.increment();
+                    hands[set] = (hand + n + 1) & (SET_SIZE - 1);
+                }
+                return;
+            }
+        }
+    }
+
+    private int set(long bits)
+    {
+        // The finalizer of MurmurHash3: doubles that differ in a few low bits spread widely
+        bits ^= bits >>> 33;
+        bits *= 0xFF51AFD7ED558CCDL;
+        bits ^= bits >>> 33;
+        bits *= 0xC4CEB9FE1A85EC53L;
+        bits ^= bits >>> 33;
+        return (int) bits & setMask;
+    }
+
+    /** @return the maximum number of values kept */
+    public int getCapacity()
+    {
+        return slots.length();
+    }
+
+    /** @return the number of calls that found the value cached */
+    public long getHitCount()
+    {
+        return hits.sum();
+    }
+
+    /** @return the number of calls that formatted the value */
+    public long getMissCount()
+    {
+        return misses.sum();
+    }
+
+    /** @return the number of cached values replaced by others */
+    public long getEvictionCount()
+    {
+        return evictions.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        return "HalfUpFormatCache[capacity=" + getCapacity() + ", hits=" + getHitCount()
+            + ", misses=" + getMissCount() + ", evictions=" + getEvictionCount() + "]";
+    }
+}
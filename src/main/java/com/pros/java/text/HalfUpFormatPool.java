@@ -0,0 +1,357 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A thread-safe pool of {@code HALF_UP} {@link DecimalFormat} instances, for code that needs a
+ * {@code NumberFormat} (rather than a {@link HalfUpFormatter}) and cannot afford to create one
+ * per call.  Formats are keyed by locale, pattern, fraction digits, and grouping.
+ * <p>
+ * The footprint is bounded: at most {@code maximumKeys} keys are kept, the least recently used
+ * key being evicted first, and each key holds at most {@code slotsPerKey} idle formats.  Threads
+ * pick a slot by their id and take the format out of it, so there is no locking in the common
+ * case.  When every slot is empty a new format is cloned from the key's prototype, and when
+ * every slot is full a returned format is simply dropped.  Nothing is held per thread, so many
+ * short-lived threads do not make the pool grow.
+ * </p>
+ * Formats taken with {@link #acquire} must be given back with {@link #release} and must not be
+ * reconfigured in between; {@link #format(Key, double)} does both.
+ */
+public final class HalfUpFormatPool
+{
+    /** Identifies one configuration of {@code DecimalFormat}. */
+    public static final class Key
+    {
+        final Locale locale;
+        final String pattern; // null: the locale's default number pattern
+        final int minimumFractionDigits;
+        final int maximumFractionDigits;
+        final boolean grouping;
+        private final int hash;
+
+        /**
+         * @param locale determines the symbols, and the pattern if {@code pattern} is null
+         * @param pattern a {@link DecimalFormat} pattern, or null for the locale's default
+         * @param minimumFractionDigits overrides the pattern's minimum fraction digits
+         * @param maximumFractionDigits overrides the pattern's maximum fraction digits
+         * @param grouping whether grouping separators are used
+         */
+        public Key(Locale locale, String pattern,
+            int minimumFractionDigits, int maximumFractionDigits, boolean grouping)
+        {
+            if (locale == null)
+            {
+                throw new NullPointerException("locale");
+            }
+            if (minimumFractionDigits < 0 || maximumFractionDigits < minimumFractionDigits)
+            {
+                throw new IllegalArgumentException("Invalid fraction digits: "
+                    + minimumFractionDigits + ".." + maximumFractionDigits);
+            }
+            this.locale = locale;
+            this.pattern = pattern;
+            this.minimumFractionDigits = minimumFractionDigits;
+            this.maximumFractionDigits = maximumFractionDigits;
+            this.grouping = grouping;
+
+            int h = locale.hashCode();
+            h = 31 * h + (pattern == null ? 0 : pattern.hashCode());
+            h = 31 * h + minimumFractionDigits;
+            h = 31 * h + maximumFractionDigits;
+            hash = 31 * h + (grouping ? 1 : 0);
+        }
+
+        /**
+         * @return a key for the locale's default number pattern with exactly {@code scale}
+         *     fraction digits and grouping, as {@link HalfUpFormatter#getInstance} uses
+         */
+        public static Key of(Locale locale, int scale)
+        {
+            return new Key(locale, null, scale, scale, true);
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (this == obj)
+            {
+                return true;
+            }
+            if (!(obj instanceof Key))
+            {
+                return false;
+            }
+            Key other = (Key) obj;
+            return hash == other.hash
+                && locale.equals(other.locale)
+                && (pattern == null ? other.pattern == null : pattern.equals(other.pattern))
+                && minimumFractionDigits == other.minimumFractionDigits
+                && maximumFractionDigits == other.maximumFractionDigits
+                && grouping == other.grouping;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return hash;
+        }
+
+        @Override
+        public String toString()
+        {
+            return locale + " " + (pattern == null ? "(default)" : pattern) + " "
+                + minimumFractionDigits + ".." + maximumFractionDigits
+                + (grouping ? " grouping" : "");
+        }
+    }
+
+    /** Idle formats of one key, and the prototype that new ones are cloned from. */
+    private static final class Entry
+    {
+        final DecimalFormat prototype;
+        final AtomicReferenceArray<DecimalFormat> slots;
+        volatile long lastUsed;
+
+        Entry(DecimalFormat prototype, int slotCount)
+        {
+            this.prototype = prototype;
+            this.slots = new AtomicReferenceArray<DecimalFormat>(slotCount);
+        }
+
+        DecimalFormat newFormat()
+        {
+            return (DecimalFormat) prototype.clone(); // only reads the prototype, never used itself
+        }
+    }
+
+    private final int maximumKeys;
+    private final int slotsPerKey;
+    private final ConcurrentMap<Key, Entry> entries = new ConcurrentHashMap<Key, Entry>();
+    private final AtomicLong clock = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    /**
+     * @param maximumKeys the number of keys to keep formats for, at least 1
+     * @param slotsPerKey the number of idle formats to keep per key, at least 1; about the
+     *     number of threads expected to use one key at the same time
+     */
+    public HalfUpFormatPool(int maximumKeys, int slotsPerKey)
+    {
+        if (maximumKeys < 1 || slotsPerKey < 1)
+        {
+            throw new IllegalArgumentException("maximumKeys and slotsPerKey must be at least 1");
+        }
+        this.maximumKeys = maximumKeys;
+        this.slotsPerKey = slotsPerKey;
+    }
+
+    /** Creates a pool for 64 keys, with one slot per available processor for each key. */
+    public HalfUpFormatPool()
+    {
+        this(64, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * @param key the configuration
+     * @param value the value to format
+     * @return the value formatted by a pooled format for {@code key}
+     */
+    public String format(Key key, double value)
+    {
+        DecimalFormat format = acquire(key);
+        try
+        {
+            return format.format(value);
+        }
+        finally
+        {
+            release(key, format);
+        }
+    }
+
+    /**
+     * Takes a format out of the pool, or creates a new one if none is idle.
+     *
+     * @param key the configuration
+     * @return a format for the exclusive use of the caller, until it is released
+     * @throws IllegalArgumentException if the key's pattern is invalid
+     */
+    public DecimalFormat acquire(Key key)
+    {
+        Entry entry = entry(key);
+        AtomicReferenceArray<DecimalFormat> slots = entry.slots;
+        int start = slotIndex();
+        for (int i = 0; i < slotsPerKey; i++)
+        {
+            int slot = (start + i) % slotsPerKey;
+            if (slots.get(slot) != null)
+            {
+                DecimalFormat format = slots.getAndSet(slot, null);
+                if (format != null)
+                {
+                    return format;
+                }
+            }
+        }
+        created.incrementAndGet();
+        return entry.newFormat();
+    }
+
+    /**
+     * Returns a format taken with {@link #acquire} to the pool.  If the key has been evicted
+     * since, or its slots are full, the format is left to the garbage collector.
+     *
+     * @param key the key the format was acquired with
+     * @param format the format, which the caller must not use any more
+     */
+    public void release(Key key, DecimalFormat format)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null || format == null)
+        {
+            return;
+        }
+        AtomicReferenceArray<DecimalFormat> slots = entry.slots;
+        int start = slotIndex();
+        for (int i = 0; i < slotsPerKey; i++)
+        {
+            int slot = (start + i) % slotsPerKey;
+            if (slots.get(slot) == null && slots.compareAndSet(slot, null, format))
+            {
+                return;
+            }
+        }
+    }
+
+    /** @return the number of keys currently held */
+    public int size()
+    {
+        return entries.size();
+    }
+
+    /** @return the number of formats created so far, i.e. the number of pool misses */
+    public long getCreatedCount()
+    {
+        return created.get();
+    }
+
+    /** @return the number of keys evicted so far */
+    public long getEvictedCount()
+    {
+        return evicted.get();
+    }
+
+    private int slotIndex()
+    {
+        long id = Thread.currentThread().getId();
+        return (int) ((id ^ (id >>> 32)) & Integer.MAX_VALUE) % slotsPerKey;
+    }
+
+    private Entry entry(Key key)
+    {
+        Entry entry = entries.get(key);
+        if (entry == null)
+        {
+            Entry added = new Entry(createPrototype(key), slotsPerKey);
+            entry = entries.putIfAbsent(key, added);
+            if (entry == null)
+            {
+                entry = added;
+                evictIfFull(key);
+            }
+        }
+        entry.lastUsed = clock.incrementAndGet();
+        return entry;
+    }
+
+    /** Removes least recently used keys, other than {@code added}, beyond the limit. */
+    private void evictIfFull(Key added)
+    {
+        while (entries.size() > maximumKeys)
+        {
+            Key eldest = null;
+            long eldestUse = Long.MAX_VALUE;
+            for (Map.Entry<Key, Entry> e : entries.entrySet())
+            {
+                if (e.getValue().lastUsed < eldestUse && !e.getKey().equals(added))
+                {
+                    eldest = e.getKey();
+                    eldestUse = e.getValue().lastUsed;
+                }
+            }
+            if (eldest == null)
+            {
+                return;
+            }
+            if (entries.remove(eldest) != null)
+            {
+                evicted.incrementAndGet();
+            }
+        }
+    }
+
+    private static DecimalFormat createPrototype(Key key)
+    {
+        DecimalFormat format;
+        if (key.pattern == null)
+        {
+            NumberFormat localeFormat = NumberFormat.getInstance(key.locale);
+            format = localeFormat instanceof DecimalFormat
+                ? (DecimalFormat) localeFormat
+                : new DecimalFormat("#,##0.###", DecimalFormatSymbols.getInstance(key.locale));
+        }
+        else
+        {
+            format = new DecimalFormat(key.pattern, DecimalFormatSymbols.getInstance(key.locale));
+        }
+        format.setMinimumFractionDigits(key.minimumFractionDigits);
+        format.setMaximumFractionDigits(key.maximumFractionDigits);
+        format.setGroupingUsed(key.grouping);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        return format;
+    }
+}
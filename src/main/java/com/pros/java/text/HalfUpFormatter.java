@@ -0,0 +1,605 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+
+/**
+ * Formats {@code double} values exactly as a {@link DecimalFormat} in {@link RoundingMode#HALF_UP
+ * HALF_UP} mode does once {@code java.text.DigitList} is patched (or on Java 8u40 and later),
+ * but without allocating any objects per call, and on any JVM, with or without the agent.
+ * <p>
+ * A formatter is created from a {@code DecimalFormat} that serves as the template: its prefixes
+ * and suffixes, integer and fraction digit limits, grouping, and locale symbols (zero digit,
+ * decimal and grouping separators, NaN and infinity) are all honored.  Patterns that use
+ * exponential notation, a multiplier (such as percent and per-mille), or a rounding mode
+ * other than {@code HALF_UP} are not supported.
+ * </p>
+ * Unlike {@code DecimalFormat}, instances are immutable and may be shared by any number of
+ * threads.  Formatting into a {@code char[]}, {@code StringBuilder}, {@code Appendable}, or
+ * (in bulk, as UTF-8) a {@code ByteBuffer} does not allocate, except for values that need more
+ * than 18 fraction digits, or whose rounded value exceeds 2<sup>53</sup> when scaled; those
+ * are computed with {@code BigDecimal} instead, with the same results.
+ * <p>
+ * {@link HalfUpDecimal} values are formatted as {@code DecimalFormat} formats the equal
+ * {@code BigDecimal}, again without allocating unless the value's unscaled value does not fit
+ * in a {@code long}.
+ * </p>
+ */
+public final class HalfUpFormatter
+{
+    // DecimalFormat limits the digits it formats for a double to these
+    private static final int DOUBLE_INTEGER_DIGITS = 309;
+    private static final int DOUBLE_FRACTION_DIGITS = 340;
+
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>()
+    {
+        @Override
+        protected Scratch initialValue()
+        {
+            return new Scratch();
+        }
+    };
+
+    private final char[] positivePrefix;
+    private final char[] positiveSuffix;
+    private final char[] negativePrefix;
+    private final char[] negativeSuffix;
+    private final int minimumIntegerDigits;
+    private final int maximumIntegerDigits;
+    private final int minimumFractionDigits;
+    private final int maximumFractionDigits;
+    private final int groupingSize; // zero when grouping is not used
+    private final boolean decimalSeparatorAlwaysShown;
+    private final char zeroDigit;
+    private final char decimalSeparator;
+    private final char groupingSeparator;
+    private final char[] nan;
+    private final char[] infinity;
+    private final int maximumLength;
+
+    /**
+     * @param format the template; it is not retained, and later changes to it have no effect
+     * @throws IllegalArgumentException if the format uses a feature that is not supported
+     */
+    public HalfUpFormatter(DecimalFormat format)
+    {
+        String pattern = format.toPattern();
+        if (pattern.indexOf('E') >= 0)
+        {
+            throw new IllegalArgumentException("Exponential notation is not supported: " + pattern);
+        }
+        if (format.getMultiplier() != 1)
+        {
+            throw new IllegalArgumentException("Multipliers are not supported: " + pattern);
+        }
+        if (format.getRoundingMode() != RoundingMode.HALF_UP)
+        {
+            throw new IllegalArgumentException("Rounding mode is not HALF_UP: " + format.getRoundingMode());
+        }
+
+        DecimalFormatSymbols symbols = format.getDecimalFormatSymbols();
+        positivePrefix = format.getPositivePrefix().toCharArray();
+        positiveSuffix = format.getPositiveSuffix().toCharArray();
+        negativePrefix = format.getNegativePrefix().toCharArray();
+        negativeSuffix = format.getNegativeSuffix().toCharArray();
+        minimumIntegerDigits = Math.min(format.getMinimumIntegerDigits(), DOUBLE_INTEGER_DIGITS);
+        maximumIntegerDigits = Math.min(format.getMaximumIntegerDigits(), DOUBLE_INTEGER_DIGITS);
+        minimumFractionDigits = Math.min(format.getMinimumFractionDigits(), DOUBLE_FRACTION_DIGITS);
+        maximumFractionDigits = Math.min(format.getMaximumFractionDigits(), DOUBLE_FRACTION_DIGITS);
+        groupingSize = format.isGroupingUsed() ? format.getGroupingSize() : 0;
+        decimalSeparatorAlwaysShown = format.isDecimalSeparatorAlwaysShown();
+        zeroDigit = symbols.getZeroDigit();
+        decimalSeparator = pattern.indexOf('\u00A4') >= 0 // currency sign: same as DecimalFormat
+            ? symbols.getMonetaryDecimalSeparator()
+            : symbols.getDecimalSeparator();
+        groupingSeparator = symbols.getGroupingSeparator();
+        nan = symbols.getNaN().toCharArray();
+        infinity = symbols.getInfinity().toCharArray();
+
+        int affixes = Math.max(positivePrefix.length, negativePrefix.length)
+            + Math.max(positiveSuffix.length, negativeSuffix.length);
+        int separators = groupingSize > 0 ? maximumIntegerDigits / groupingSize : 0;
+        maximumLength = Math.max(nan.length, affixes + Math.max(infinity.length,
+            Math.max(maximumIntegerDigits + separators, 1) + 1 + maximumFractionDigits));
+    }
+
+    /**
+     * Creates a formatter like {@link NumberFormat#getInstance(Locale)}, with exactly
+     * {@code scale} fraction digits.
+     *
+     * @param locale determines the symbols and grouping
+     * @param scale the minimum and maximum number of fraction digits
+     * @return a new formatter
+     */
+    public static HalfUpFormatter getInstance(Locale locale, int scale)
+    {
+        NumberFormat format = NumberFormat.getInstance(locale);
+        if (!(format instanceof DecimalFormat))
+        {
+            format = new DecimalFormat("#,##0.###", DecimalFormatSymbols.getInstance(locale));
+        }
+        format.setMinimumFractionDigits(scale);
+        format.setMaximumFractionDigits(scale);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        return new HalfUpFormatter((DecimalFormat) format);
+    }
+
+    /** @return the maximum number of characters that a single call may produce */
+    public int getMaximumLength()
+    {
+        return maximumLength;
+    }
+
+    /** @return the maximum number of fraction digits, i.e. the scale values are rounded to */
+    public int getMaximumFractionDigits()
+    {
+        return maximumFractionDigits;
+    }
+
+    /**
+     * @param value the value to format
+     * @return the formatted value, as {@link DecimalFormat#format(double)} would return it
+     */
+    public String format(double value)
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        return new String(scratch.chars, 0, length);
+    }
+
+    /**
+     * @param value the value to format
+     * @param dest receives the formatted characters
+     * @param offset index in {@code dest} of the first character to write
+     * @return the index in {@code dest} after the last character written
+     * @throws IndexOutOfBoundsException if {@code dest} does not have room for the result;
+     *     {@link #getMaximumLength()} characters are always enough
+     */
+    public int format(double value, char[] dest, int offset)
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        System.arraycopy(scratch.chars, 0, dest, offset, length);
+        return offset + length;
+    }
+
+    /**
+     * @param value the value to format
+     * @param dest receives the formatted characters
+     * @return {@code dest}
+     */
+    public StringBuilder format(double value, StringBuilder dest)
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        return dest.append(scratch.chars, 0, length);
+    }
+
+    /**
+     * @param value the value to format
+     * @param dest receives the formatted characters
+     * @return {@code dest}
+     * @throws IOException if thrown by {@code dest}
+     */
+    public <A extends Appendable> A format(double value, A dest)
+    throws IOException
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        char[] chars = scratch.chars;
+        if (dest instanceof StringBuilder)
+        {
+            ((StringBuilder) dest).append(chars, 0, length);
+        }
+        else if (dest instanceof StringBuffer)
+        {
+            ((StringBuffer) dest).append(chars, 0, length);
+        }
+        else if (dest instanceof Writer)
+        {
+            ((Writer) dest).write(chars, 0, length);
+        }
+        else
+        {
+            for (int i = 0; i < length; i++)
+            {
+                dest.append(chars[i]);
+            }
+        }
+        return dest;
+    }
+
+    /**
+     * @param value the value to format
+     * @return the formatted value, as {@link DecimalFormat#format(Object)} would return it for
+     *     the equal {@code BigDecimal}
+     */
+    public String format(HalfUpDecimal value)
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        return new String(scratch.chars, 0, length);
+    }
+
+    /**
+     * @param value the value to format
+     * @param dest receives the formatted characters
+     * @param offset index in {@code dest} of the first character to write
+     * @return the index in {@code dest} after the last character written
+     * @throws IndexOutOfBoundsException if {@code dest} does not have room for the result;
+     *     {@link #getMaximumLength()} characters are always enough
+     */
+    public int format(HalfUpDecimal value, char[] dest, int offset)
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        System.arraycopy(scratch.chars, 0, dest, offset, length);
+        return offset + length;
+    }
+
+    /**
+     * @param value the value to format
+     * @param dest receives the formatted characters
+     * @return {@code dest}
+     */
+    public StringBuilder format(HalfUpDecimal value, StringBuilder dest)
+    {
+        Scratch scratch = SCRATCH.get();
+        int length = formatToScratch(value, scratch);
+        return dest.append(scratch.chars, 0, length);
+    }
+
+    /**
+     * Formats consecutive values into a heap or direct buffer as UTF-8 text (plain ASCII for
+     * most locales), each value followed by {@code delimiter}.  Formatting stops before the
+     * first value that does not fit in the buffer's remaining space; after draining the buffer,
+     * call again with {@code offset} advanced by the returned count to resume.  A buffer with
+     * {@code 3 * getMaximumLength() + 1} bytes remaining always has room for another value.
+     *
+     * @param values the values to format
+     * @param offset index in {@code values} of the first value to format
+     * @param length number of values to format
+     * @param dest receives the text, from its position on; its position is advanced
+     * @param delimiter an ASCII character written after every value, such as {@code '\n'}
+     * @param ends if not {@code null}, receives the buffer position after each value's
+     *     delimiter, at the same index as the value in {@code values}; so value {@code i}
+     *     starts at {@code ends[i - 1]}, or at the initial position if {@code i == offset}
+     * @return the number of values written, less than {@code length} if the buffer is full
+     */
+    public int format(double[] values, int offset, int length, ByteBuffer dest, byte delimiter,
+        int[] ends)
+    {
+        if (offset < 0 || length < 0 || offset > values.length - length)
+        {
+            throw new IndexOutOfBoundsException("offset " + offset + ", length " + length
+                + ", array length " + values.length);
+        }
+        Scratch scratch = SCRATCH.get();
+        for (int i = 0; i < length; i++)
+        {
+            int chars = formatToScratch(values[offset + i], scratch);
+            if (!putUtf8(scratch.chars, chars, delimiter, dest))
+            {
+                return i;
+            }
+            if (ends != null)
+            {
+                ends[offset + i] = dest.position();
+            }
+        }
+        return length;
+    }
+
+    // Formats into scratch.chars, returns the number of characters
+    private int formatToScratch(double value, Scratch scratch)
+    {
+        char[] out = scratch.chars(maximumLength);
+        if (value != value) // NaN
+        {
+            System.arraycopy(nan, 0, out, 0, nan.length);
+            return nan.length;
+        }
+
+        // Same as DecimalFormat: negative zero, and values that round to zero, keep their sign
+        boolean negative = value < 0.0 || (value == 0.0 && 1 / value < 0.0);
+        double abs = Math.abs(value);
+        char[] prefix = negative ? negativePrefix : positivePrefix;
+        char[] suffix = negative ? negativeSuffix : positiveSuffix;
+        int pos = append(prefix, out, 0);
+        if (Double.isInfinite(abs))
+        {
+            pos = append(infinity, out, pos);
+            return append(suffix, out, pos);
+        }
+
+        long unscaled = HalfUpRounding.unscaled(abs, maximumFractionDigits);
+        if (unscaled != HalfUpRounding.NOT_FAST)
+        {
+            pos = formatDigits(unscaled, maximumFractionDigits, scratch.digits, out, pos);
+        }
+        else
+        {
+            String plain = HalfUpRounding.rounded(abs, maximumFractionDigits).toPlainString();
+            pos = formatDigits(plain, scratch.digits, out, pos);
+        }
+        return append(suffix, out, pos);
+    }
+
+    // Formats into scratch.chars, returns the number of characters
+    private int formatToScratch(HalfUpDecimal value, Scratch scratch)
+    {
+        char[] out = scratch.chars(maximumLength);
+        boolean negative = value.signum() < 0; // also when the value rounds to zero
+        int pos = append(negative ? negativePrefix : positivePrefix, out, 0);
+        if (value.isCompact())
+        {
+            long abs = Math.abs(value.unscaledValue());
+            int scale = value.scale();
+            if (scale > maximumFractionDigits)
+            {
+                abs = HalfUpDecimal.scaleDownHalfUp(abs, scale - maximumFractionDigits);
+                scale = maximumFractionDigits;
+            }
+            pos = formatDigits(abs, scale, scratch.digits, out, pos);
+        }
+        else
+        {
+            BigDecimal abs = value.toBigDecimal().abs();
+            if (abs.scale() > maximumFractionDigits)
+            {
+                abs = abs.setScale(maximumFractionDigits, RoundingMode.HALF_UP);
+            }
+            pos = formatDigits(abs.toPlainString(), scratch.digits, out, pos);
+        }
+        return append(negative ? negativeSuffix : positiveSuffix, out, pos);
+    }
+
+    // Formats a non-negative value of unscaled * 10^-scale, with scale <= maximumFractionDigits
+    private int formatDigits(long unscaled, int scale, char[] digits, char[] out, int pos)
+    {
+        // Decimal digits of the value, without trailing fraction zeros
+        long pow10 = HalfUpRounding.POW10[scale];
+        long integer = unscaled / pow10;
+        long fraction = unscaled % pow10;
+        int integerDigits = integer == 0 ? 0 : putDigits(integer, digits, 0, 0);
+        int fractionDigits = scale;
+        while (fractionDigits > 0 && fraction % 10 == 0)
+        {
+            fraction /= 10;
+            fractionDigits--;
+        }
+        putDigits(fraction, digits, integerDigits, fractionDigits);
+        return formatDigits(integerDigits, fractionDigits, digits, out, pos);
+    }
+
+    // Formats a non-negative value in plain notation, with at most maximumFractionDigits
+    private int formatDigits(String plain, char[] digits, char[] out, int pos)
+    {
+        int point = plain.indexOf('.');
+        int integerEnd = point < 0 ? plain.length() : point;
+        int end = plain.length();
+        while (point >= 0 && end > point + 1 && plain.charAt(end - 1) == '0')
+        {
+            end--;
+        }
+        int integerDigits = integerEnd == 1 && plain.charAt(0) == '0' ? 0 : integerEnd;
+        int fractionDigits = point < 0 ? 0 : end - point - 1;
+        plain.getChars(integerEnd - integerDigits, integerEnd, digits, 0);
+        if (fractionDigits > 0)
+        {
+            plain.getChars(integerEnd + 1, end, digits, integerDigits);
+        }
+        return formatDigits(integerDigits, fractionDigits, digits, out, pos);
+    }
+
+    // Formats the integer, decimal separator and fraction from the digits of the rounded value,
+    // without trailing fraction zeros; mirrors DecimalFormat.subformat()
+    private int formatDigits(
+        int integerDigits, int fractionDigits, char[] digits, char[] out, int pos)
+    {
+        int zeroDelta = zeroDigit - '0';
+        int count = Math.min(Math.max(minimumIntegerDigits, integerDigits), maximumIntegerDigits);
+        for (int i = count - 1; i >= 0; --i)
+        {
+            // high-order digits beyond maximumIntegerDigits are dropped, as in DecimalFormat
+            out[pos++] = i < integerDigits ? (char) (digits[integerDigits - 1 - i] + zeroDelta) : zeroDigit;
+            if (groupingSize > 0 && i > 0 && i % groupingSize == 0)
+            {
+                out[pos++] = groupingSeparator;
+            }
+        }
+
+        boolean fractionPresent = minimumFractionDigits > 0 || fractionDigits > 0;
+        if (!fractionPresent && count == 0)
+        {
+            out[pos++] = zeroDigit; // never produce an empty number
+        }
+        if (decimalSeparatorAlwaysShown || fractionPresent)
+        {
+            out[pos++] = decimalSeparator;
+        }
+        int printedFractionDigits = Math.max(minimumFractionDigits, fractionDigits);
+        for (int i = 0; i < printedFractionDigits; i++)
+        {
+            out[pos++] = i < fractionDigits ? (char) (digits[integerDigits + i] + zeroDelta) : zeroDigit;
+        }
+        return pos;
+    }
+
+    /**
+     * Writes the decimal digits of {@code value} as characters {@code '0'..'9'}.
+     *
+     * @param width the number of digits to write, including leading zeros; or zero to write
+     *     exactly as many digits as needed
+     * @return the number of digits written
+     */
+    private static int putDigits(long value, char[] digits, int offset, int width)
+    {
+        if (width == 0)
+        {
+            for (long rest = value; rest != 0; rest /= 10)
+            {
+                width++;
+            }
+        }
+        for (int i = offset + width - 1; i >= offset; i--)
+        {
+            digits[i] = (char) ('0' + (value % 10));
+            value /= 10;
+        }
+        return width;
+    }
+
+    private static int append(char[] chars, char[] out, int pos)
+    {
+        System.arraycopy(chars, 0, out, pos, chars.length);
+        return pos + chars.length;
+    }
+
+    /**
+     * Encodes the characters and the delimiter into {@code dest} as UTF-8, unless they do not
+     * fit; an unpaired surrogate is written as {@code '?'}, as {@code String.getBytes} does.
+     *
+     * @return whether they were written
+     */
+    private static boolean putUtf8(char[] chars, int length, byte delimiter, ByteBuffer dest)
+    {
+        int bytes = 1;
+        boolean ascii = true;
+        for (int i = 0; i < length; i++)
+        {
+            char c = chars[i];
+            if (c < 0x80)
+            {
+                bytes++;
+                continue;
+            }
+            ascii = false;
+            if (c < 0x800)
+            {
+                bytes += 2;
+            }
+            else if (Character.isHighSurrogate(c) && i + 1 < length
+                && Character.isLowSurrogate(chars[i + 1]))
+            {
+                bytes += 4;
+                i++;
+            }
+            else
+            {
+                bytes += isSurrogate(c) ? 1 : 3;
+            }
+        }
+        if (dest.remaining() < bytes)
+        {
+            return false;
+        }
+
+        if (ascii)
+        {
+            for (int i = 0; i < length; i++)
+            {
+                dest.put((byte) chars[i]);
+            }
+        }
+        else
+        {
+            for (int i = 0; i < length; i++)
+            {
+                int c = chars[i];
+                if (c < 0x80)
+                {
+                    dest.put((byte) c);
+                }
+                else if (c < 0x800)
+                {
+                    dest.put((byte) (0xC0 | (c >> 6)));
+                    dest.put((byte) (0x80 | (c & 0x3F)));
+                }
+                else if (Character.isHighSurrogate((char) c) && i + 1 < length
+                    && Character.isLowSurrogate(chars[i + 1]))
+                {
+                    int cp = Character.toCodePoint((char) c, chars[++i]);
+                    dest.put((byte) (0xF0 | (cp >> 18)));
+                    dest.put((byte) (0x80 | ((cp >> 12) & 0x3F)));
+                    dest.put((byte) (0x80 | ((cp >> 6) & 0x3F)));
+                    dest.put((byte) (0x80 | (cp & 0x3F)));
+                }
+                else if (isSurrogate((char) c))
+                {
+                    dest.put((byte) '?');
+                }
+                else
+                {
+                    dest.put((byte) (0xE0 | (c >> 12)));
+                    dest.put((byte) (0x80 | ((c >> 6) & 0x3F)));
+                    dest.put((byte) (0x80 | (c & 0x3F)));
+                }
+            }
+        }
+        dest.put(delimiter);
+        return true;
+    }
+
+    private static boolean isSurrogate(char c) // Character.isSurrogate() requires Java 7
+    {
+        return c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE;
+    }
+
+    /** Per-thread working storage, so that formatting does not allocate. */
+    private static final class Scratch
+    {
+        final char[] digits = new char[DOUBLE_INTEGER_DIGITS + DOUBLE_FRACTION_DIGITS];
+        char[] chars = new char[64];
+
+        char[] chars(int minimumLength)
+        {
+            if (chars.length < minimumLength)
+            {
+                chars = new char[minimumLength];
+            }
+            return chars;
+        }
+    }
+}
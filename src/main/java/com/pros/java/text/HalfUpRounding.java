@@ -0,0 +1,133 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The arithmetic behind {@code DecimalFormat}'s {@code HALF_UP} rounding of a {@code double}
+ * to a fixed number of fraction digits, as implemented by the patched
+ * {@code java.text.DigitList} (see the {@link DigitList} shim).
+ * <p>
+ * {@code DigitList} starts from the <em>shortest</em> decimal representation of the double
+ * (the digits of {@link Double#toString(double)}).  If those digits fit within the scale, they
+ * are used as they are, so that {@code 0.1} never becomes {@code 0.1000000000000000055511}.
+ * Otherwise they are rounded {@code HALF_UP}, and a 5 that is the last digit of the shortest
+ * representation is resolved by the exact binary value.  Because the shortest representation
+ * is always closer to the exact value than any shorter decimal, this mostly has the same effect
+ * as rounding the exact binary value {@code HALF_UP}.  Two details of {@code FloatingDecimal}
+ * are reproduced as well: when the exact value lies midway between two shortest candidates, the
+ * one with an even last digit is chosen; and below 10<sup>-3</sup> a one-digit representation
+ * is generated with a trailing zero, so a lone 5 just past the scale always rounds up.
+ * </p>
+ * {@link #unscaled(double, int)} computes that result with 128-bit integer arithmetic and no
+ * allocation for the common range of magnitudes and scales; {@link #rounded(double, int)}
+ * covers every finite double, using {@code BigDecimal}.  The arithmetic of {@code unscaled}
+ * lives in the shim, so that the agent's {@code fastDigits} option can copy it into
+ * {@code java.text.DigitList}.
+ */
+final class HalfUpRounding
+{
+    /** Returned by {@link #unscaled} when the result must be computed by {@link #rounded}. */
+    static final long NOT_FAST = DigitList.NOT_FAST;
+
+    /** The largest scale (number of fraction digits) that {@link #unscaled} supports. */
+    static final int MAX_FAST_SCALE = DigitList.MAX_FAST_SCALE;
+
+    /** Results of {@link #unscaled} are always below this limit, so they are exact as doubles. */
+    static final long FAST_LIMIT = DigitList.FAST_LIMIT;
+
+    static final long[] POW10 = DigitList.__patched__fastPow10;
+
+    private static final BigDecimal HALF = new BigDecimal("0.5");
+
+    private HalfUpRounding()
+    {
+        // static utility
+    }
+
+    /**
+     * Rounds a value to {@code scale} fraction digits, exactly as the patched
+     * {@code DecimalFormat} would, without allocating.
+     *
+     * @param abs a finite, non-negative value ({@code -0.0} is accepted as zero)
+     * @param scale number of fraction digits, {@code >= 0}
+     * @return the rounded result multiplied by 10<sup>scale</sup>, or {@link #NOT_FAST} if
+     *     the scale exceeds {@link #MAX_FAST_SCALE} or the result would not be below
+     *     {@link #FAST_LIMIT}
+     */
+    static long unscaled(double abs, int scale)
+    {
+        return DigitList.__patched__fastUnscaled(abs, scale);
+    }
+
+    /**
+     * Rounds a value to {@code scale} fraction digits, exactly as the patched
+     * {@code DecimalFormat} would.  This works for every finite double, but allocates.
+     *
+     * @param abs a finite, non-negative value
+     * @param scale number of fraction digits, {@code >= 0}
+     * @return the rounded result, with a {@link BigDecimal#scale() scale} of {@code scale}
+     */
+    static BigDecimal rounded(double abs, int scale)
+    {
+        // Same digits as FloatingDecimal provides to DigitList.set(boolean, double, int, boolean)
+        BigDecimal shortest = new BigDecimal(Double.toString(abs));
+        if (shortest.scale() <= scale)
+        {
+            return shortest.setScale(scale);
+        }
+
+        // As in the shim's __patched__shouldRoundUp_HALF_UP: a remainder above one half means
+        // the rounding digit is above 5, or is a 5 followed by more digits
+        BigDecimal down = shortest.setScale(scale, RoundingMode.DOWN);
+        int comparedToHalf = shortest.subtract(down).movePointRight(scale).compareTo(HALF);
+        boolean roundUp;
+        if (comparedToHalf == 0)
+        {
+            // The 5 is the last digit: round up unless FloatingDecimal rounded the digits up
+            // to get there (the exact value is below the tie).  A lone 5 below 10^-3 comes
+            // with a trailing zero, which DigitList takes for a digit beyond the tie.
+            roundUp = (down.signum() == 0 && abs < 1e-3)
+                || new BigDecimal(abs).compareTo(shortest) >= 0;
+        }
+        else
+        {
+            roundUp = comparedToHalf > 0;
+        }
+        return roundUp ? down.add(BigDecimal.ONE.movePointLeft(scale)) : down;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.math.BigInteger;
+import java.text.DecimalFormat;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rounds {@code double} values {@code HALF_UP} to a number of fraction digits, and returns them
+ * as scaled {@code long}s (for example, a number of cents), with exactly the digits that a
+ * patched {@link DecimalFormat} would print, but without formatting or parsing any text.
+ * <p>
+ * Most values take a fast path of exact integer arithmetic that does not allocate; values that
+ * need more than 18 fraction digits, or whose scaled result reaches 2<sup>53</sup>, are rounded
+ * with {@code BigDecimal} instead, with the same result.  Large arrays are split into chunks
+ * that the calling thread and a pool of helper threads round in parallel.
+ * </p>
+ */
+public final class HalfUpScaler
+{
+    /** Arrays shorter than this are rounded by the calling thread alone. */
+    static final int PARALLEL_THRESHOLD = 1 << 16;
+
+    /** Number of values that each thread claims at a time. */
+    static final int CHUNK = 1 << 13;
+
+    private static final BigInteger LONG_MIN = BigInteger.valueOf(Long.MIN_VALUE);
+    private static final BigInteger LONG_MAX = BigInteger.valueOf(Long.MAX_VALUE);
+
+    private HalfUpScaler()
+    {
+        // static utility
+    }
+
+    /**
+     * @param value a finite value
+     * @param scale number of fraction digits, {@code >= 0}
+     * @return the value rounded {@code HALF_UP} to {@code scale} fraction digits, multiplied
+     *     by 10<sup>scale</sup>
+     * @throws IllegalArgumentException if the value is NaN or infinite, or the scale is negative
+     * @throws ArithmeticException if the result does not fit in a {@code long}
+     */
+    public static long round(double value, int scale)
+    {
+        if (scale < 0)
+        {
+            throw new IllegalArgumentException("Negative scale: " + scale);
+        }
+        if (Double.isNaN(value) || Double.isInfinite(value))
+        {
+            throw new IllegalArgumentException("Not a finite value: " + value);
+        }
+        return roundFinite(value, scale);
+    }
+
+    /**
+     * Rounds {@code length} values, from {@code src[srcOffset]} on, into {@code dest} from
+     * {@code dest[destOffset]} on, as {@link #round(double, int)} does.  Arrays of at least
+     * {@value #PARALLEL_THRESHOLD} values are split across a shared pool of daemon threads,
+     * one per processor (on Java 8 and later, the common {@code ForkJoinPool}).
+     *
+     * @throws IllegalArgumentException if a value is NaN or infinite, or the scale is negative
+     * @throws ArithmeticException if a result does not fit in a {@code long}
+     */
+    public static void round(
+        double[] src, int srcOffset, long[] dest, int destOffset, int length, int scale)
+    {
+        Platform platform = Platform.get();
+        int helpers = platform.getSharedParallelism();
+        round(src, srcOffset, dest, destOffset, length, scale,
+            length >= PARALLEL_THRESHOLD && helpers > 0 ? platform.sharedExecutor() : null, helpers);
+    }
+
+    /**
+     * Like {@link #round(double[], int, long[], int, int, int)}, with helper threads from the
+     * given executor.  The calling thread rounds its share as well, and rounds everything
+     * itself if no helper starts, so the executor may be a small or busy pool.
+     *
+     * @param executor runs up to {@code helpers} tasks, or {@code null} to round in this thread
+     * @param helpers the number of tasks to submit to the executor
+     */
+    public static void round(double[] src, int srcOffset, long[] dest, int destOffset, int length,
+        int scale, Executor executor, int helpers)
+    {
+        if (scale < 0)
+        {
+            throw new IllegalArgumentException("Negative scale: " + scale);
+        }
+        if (srcOffset < 0 || destOffset < 0 || length < 0
+            || srcOffset > src.length - length || destOffset > dest.length - length)
+        {
+            throw new ArrayIndexOutOfBoundsException("Range out of bounds: " + length
+                + " values from " + srcOffset + " (of " + src.length + ") to " + destOffset
+                + " (of " + dest.length + ")");
+        }
+        Job job = new Job(src, srcOffset, dest, destOffset, length, scale);
+        if (executor != null)
+        {
+            for (int i = Math.min(helpers, job.chunks - 1); i > 0; i--)
+            {
+                executor.execute(job);
+            }
+        }
+        job.run();
+        job.await();
+    }
+
+    /** Rounds a range of an array; chunks are claimed by the caller and by helper threads. */
+    private static final class Job implements Runnable
+    {
+        final double[] src;
+        final int srcOffset;
+        final long[] dest;
+        final int destOffset;
+        final int length;
+        final int scale;
+        final int chunks;
+        private final AtomicInteger nextChunk = new AtomicInteger();
+        private final AtomicInteger remainingChunks;
+        private final CountDownLatch finished = new CountDownLatch(1);
+        private volatile RuntimeException failure;
+
+        Job(double[] src, int srcOffset, long[] dest, int destOffset, int length, int scale)
+        {
+            this.src = src;
+            this.srcOffset = srcOffset;
+            this.dest = dest;
+            this.destOffset = destOffset;
+            this.length = length;
+            this.scale = scale;
+            chunks = Math.max(1, (length + CHUNK - 1) / CHUNK);
+            remainingChunks = new AtomicInteger(chunks);
+        }
+
+        @Override
+        public void run()
+        {
+            for (int chunk = nextChunk.getAndIncrement(); chunk < chunks;
+                chunk = nextChunk.getAndIncrement())
+            {
+                try
+                {
+                    if (failure == null)
+                    {
+                        int first = chunk * CHUNK;
+                        roundRange(first, Math.min(length, first + CHUNK));
+                    }
+                }
+                catch (RuntimeException e)
+                {
+                    failure = e; // the first would do as well as any other
+                }
+                if (remainingChunks.decrementAndGet() == 0)
+                {
+                    finished.countDown();
+                }
+            }
+        }
+
+        private void roundRange(int from, int to)
+        {
+            for (int i = from; i < to; i++)
+            {
+                double value = src[srcOffset + i];
+                if (Double.isNaN(value) || Double.isInfinite(value))
+                {
+                    throw new IllegalArgumentException(
+                        "Not a finite value at index " + (srcOffset + i) + ": " + value);
+                }
+                dest[destOffset + i] = roundFinite(value, scale);
+            }
+        }
+
+        void await()
+        {
+            boolean interrupted = false;
+            while (true)
+            {
+                try
+                {
+                    finished.await();
+                    break;
+                }
+                catch (InterruptedException e)
+                {
+                    interrupted = true; // the helpers are still writing to 'dest'
+                }
+            }
+            if (interrupted)
+            {
+                Thread.currentThread().interrupt();
+            }
+            if (failure != null)
+            {
+                throw failure;
+            }
+        }
+    }
+
+    private static long roundFinite(double value, int scale)
+    {
+        double abs = Math.abs(value);
+        long unscaled = HalfUpRounding.unscaled(abs, scale);
+        if (unscaled == HalfUpRounding.NOT_FAST)
+        {
+            BigInteger exact = HalfUpRounding.rounded(abs, scale).unscaledValue();
+            if (value < 0)
+            {
+                exact = exact.negate();
+            }
+            if (exact.compareTo(LONG_MIN) < 0 || exact.compareTo(LONG_MAX) > 0)
+            {
+                throw new ArithmeticException("Out of range for scale " + scale + ": " + value);
+            }
+            return exact.longValue();
+        }
+        return value < 0 ? -unscaled : unscaled;
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.instrument.Instrumentation;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.jar.JarFile;
+
+/**
+ * Patches a JVM that is already running, so that it keeps its warmed-up state: the
+ * {@code attach} tool loads the agent JAR into the target JVM with the Attach API, and
+ * {@link #agentmain} (the JAR's {@code Agent-Class}) then retransforms the loaded
+ * {@code java.text.DigitList}.  The outcome is written to a report file, which the tool
+ * prints when the agent has finished:
+ * <pre>
+ * java -jar patch.jar attach &lt;pid&gt; [agent option]...
+ * </pre>
+ * The tool passes the location of the ASM library it runs with, which the agent adds to the
+ * target's class path if the target lacks it.  On Java 8, the Attach API is in the JDK's
+ * {@code tools.jar}, which the tool finds by itself.
+ */
+final class LiveAttach
+{
+    /** Outcomes reported by {@link DigitListPatch#attach}, in its first word(s). */
+    static final String PATCHED = "PATCHED";
+    static final String PENDING = "PENDING";
+    static final String ALREADY_PATCHED = "ALREADY PATCHED";
+    static final String NOT_NEEDED = "NOT NEEDED";
+    static final String FAILED = "FAILED";
+
+    private static final String VIRTUAL_MACHINE_CLASS = "com.sun.tools.attach.VirtualMachine";
+    private static final String ASM_PROBE_RESOURCE = "org/objectweb/asm/ClassVisitor.class";
+
+    private LiveAttach()
+    {
+        // static utility
+    }
+
+    // Java Agent entry point, when attached to a running JVM
+    public static void agentmain(String agentArgs, Instrumentation inst)
+    {
+        AgentOptions options = AgentOptions.parse(agentArgs);
+        String outcome;
+        try
+        {
+            // Before DigitListPatch is initialized, as it decides on the ASM version once
+            File asmJar = options.getFile(AgentOptions.ASM_JAR);
+            if (asmJar != null && ClassLoader.getSystemResource(ASM_PROBE_RESOURCE) == null)
+            {
+                inst.appendToSystemClassLoaderSearch(new JarFile(asmJar));
+            }
+            outcome = DigitListPatch.attach(options, inst);
+        }
+        catch (Throwable t)
+        {
+            DigitListPatch.error = t;
+            outcome = FAILED + ": " + t;
+        }
+        FlightEvents events = FlightEvents.getInstance();
+        if (events != null)
+        {
+            events.agentStarted("agentmain", agentArgs, outcome);
+        }
+
+        File report = options.getFile(AgentOptions.REPORT);
+        if (report == null)
+        {
+            System.err.println("DigitListPatch: " + outcome);
+            return;
+        }
+        try
+        {
+            Writer out = new OutputStreamWriter(new FileOutputStream(report), "UTF-8");
+            try
+            {
+                out.write(outcome);
+            }
+            finally
+            {
+                out.close();
+            }
+        }
+        catch (IOException e)
+        {
+            System.err.println("DigitListPatch: " + outcome + " (could not write " + report + ": " + e + ")");
+        }
+    }
+
+    /**
+     * The {@code attach} tool.
+     *
+     * @param args the process id of the target JVM, then any agent options
+     */
+    static void main(String ... args)
+    throws Exception
+    {
+        if (args.length == 0)
+        {
+            System.err.println("Usage: attach <pid> [agent option]...");
+            System.exit(2);
+        }
+        File agentJar = codeSource(LiveAttach.class);
+        if (agentJar == null || !agentJar.isFile())
+        {
+            System.err.println("The attach tool must run from the agent JAR, not " + agentJar);
+            System.exit(2);
+        }
+
+        File asmJar = codeSource(ClassLoader.getSystemClassLoader(), ASM_PROBE_RESOURCE);
+        if (asmJar != null && !asmJar.isFile())
+        {
+            asmJar = null;
+        }
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        if (!canPass(tempDir, "the directory of the report; choose another with -Djava.io.tmpdir")
+            || (asmJar != null && !canPass(asmJar, "the ASM library")))
+        {
+            System.exit(2);
+        }
+
+        File report = File.createTempFile("digitlist-attach", ".txt");
+        try
+        {
+            StringBuilder agentArgs = new StringBuilder(AgentOptions.REPORT).append('=')
+                .append(report.getAbsolutePath());
+            if (asmJar != null)
+            {
+                agentArgs.append(',').append(AgentOptions.ASM_JAR).append('=')
+                    .append(asmJar.getAbsolutePath());
+            }
+            for (int i = 1; i < args.length; i++)
+            {
+                agentArgs.append(',').append(args[i]);
+            }
+
+            loadAgent(args[0], agentJar.getAbsolutePath(), agentArgs.toString());
+
+            String outcome = readFirstLine(report);
+            if (outcome == null)
+            {
+                outcome = FAILED + ": no report from the agent; see the output of process " + args[0];
+            }
+            System.out.println(outcome);
+            System.exit(outcome.startsWith(FAILED) ? 1 : 0);
+        }
+        finally
+        {
+            report.delete();
+        }
+    }
+
+    /**
+     * Agent options are separated by commas, with no way to quote one, so a path passed in an
+     * option must not contain any.
+     *
+     * @return whether the path can be passed; if not, the reason has been reported
+     */
+    private static boolean canPass(File path, String description)
+    {
+        if (path.getAbsolutePath().indexOf(',') < 0)
+        {
+            return true;
+        }
+        System.err.println("The attach tool cannot pass " + path.getAbsolutePath()
+            + " (" + description + ") to the agent, whose options are separated by commas");
+        return false;
+    }
+
+    private static void loadAgent(String pid, String agentJar, String agentArgs)
+    throws Exception
+    {
+        Class<?> vmClass = attachApi();
+        try
+        {
+            Object vm = vmClass.getMethod("attach", String.class).invoke(null, pid);
+            try
+            {
+                vmClass.getMethod("loadAgent", String.class, String.class)
+                    .invoke(vm, agentJar, agentArgs);
+            }
+            finally
+            {
+                vmClass.getMethod("detach").invoke(vm);
+            }
+        }
+        catch (InvocationTargetException e)
+        {
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        }
+    }
+
+    /** Finds the Attach API, which is only on the class path of a JDK by default from Java 9. */
+    private static Class<?> attachApi()
+    throws Exception
+    {
+        try
+        {
+            return Class.forName(VIRTUAL_MACHINE_CLASS);
+        }
+        catch (ClassNotFoundException notOnClassPath)
+        {
+            File toolsJar = new File(System.getProperty("java.home"), "../lib/tools.jar");
+            if (!toolsJar.isFile())
+            {
+                throw new IllegalStateException("The Attach API requires a JDK; not found in "
+                    + System.getProperty("java.home"));
+            }
+            ClassLoader loader = new URLClassLoader(new URL[] { toolsJar.toURI().toURL() });
+            return Class.forName(VIRTUAL_MACHINE_CLASS, true, loader);
+        }
+    }
+
+    private static File codeSource(Class<?> clazz)
+    throws URISyntaxException
+    {
+        URL location = clazz.getProtectionDomain().getCodeSource().getLocation();
+        return location == null ? null : new File(location.toURI());
+    }
+
+    /** @return the JAR containing the resource, or {@code null} if not found in a JAR */
+    private static File codeSource(ClassLoader loader, String resource)
+    throws IOException, URISyntaxException
+    {
+        URL url = loader.getResource(resource);
+        if (url == null || !"jar".equals(url.getProtocol()))
+        {
+            return null;
+        }
+        String path = url.getPath(); // file:/path/asm.jar!/org/...
+        int separator = path.indexOf("!/");
+        return separator < 0 ? null : new File(new URL(path.substring(0, separator)).toURI());
+    }
+
+    private static String readFirstLine(File file)
+    throws IOException
+    {
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+        try
+        {
+            return in.readLine();
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.zip.CRC32;
+
+/**
+ * A directory of patched class files, so that a JVM starting on a JDK build that was already
+ * seen does not need to run ASM again.  Entries are keyed by a hash of the <em>original</em>
+ * class bytes (as handed to the transformer) combined with the bytecode of the patch template
+ * and the {@linkplain DigitListPatch#REWRITE_VERSION version of the rewrite}, so that upgrading
+ * the agent never reuses an entry produced by an older agent, and with the version of ASM that
+ * wrote it (ASM 4 lowers the class file version to 51).
+ * <p>
+ * The directory may be shared by any number of JVMs starting at the same time.  Each entry is
+ * written completely to a temporary file in the same directory and then renamed into place, so
+ * readers see either no entry or a complete one.  Every entry also carries a checksum; an entry
+ * that fails validation is treated as a cache miss and removed.  No I/O problem in the cache is
+ * ever allowed to affect the patch itself.
+ * </p>
+ * An entry can also record that the class was examined and found <em>not</em> to require the
+ * patch, which avoids the ASM scan on JDK builds that never needed it.
+ */
+final class PatchCache
+{
+    /** Returned by {@link #lookup} when the cached outcome is "leave the class unchanged". */
+    static final byte[] UNPATCHED = new byte[0];
+
+    private static final int MAGIC = 0x444C5043; // "DLPC"
+    private static final int FORMAT_VERSION = 1;
+    private static final int NOT_PATCHED_LENGTH = -1;
+    private static final int MAX_ENTRY_LENGTH = 16 * 1024 * 1024;
+    private static final String SUFFIX = ".patch";
+
+    private final File dir;
+    private volatile boolean warned;
+
+    PatchCache(File dir)
+    {
+        this.dir = dir;
+    }
+
+    /**
+     * The key of an entry in the {@link PatchCatalogue} built into the agent JAR.
+     *
+     * @param classfileBytes the original bytecode of the target class; not modified
+     * @param variant identifies an optional form of the patch, or {@code null} for the
+     *     standard patch (the only form in the catalogue)
+     * @return the name of the catalogue entry for the given class bytes
+     */
+    static String keyFor(byte[] classfileBytes, String variant)
+    {
+        return keyFor(classfileBytes, variant, DigitListPatch.REWRITE_VERSION);
+    }
+
+    /** As {@link #keyFor(byte[], String)}, for the given version of the rewrite. */
+    static String keyFor(byte[] classfileBytes, String variant, int rewriteVersion)
+    {
+        return keyFor(classfileBytes, variant, new int[] { rewriteVersion });
+    }
+
+    /**
+     * The key of an entry in this cache, which, unlike the catalogue (built with one ASM, and
+     * looked up before ASM is loaded), may hold bytecode written by any version of ASM.
+     *
+     * @param asmVersion {@code DigitListPatch.Rewriter.ASM_VERSION}
+     */
+    static String keyFor(byte[] classfileBytes, String variant, int rewriteVersion, int asmVersion)
+    {
+        return keyFor(classfileBytes, variant, new int[] { rewriteVersion, asmVersion });
+    }
+
+    private static String keyFor(byte[] classfileBytes, String variant, int[] versions)
+    {
+        MessageDigest sha;
+        try
+        {
+            sha = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new IllegalStateException(e); // every Java 6+ platform must support SHA-256
+        }
+        sha.update(classfileBytes);
+        sha.update(DigitListPatch.templateBytecode());
+        for (int version : versions)
+        {
+            sha.update(new byte[] {
+                (byte) (version >>> 24), (byte) (version >>> 16), (byte) (version >>> 8),
+                (byte) version });
+        }
+        if (variant != null)
+        {
+            sha.update((byte) 0);
+            for (int i = 0; i < variant.length(); i++)
+            {
+                sha.update((byte) variant.charAt(i)); // variant names are ASCII
+            }
+        }
+        return toHex(sha.digest());
+    }
+
+    /**
+     * @param key as returned by {@link #keyFor(byte[], String, int, int)}
+     * @return the cached patched bytecode; {@link #UNPATCHED} if the class was previously found
+     *     not to need patching; or {@code null} if there is no usable entry
+     */
+    byte[] lookup(String key)
+    {
+        File entry = new File(dir, key + SUFFIX);
+        if (!entry.isFile())
+        {
+            return null;
+        }
+        try
+        {
+            byte[] contents = read(entry);
+            if (contents != null)
+            {
+                return contents;
+            }
+            // else: corrupt or truncated by something other than this class; replace it
+        }
+        catch (IOException ioe)
+        {
+            warn("Could not read patch cache entry " + entry, ioe);
+            return null;
+        }
+        if (!entry.delete() && entry.exists())
+        {
+            warn("Could not remove corrupt patch cache entry " + entry, null);
+        }
+        return null;
+    }
+
+    /**
+     * Records an outcome of the patch.  Failures are reported but otherwise ignored.
+     *
+     * @param key as returned by {@link #keyFor(byte[], String, int, int)}
+     * @param patched the patched bytecode, or {@code null} if the class was left unchanged
+     */
+    void store(String key, byte[] patched)
+    {
+        File tempFile = null;
+        try
+        {
+            if (!dir.isDirectory() && !dir.mkdirs() && !dir.isDirectory())
+            {
+                throw new IOException("Cannot create directory " + dir);
+            }
+            tempFile = File.createTempFile(key + ".", ".tmp", dir);
+            write(tempFile, patched);
+
+            File entry = new File(dir, key + SUFFIX);
+            if (tempFile.renameTo(entry))
+            {
+                tempFile = null;
+            }
+            // else: most likely another JVM won the race (or the platform cannot rename over an
+            // existing file); either way an equivalent entry is already in place.
+        }
+        catch (IOException ioe)
+        {
+            warn("Could not write patch cache entry in " + dir, ioe);
+        }
+        finally
+        {
+            if (tempFile != null)
+            {
+                tempFile.delete();
+            }
+        }
+    }
+
+    private static void write(File file, byte[] patched)
+    throws IOException
+    {
+        int length = patched == null ? NOT_PATCHED_LENGTH : patched.length;
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(length + 24);
+        DataOutputStream data = new DataOutputStream(buffer);
+        data.writeInt(MAGIC);
+        data.writeInt(FORMAT_VERSION);
+        data.writeInt(length);
+        if (patched != null)
+        {
+            data.write(patched);
+        }
+        data.writeLong(checksum(length, patched));
+        data.flush();
+
+        FileOutputStream out = new FileOutputStream(file);
+        try
+        {
+            buffer.writeTo(out);
+            out.getFD().sync(); // the rename must not become visible before the contents
+        }
+        finally
+        {
+            out.close();
+        }
+    }
+
+    /** @return the entry contents, or {@code null} if the entry is not valid */
+    private static byte[] read(File file)
+    throws IOException
+    {
+        long fileLength = file.length();
+        if (fileLength < 20 || fileLength > MAX_ENTRY_LENGTH)
+        {
+            return null;
+        }
+        DataInputStream data = new DataInputStream(new FileInputStream(file));
+        try
+        {
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION)
+            {
+                return null;
+            }
+            int length = data.readInt();
+            if (length == NOT_PATCHED_LENGTH)
+            {
+                return data.readLong() == checksum(length, null) ? UNPATCHED : null;
+            }
+            if (length < 8 || length != fileLength - 20)
+            {
+                return null;
+            }
+            byte[] patched = new byte[length];
+            data.readFully(patched);
+            if (data.readLong() != checksum(length, patched) || !isClassFile(patched))
+            {
+                return null;
+            }
+            return patched;
+        }
+        catch (EOFException truncated)
+        {
+            return null;
+        }
+        finally
+        {
+            data.close();
+        }
+    }
+
+    private static long checksum(int length, byte[] patched)
+    {
+        CRC32 crc = new CRC32();
+        crc.update(length >>> 24);
+        crc.update(length >>> 16);
+        crc.update(length >>> 8);
+        crc.update(length);
+        if (patched != null)
+        {
+            crc.update(patched);
+        }
+        return crc.getValue();
+    }
+
+    static boolean isClassFile(byte[] bytes)
+    {
+        return (bytes[0] & 0xFF) == 0xCA && (bytes[1] & 0xFF) == 0xFE
+            && (bytes[2] & 0xFF) == 0xBA && (bytes[3] & 0xFF) == 0xBE;
+    }
+
+    private static String toHex(byte[] bytes)
+    {
+        char[] hex = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++)
+        {
+            hex[2 * i] = Character.forDigit((bytes[i] >> 4) & 0xF, 16);
+            hex[2 * i + 1] = Character.forDigit(bytes[i] & 0xF, 16);
+        }
+        return new String(hex);
+    }
+
+    private void warn(String message, Throwable cause)
+    {
+        if (!warned) // once is enough; the cache is an optimization only
+        {
+            warned = true;
+            System.err.println(message + (cause != null ? ": " + cause : ""));
+        }
+    }
+}
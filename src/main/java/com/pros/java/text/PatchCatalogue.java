@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarFile;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+
+/**
+ * A table of precomputed patch outcomes for known JDK builds, embedded in the agent JAR at
+ * build time.  When the original {@code java.text.DigitList} bytecode of the running JVM is
+ * listed, the agent only needs to hash the class bytes and swap them; ASM is neither loaded
+ * nor required on the classpath.  Entries use the same keys as the {@link PatchCache}.
+ * <p>
+ * The catalogue is created by running the agent's own rewrite over the {@code rt.jar} of each
+ * JDK build of interest (see the {@code patchCatalogue} task in {@code build.gradle}):
+ * <pre>
+ * java -cp patch.jar:asm.jar com.pros.java.text.DigitListPatch catalogue &lt;output&gt; &lt;rt.jar or JDK home&gt;...
+ * </pre>
+ */
+final class PatchCatalogue
+{
+    static final String RESOURCE_NAME = "com/pros/java/text/DigitList.catalogue";
+
+    private static final int MAGIC = 0x444C504B; // "DLPK"
+    private static final int FORMAT_VERSION = 1;
+    private static final int NOT_PATCHED_LENGTH = -1;
+    private static final String TARGET_CLASS_ENTRY = "java/text/DigitList.class";
+
+    private PatchCatalogue()
+    {
+        // static utility
+    }
+
+    /** @return whether the JAR was built with a catalogue */
+    static boolean isAvailable()
+    {
+        ClassLoader loader = PatchCatalogue.class.getClassLoader();
+        return loader != null && loader.getResource(RESOURCE_NAME) != null;
+    }
+
+    /**
+     * @param key as returned by {@link PatchCache#keyFor(byte[], String)}
+     * @return the precomputed patched bytecode; {@link PatchCache#UNPATCHED} if the listed JDK
+     *     build does not need the patch; or {@code null} if the build is not listed, or if the
+     *     agent JAR was built without a catalogue
+     */
+    static byte[] lookup(String key)
+    {
+        if (!isAvailable())
+        {
+            return null;
+        }
+        ClassLoader loader = PatchCatalogue.class.getClassLoader();
+        try
+        {
+            byte[] compressed = DigitListPatch.extractResourceBytes(loader, RESOURCE_NAME);
+            DataInputStream data = new DataInputStream(
+                new GZIPInputStream(new ByteArrayInputStream(compressed)));
+            if (data.readInt() != MAGIC || data.readInt() != FORMAT_VERSION)
+            {
+                return null; // written by an incompatible version of the build
+            }
+            for (int remaining = data.readInt(); remaining > 0; remaining--)
+            {
+                String entryKey = data.readUTF();
+                int length = data.readInt();
+                if (!key.equals(entryKey))
+                {
+                    if (length > 0 && data.skipBytes(length) != length)
+                    {
+                        throw new EOFException();
+                    }
+                    continue;
+                }
+                if (length == NOT_PATCHED_LENGTH)
+                {
+                    return PatchCache.UNPATCHED;
+                }
+                byte[] patched = new byte[length];
+                data.readFully(patched);
+                return PatchCache.isClassFile(patched) ? patched : null;
+            }
+        }
+        catch (IOException ioe)
+        {
+            DigitListPatch.error = ioe;
+            System.err.println("Ignoring unreadable patch catalogue: " + ioe);
+        }
+        return null;
+    }
+
+    /**
+     * Build-time entry point: applies the patch to the {@code java.text.DigitList} class of
+     * each given JDK, and writes the outcomes to a new catalogue file.
+     *
+     * @param args the output file, followed by one or more {@code rt.jar} files or JDK/JRE
+     *     home directories
+     */
+    static void build(String ... args)
+    throws IOException
+    {
+        if (args.length < 2)
+        {
+            throw new IllegalArgumentException(
+                "Usage: catalogue <output file> <rt.jar or JDK home>...");
+        }
+
+        Map<String, byte[]> outcomes = new LinkedHashMap<String, byte[]>();
+        for (int i = 1; i < args.length; i++)
+        {
+            File rtJar = locateRuntimeJar(new File(args[i]));
+            byte[] original = readTargetClass(rtJar);
+            String key = PatchCache.keyFor(original, null);
+            if (outcomes.containsKey(key))
+            {
+                System.out.printf("%s: same DigitList as an earlier JDK build%n", rtJar);
+                continue;
+            }
+
+            byte[] patched =
+                DigitListPatch.Rewriter.rewrite(original.clone(), null, false, false, false);
+            outcomes.put(key, patched);
+            System.out.printf("%s: %s%n", rtJar, patched != null ? "PATCHED" : "no patch necessary");
+        }
+
+        File output = new File(args[0]);
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs())
+        {
+            throw new IOException("Cannot create directory " + parent);
+        }
+        DataOutputStream data = new DataOutputStream(new GZIPOutputStream(
+            new BufferedOutputStream(new FileOutputStream(output))));
+        try
+        {
+            data.writeInt(MAGIC);
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(outcomes.size());
+            for (Map.Entry<String, byte[]> outcome : outcomes.entrySet())
+            {
+                byte[] patched = outcome.getValue();
+                data.writeUTF(outcome.getKey());
+                data.writeInt(patched != null ? patched.length : NOT_PATCHED_LENGTH);
+                if (patched != null)
+                {
+                    data.write(patched);
+                }
+            }
+        }
+        finally
+        {
+            data.close();
+        }
+        System.out.printf("Wrote %d catalogue entries to %s%n", outcomes.size(), output);
+    }
+
+    private static File locateRuntimeJar(File file)
+    {
+        if (file.isDirectory())
+        {
+            File[] candidates = { new File(file, "jre/lib/rt.jar"), new File(file, "lib/rt.jar") };
+            for (File candidate : candidates)
+            {
+                if (candidate.isFile())
+                {
+                    return candidate;
+                }
+            }
+        }
+        return file;
+    }
+
+    private static byte[] readTargetClass(File rtJar)
+    throws IOException
+    {
+        JarFile jar = new JarFile(rtJar);
+        try
+        {
+            ZipEntry entry = jar.getEntry(TARGET_CLASS_ENTRY);
+            if (entry == null)
+            {
+                throw new IOException(rtJar + " does not contain " + TARGET_CLASS_ENTRY);
+            }
+            return DigitListPatch.readFully(jar.getInputStream(entry));
+        }
+        finally
+        {
+            jar.close();
+        }
+    }
+}
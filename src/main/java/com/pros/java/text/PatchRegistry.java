@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The {@link ClassPatch}es that one transformer applies, by the internal name of their target
+ * class.  Lookups are a single hash probe that does not lock, since the JVM calls the
+ * transformer for every class it loads, from any thread.
+ * <p>
+ * Each patch is removed once it has been applied (the target classes are only loaded once),
+ * so the transformer can remove itself when the registry becomes empty.
+ * </p>
+ */
+final class PatchRegistry
+{
+    private final ConcurrentMap<String, ClassPatch> patches =
+        new ConcurrentHashMap<String, ClassPatch>();
+
+    /**
+     * @throws IllegalArgumentException if another patch already targets the same class
+     */
+    void register(ClassPatch patch)
+    {
+        String className = patch.getTargetClassName();
+        if (patches.putIfAbsent(className, patch) != null)
+        {
+            throw new IllegalArgumentException("More than one patch for " + className);
+        }
+    }
+
+    /**
+     * @param className internal name of the class being loaded, may be {@code null}
+     * @return the patch for that class, or {@code null} if there is none
+     */
+    ClassPatch get(String className)
+    {
+        return className == null ? null : patches.get(className);
+    }
+
+    /** @return whether the patch was still registered */
+    boolean remove(ClassPatch patch)
+    {
+        return patches.remove(patch.getTargetClassName(), patch);
+    }
+
+    /** Removes the patches that the running JVM does not need. */
+    void retainApplicable(String javaVersion)
+    {
+        for (Iterator<ClassPatch> it = patches.values().iterator(); it.hasNext();)
+        {
+            if (!it.next().mayApply(javaVersion))
+            {
+                it.remove();
+            }
+        }
+    }
+
+    boolean isEmpty()
+    {
+        return patches.isEmpty();
+    }
+
+    int size()
+    {
+        return patches.size();
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.pros.java.text;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Field;
+import java.util.concurrent.atomic.AtomicLongArray;
+import javax.management.ObjectName;
+
+/**
+ * Publishes the state of the agent and, with the counting variant of the patch, the rounding
+ * decision counters kept inside the patched {@code java.text.DigitList}; or, with the shadow
+ * comparing variant, the state of the {@link ShadowCompareLog}.  The counters live in
+ * a static field injected into that class (see {@link DigitList#__patched__counters}): classes
+ * loaded by the boot class loader cannot refer to agent classes, so this class looks the field
+ * up by reflection instead.  Reading sums the stripes, and so is not an atomic snapshot.
+ */
+public final class PatchStatistics implements PatchStatisticsMBean
+{
+    static final String OBJECT_NAME = "com.pros.java.text:type=DigitListPatch";
+
+    private volatile AtomicLongArray counters; // found on first use
+
+    /** Registers an instance in the platform MBean server; failures are only reported. */
+    static void register()
+    {
+        try
+        {
+            ManagementFactory.getPlatformMBeanServer()
+                .registerMBean(new PatchStatistics(), new ObjectName(OBJECT_NAME));
+        }
+        catch (Exception e)
+        {
+            System.err.println("Could not register MBean " + OBJECT_NAME + ": " + e);
+        }
+    }
+
+    @Override
+    public boolean isInstalled()
+    {
+        return DigitListPatch.installed;
+    }
+
+    @Override
+    public boolean isApplied()
+    {
+        return DigitListPatch.applied;
+    }
+
+    @Override
+    public boolean isTransformerRegistered()
+    {
+        return DigitListPatch.registered;
+    }
+
+    @Override
+    public long getTransformCalls()
+    {
+        return DigitListPatch.transformCalls.get();
+    }
+
+    @Override
+    public String getLastError()
+    {
+        Throwable error = DigitListPatch.error;
+        return error == null ? null : error.toString();
+    }
+
+    @Override
+    public boolean isCounting()
+    {
+        return counters() != null;
+    }
+
+    @Override
+    public int getShadowSampleInterval()
+    {
+        ShadowCompareLog log = ShadowCompareLog.getInstance();
+        return log == null ? 0 : log.getSampleInterval();
+    }
+
+    @Override
+    public void setShadowSampleInterval(int interval)
+    {
+        ShadowCompareLog log = ShadowCompareLog.getInstance();
+        if (log == null)
+        {
+            throw new IllegalStateException("Shadow comparison is not enabled (agent option "
+                + AgentOptions.SHADOW_SAMPLE + ")");
+        }
+        log.setSampleInterval(interval);
+    }
+
+    @Override
+    public long getShadowDifferences()
+    {
+        ShadowCompareLog log = ShadowCompareLog.getInstance();
+        return log == null ? 0 : log.getLogged();
+    }
+
+    @Override
+    public long getShadowDropped()
+    {
+        ShadowCompareLog log = ShadowCompareLog.getInstance();
+        return log == null ? 0 : log.getDropped();
+    }
+
+    @Override
+    public long getDecisions()
+    {
+        return sum(DigitList.CALLS);
+    }
+
+    @Override
+    public long getAboveFive()
+    {
+        return sum(DigitList.ABOVE_FIVE);
+    }
+
+    @Override
+    public long getTiesWithMoreDigits()
+    {
+        return sum(DigitList.TIE_MORE_DIGITS);
+    }
+
+    @Override
+    public long getTiesExact()
+    {
+        return sum(DigitList.TIE_EXACT);
+    }
+
+    @Override
+    public long getTiesTruncated()
+    {
+        return sum(DigitList.TIE_TRUNCATED);
+    }
+
+    @Override
+    public long getTiesAlreadyRounded()
+    {
+        return sum(DigitList.TIE_ALREADY_ROUNDED);
+    }
+
+    @Override
+    public long getDifferentFromOriginal()
+    {
+        return sum(DigitList.DIFFERS);
+    }
+
+    /** @return the total of one counter over every stripe, or zero if not counting */
+    long sum(int counter)
+    {
+        return sum(counters(), counter);
+    }
+
+    static long sum(AtomicLongArray counters, int counter)
+    {
+        long total = 0;
+        if (counters != null)
+        {
+            // the first stripe is padding
+            for (int i = DigitList.STRIPE_WIDTH + counter; i < counters.length();
+                i += DigitList.STRIPE_WIDTH)
+            {
+                total += counters.get(i);
+            }
+        }
+        return total;
+    }
+
+    /**
+     * @param name a static field injected into the target class by the patch
+     * @return the field, accessible
+     * @throws NoSuchFieldException if the patch variant in place does not have the field
+     */
+    static Field targetField(String name)
+    throws ClassNotFoundException, NoSuchFieldException
+    {
+        Field field = Class.forName("java.text.DigitList").getDeclaredField(name);
+        field.setAccessible(true);
+        return field;
+    }
+
+    private AtomicLongArray counters()
+    {
+        AtomicLongArray found = counters;
+        if (found == null && DigitListPatch.applied)
+        {
+            try
+            {
+                counters = found = (AtomicLongArray) targetField("__patched__counters").get(null);
+            }
+            catch (NoSuchFieldException plainPatch)
+            {
+                // the patch was applied without the counters
+            }
+            catch (Exception e)
+            {
+                DigitListPatch.error = e;
+            }
+        }
+        return found;
+    }
+}
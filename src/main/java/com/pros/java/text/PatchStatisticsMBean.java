@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.pros.java.text;
+
+/**
+ * Management interface of the agent, registered in the platform MBean server as
+ * {@value PatchStatistics#OBJECT_NAME} when the agent's {@code counters} or
+ * {@code shadowSample} option is enabled.
+ * The decision counters are totals since the JVM started.
+ */
+public interface PatchStatisticsMBean
+{
+    /** @return whether the agent was started with the JVM */
+    boolean isInstalled();
+
+    /** @return whether the bytecode of {@code java.text.DigitList} was patched */
+    boolean isApplied();
+
+    /** @return whether the transformer is still registered, waiting for the target class */
+    boolean isTransformerRegistered();
+
+    /** @return the number of classes the transformer was called for */
+    long getTransformCalls();
+
+    /** @return the last exception encountered while patching, or {@code null} */
+    String getLastError();
+
+    /** @return the shadow comparison sampling interval, zero if off or not enabled */
+    int getShadowSampleInterval();
+
+    /**
+     * Changes the shadow comparison sampling interval at run time.
+     *
+     * @param interval compare one in this many decisions; zero turns sampling off
+     * @throws IllegalStateException if the shadow comparing variant of the patch is not enabled
+     */
+    void setShadowSampleInterval(int interval);
+
+    /** @return the number of differences between patched and original code logged so far */
+    long getShadowDifferences();
+
+    /** @return the number of differences lost because the log could not keep up */
+    long getShadowDropped();
+
+    /** @return whether the counting variant of the patch is in place */
+    boolean isCounting();
+
+    /** @return the number of {@code HALF_UP} rounding decisions made by the patched code */
+    long getDecisions();
+
+    /** @return decisions where the digit at the rounding position is above 5 */
+    long getAboveFive();
+
+    /** @return decisions on a 5 that is followed by more digits */
+    long getTiesWithMoreDigits();
+
+    /** @return decisions on a final 5, where the digits are exactly the binary value */
+    long getTiesExact();
+
+    /** @return decisions on a final 5, where {@code FloatingDecimal} truncated the digits */
+    long getTiesTruncated();
+
+    /** @return decisions on a final 5, where {@code FloatingDecimal} rounded the digits up */
+    long getTiesAlreadyRounded();
+
+    /** @return decisions where the patched code rounded up, and the original code would not */
+    long getDifferentFromOriginal();
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The pieces of the runtime that have better implementations on newer JVMs than Java 6
+ * offers.  This class is the Java 6 implementation, and the fallback; {@code Java8Platform},
+ * which is compiled separately for Java 8 (from {@code src/java8}) and packaged in the same
+ * JAR, replaces it on Java 8 and later.  The choice is made once, when first needed, so the
+ * agent still loads and runs on Java 6 and 7, where that class cannot even be loaded.
+ * <p>
+ * Setting the system property {@value #BASELINE_PROPERTY} to {@code true} keeps the Java 6
+ * implementation on every JVM, so that both can be tested on one.
+ * </p>
+ */
+class Platform
+{
+    /** System property that, set to {@code true}, selects this implementation everywhere. */
+    static final String BASELINE_PROPERTY = "com.pros.java.text.Platform.baseline";
+
+    private static final String JAVA_8_PLATFORM = "com.pros.java.text.Java8Platform";
+
+    private static final Platform INSTANCE = load();
+
+    private volatile ExecutorService sharedPool;
+
+    /** @return the implementation for this JVM */
+    static Platform get()
+    {
+        return INSTANCE;
+    }
+
+    private static Platform load()
+    {
+        String specification = System.getProperty("java.specification.version", "");
+        if (!Boolean.getBoolean(BASELINE_PROPERTY)
+            && !"1.6".equals(specification) && !"1.7".equals(specification))
+        {
+            try
+            {
+                return (Platform) Class.forName(JAVA_8_PLATFORM).newInstance();
+            }
+            catch (Exception e)
+            {
+                // not packaged: fall through
+            }
+            catch (LinkageError e)
+            {
+                // a JVM that reports an unusual version and cannot load Java 8 bytecode
+            }
+        }
+        return new Platform();
+    }
+
+    /** @return a short description, for diagnostics */
+    String getName()
+    {
+        return "Java 6 baseline";
+    }
+
+    /** @return a new counter, for many threads to increment */
+    Counter newCounter()
+    {
+        return new StripedCounter();
+    }
+
+    /** @return the number of tasks that {@link #sharedExecutor()} runs at once */
+    int getSharedParallelism()
+    {
+        return Runtime.getRuntime().availableProcessors() - 1;
+    }
+
+    /**
+     * @return an executor of daemon threads for short, CPU-bound tasks, shared by the whole
+     *     JVM; created when first requested
+     */
+    Executor sharedExecutor()
+    {
+        ExecutorService pool = sharedPool;
+        if (pool == null)
+        {
+            synchronized (this)
+            {
+                pool = sharedPool;
+                if (pool == null)
+                {
+                    sharedPool = pool = Executors.newFixedThreadPool(
+                        Math.max(1, getSharedParallelism()), new ThreadFactory()
+                        {
+                            private final AtomicInteger count = new AtomicInteger();
+
+                            @Override
+                            public Thread newThread(Runnable task)
+                            {
+                                Thread thread = new Thread(task, "Platform-shared-" + count.incrementAndGet());
+                                thread.setDaemon(true);
+                                return thread;
+                            }
+                        });
+                }
+            }
+        }
+        return pool;
+    }
+
+    /** A sum that many threads add to, and that is read rarely. */
+    abstract static class Counter
+    {
+        abstract void increment();
+
+        abstract long sum();
+    }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadInfo;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures how {@code DecimalFormat} {@code HALF_UP} throughput scales with the number of
+ * threads, and checks every result: the patched {@code java.text.DigitList} is shared by every
+ * formatting thread of the JVM.  Run it with the agent, like the self test:
+ * <pre>
+ * java -javaagent:patch.jar -jar patch.jar stress maxThreads=16 seconds=5 efficiency=0.6
+ * </pre>
+ * Each step runs a number of threads, 1, 2, 4... up to {@code maxThreads}, every one with a
+ * format of its own and a table of values near {@code HALF_UP} ties whose expected text comes
+ * from the {@code BigDecimal} reference ({@link HalfUpRounding#rounded}).  After a warm-up, each
+ * step reports operations per second, the latency percentiles of a sample of operations, and
+ * how often the threads blocked on a monitor.  With {@code virtual=true} the steps are repeated
+ * on virtual threads, where the JVM has them (Java 21 and later).
+ * <p>
+ * The run fails if any result is wrong, or if a step of no more threads than processors
+ * reaches less than {@code efficiency} times the throughput of one thread per thread.
+ * </p>
+ */
+final class ScalingStress
+{
+    /** Number of values in each thread's table. */
+    private static final int VALUES = 4096;
+
+    /** One operation in this many (a power of two) is timed. */
+    private static final int SAMPLE_INTERVAL = 16;
+
+    /** Latency samples kept per thread; later samples overwrite the oldest. */
+    private static final int SAMPLES = 1 << 14;
+
+    /** Wrong results that are printed in full. */
+    private static final int MAX_REPORTED = 10;
+
+    private static final long[] POW10 = HalfUpRounding.POW10;
+
+    // configuration; defaults can be overridden by name=value arguments
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    double seconds = 2;
+    double warmup = 1;
+    int scale = 3;
+    double efficiency = 0.5;
+    boolean virtual;
+    long seed = 20140624L;
+
+    private final DecimalFormat subject;
+    private final AtomicLong wrong = new AtomicLong();
+    private final List<String> reported = new ArrayList<String>();
+
+    /** @param subject the format under test; it is cloned for each thread */
+    ScalingStress(DecimalFormat subject)
+    {
+        this.subject = subject;
+    }
+
+    public static void main(String ... args)
+    throws Exception
+    {
+        Map<String, String> options = new HashMap<String, String>();
+        for (String arg : args)
+        {
+            int eq = arg.indexOf('=');
+            options.put(eq < 0 ? arg : arg.substring(0, eq), eq < 0 ? "" : arg.substring(eq + 1));
+        }
+        ScalingStress stress = new ScalingStress(DifferentialVerifier.halfUpFormat());
+        try
+        {
+            stress.maxThreads = Integer.parseInt(option(options, "maxThreads", stress.maxThreads));
+            stress.seconds = Double.parseDouble(option(options, "seconds", stress.seconds));
+            stress.warmup = Double.parseDouble(option(options, "warmup", stress.warmup));
+            stress.scale = Integer.parseInt(option(options, "scale", stress.scale));
+            stress.efficiency = Double.parseDouble(option(options, "efficiency", stress.efficiency));
+            stress.virtual = Boolean.parseBoolean(option(options, "virtual", stress.virtual));
+            stress.seed = Long.parseLong(option(options, "seed", stress.seed));
+        }
+        catch (NumberFormatException e)
+        {
+            options.put(e.getMessage(), null);
+        }
+        if (!options.isEmpty())
+        {
+            System.err.println("Invalid option(s): " + options.keySet());
+            System.err.println("Options: maxThreads=<count> seconds=2 warmup=1 scale=3"
+                + " efficiency=0.5 virtual=false seed=<long>");
+            System.exit(2);
+        }
+        System.out.printf("Agent installed: %s, patch applied: %s, Java %s%n",
+            DigitListPatch.installed ? "yes" : "NO", DigitListPatch.applied ? "yes" : "NO",
+            System.getProperty("java.version"));
+        long failures = stress.run(System.out);
+        System.exit(failures == 0 ? 0 : 1);
+    }
+
+    /** Removes and returns an option, or returns the default if it was not given. */
+    private static String option(Map<String, String> options, String name, Object defaultValue)
+    {
+        String value = options.remove(name);
+        return value == null ? String.valueOf(defaultValue) : value;
+    }
+
+    /**
+     * Runs every step, writing the results to {@code summary}.
+     *
+     * @return the number of wrong results plus the number of steps below the efficiency
+     */
+    long run(PrintStream summary)
+    throws InterruptedException
+    {
+        if (maxThreads <= 0 || seconds <= 0 || warmup < 0 || scale < 0 || scale >= POW10.length)
+        {
+            throw new IllegalArgumentException("Invalid configuration");
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        summary.printf("Formatting HALF_UP at scale %d: %.1f s per step after %.1f s warm-up,"
+            + " %d processor(s)%n", scale, seconds, warmup, processors);
+
+        long belowEfficiency = runSteps(summary, "platform", null, processors);
+        if (virtual)
+        {
+            ThreadFactory factory = virtualThreadFactory();
+            if (factory == null)
+            {
+                summary.println("Virtual threads are not available on this JVM");
+            }
+            else
+            {
+                belowEfficiency += runSteps(summary, "virtual", factory, processors);
+            }
+        }
+
+        for (String failure : reported)
+        {
+            summary.println(failure);
+        }
+        summary.printf("Wrong results: %d, steps below %.0f%% efficiency: %d%n",
+            wrong.get(), efficiency * 100, belowEfficiency);
+        return wrong.get() + belowEfficiency;
+    }
+
+    /** @return the number of steps below the efficiency threshold */
+    private long runSteps(PrintStream summary, String kind, ThreadFactory factory, int processors)
+    throws InterruptedException
+    {
+        summary.printf("%8s threads %14s %12s %11s %8s %8s %8s %10s %8s %8s%n", kind, "ops/s",
+            "per thread", "efficiency", "p50 ns", "p99 ns", "p99.9 ns", "max ns", "blocked", "wrong");
+        double single = 0;
+        long belowEfficiency = 0;
+        for (int threads = 1; ; threads = Math.min(threads * 2, maxThreads))
+        {
+            long wrongBefore = wrong.get();
+            Worker[] workers = runStep(threads, factory);
+            long operations = 0;
+            long blocked = 0;
+            long[] latencies = new long[0];
+            for (Worker worker : workers)
+            {
+                operations += worker.measured;
+                blocked += Math.max(0, worker.blocked);
+                int count = (int) Math.min(worker.sampleCount, SAMPLES);
+                long[] merged = Arrays.copyOf(latencies, latencies.length + count);
+                System.arraycopy(worker.samples, 0, merged, latencies.length, count);
+                latencies = merged;
+            }
+            Arrays.sort(latencies);
+
+            double perSecond = operations / seconds;
+            if (threads == 1)
+            {
+                single = perSecond;
+            }
+            double stepEfficiency = perSecond / threads / single;
+            boolean checked = threads <= processors;
+            if (checked && stepEfficiency < efficiency)
+            {
+                belowEfficiency++;
+            }
+            summary.printf("%16d %,14.0f %,12.0f %9.0f%%%s %8d %8d %8d %,10d %8d %8d%n", threads,
+                perSecond, perSecond / threads, stepEfficiency * 100,
+                !checked ? " " : stepEfficiency < efficiency ? "!" : " ",
+                percentile(latencies, 0.5), percentile(latencies, 0.99),
+                percentile(latencies, 0.999), percentile(latencies, 1),
+                blocked, wrong.get() - wrongBefore);
+            if (threads == maxThreads)
+            {
+                return belowEfficiency;
+            }
+        }
+    }
+
+    private static long percentile(long[] sorted, double fraction)
+    {
+        if (sorted.length == 0)
+        {
+            return 0;
+        }
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * fraction))];
+    }
+
+    /** Runs one step of {@code threads} workers, and returns them when they have stopped. */
+    private Worker[] runStep(int threads, ThreadFactory factory)
+    throws InterruptedException
+    {
+        Worker[] workers = new Worker[threads];
+        Thread[] started = new Thread[threads];
+        for (int i = 0; i < threads; i++)
+        {
+            workers[i] = new Worker(new Random(seed + i * 0x9E3779B97F4A7C15L));
+            started[i] = factory != null ? factory.newThread(workers[i]) : new Thread(workers[i]);
+            started[i].setName("ScalingStress-" + i);
+            started[i].start();
+        }
+        Thread.sleep((long) (warmup * 1000));
+        for (Worker worker : workers)
+        {
+            worker.phase = Worker.MEASURING;
+        }
+        Thread.sleep((long) (seconds * 1000));
+        for (Worker worker : workers)
+        {
+            worker.phase = Worker.STOPPED;
+        }
+        for (Thread thread : started)
+        {
+            thread.join();
+        }
+        return workers;
+    }
+
+    /**
+     * @return {@code Thread.ofVirtual().factory()}, or {@code null} before Java 21
+     */
+    static ThreadFactory virtualThreadFactory()
+    {
+        try
+        {
+            Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+            return (ThreadFactory) Class.forName("java.lang.Thread$Builder")
+                .getMethod("factory").invoke(builder);
+        }
+        catch (Exception e)
+        {
+            return null;
+        }
+    }
+
+    private void report(String format, Object ... args)
+    {
+        wrong.incrementAndGet();
+        synchronized (reported)
+        {
+            if (reported.size() < MAX_REPORTED)
+            {
+                reported.add(String.format(format, args));
+            }
+        }
+    }
+
+    /** Formats its table of values over and over, until it is stopped. */
+    private final class Worker implements Runnable
+    {
+        static final int WARMING_UP = 0;
+        static final int MEASURING = 1;
+        static final int STOPPED = 2;
+
+        private final double[] values = new double[VALUES];
+        private final String[] expected = new String[VALUES];
+        private final DecimalFormat format = (DecimalFormat) subject.clone();
+        final long[] samples = new long[SAMPLES];
+        volatile int phase;
+        long sampleCount;
+        long measured;
+        long blocked = -1;
+
+        Worker(Random random)
+        {
+            format.setMinimumFractionDigits(scale);
+            format.setMaximumFractionDigits(scale);
+            for (int i = 0; i < VALUES; i++)
+            {
+                // The doubles nearest to a tie of any magnitude, and a few ulps either side of it
+                long k = (random.nextLong() >>> 1) % POW10[1 + random.nextInt(15)];
+                double value = (k + 0.5) / POW10[scale];
+                for (int ulps = random.nextInt(5) - 2; ulps != 0; ulps += ulps > 0 ? -1 : 1)
+                {
+                    value = ulps > 0 ? Math.nextUp(value) : Math.nextAfter(value, 0.0);
+                }
+                values[i] = value;
+                expected[i] = HalfUpRounding.rounded(value, scale).toPlainString();
+            }
+        }
+
+        @Override
+        public void run()
+        {
+            // Only the thread itself can read its monitor statistics (and not a virtual one)
+            ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+            ThreadInfo before = threadBean.getThreadInfo(Thread.currentThread().getId());
+            long operations = 0;
+            long measuredFrom = -1;
+            int currentPhase;
+            while ((currentPhase = phase) != STOPPED)
+            {
+                if (currentPhase == MEASURING && measuredFrom < 0)
+                {
+                    measuredFrom = operations;
+                    sampleCount = 0; // latencies are reported for the measurement only
+                }
+                for (int i = 0; i < VALUES; i++)
+                {
+                    String actual;
+                    if ((i & (SAMPLE_INTERVAL - 1)) == 0)
+                    {
+                        long start = System.nanoTime();
+                        actual = format.format(values[i]);
+                        samples[(int) (sampleCount++ % SAMPLES)] = System.nanoTime() - start;
+                    }
+                    else
+                    {
+                        actual = format.format(values[i]);
+                    }
+                    if (!expected[i].equals(actual))
+                    {
+                        report("WRONG %s scale=%d value=%s (0x%016x) actual=%s expected=%s",
+                            Thread.currentThread().getName(), scale, values[i],
+                            Double.doubleToRawLongBits(values[i]), actual, expected[i]);
+                    }
+                }
+                operations += VALUES;
+            }
+            measured = measuredFrom < 0 ? 0 : operations - measuredFrom;
+            ThreadInfo after = threadBean.getThreadInfo(Thread.currentThread().getId());
+            if (before != null && after != null)
+            {
+                blocked = after.getBlockedCount() - before.getBlockedCount();
+            }
+        }
+    }
+}
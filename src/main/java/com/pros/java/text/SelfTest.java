@@ -95,6 +95,23 @@ final class SelfTest implements Runnable
         out.printf("%nAgent installed: %s%nPatch applied  : %s%n",
             DigitListPatch.installed ? "yes" : "NO (missing -javaagent?)",
             DigitListPatch.applied ? "yes" : "NO");
+        out.printf("Transformer    : %s after %d callback(s)%n",
+            DigitListPatch.registered ? "still registered" : "not registered",
+            DigitListPatch.transformCalls.get());
+        PatchStatistics statistics = new PatchStatistics();
+        if (statistics.isCounting())
+        {
+            out.printf("Decisions      : %d HALF_UP, %d differ from the original code%n",
+                statistics.getDecisions(), statistics.getDifferentFromOriginal());
+        }
+        if (ShadowCompareLog.getInstance() != null)
+        {
+            out.printf("Shadow compare : 1 in %d sampled, %d difference(s) logged, %d dropped%n",
+                statistics.getShadowSampleInterval(), statistics.getShadowDifferences(),
+                statistics.getShadowDropped());
+        }
+        out.printf("Patch outcome  : %s%n", DigitListPatch.outcome);
+        out.printf("Startup cost   : %s%n", DigitListPatch.startupSummary());
         out.printf("Last exception : %s%n%n", DigitListPatch.error);
 
         int resultCode = (behaviorOK ? 0x1 : 0)
@@ -0,0 +1,247 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.pros.java.text;
+
+import static com.pros.java.text.DigitList.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Drains the ring of differences that the shadow comparing variant of the patch records inside
+ * {@code java.text.DigitList} (see {@link DigitList#__patched__shouldRoundUp_HALF_UP_shadow}),
+ * and appends them to a log file, one line per difference.  This runs on a daemon thread that
+ * polls the ring, so formatting threads never wait for the file.
+ * <p>
+ * The initial sampling interval reaches the patched class through a system property (see
+ * {@link DigitList#SAMPLE_INTERVAL_PROPERTY}); later changes are set by reflection.
+ * </p>
+ */
+final class ShadowCompareLog implements Runnable
+{
+    private static final long POLL_MILLIS = 200;
+
+    private static volatile ShadowCompareLog instance;
+
+    private final File file;
+    private volatile int sampleInterval;
+    private volatile AtomicLongArray ring; // found once the patched class is loaded
+    private final AtomicLong logged = new AtomicLong();
+    private long dropped;
+    private PrintWriter out; // opened on the first difference
+
+    private ShadowCompareLog(File file, int sampleInterval)
+    {
+        this.file = file;
+        this.sampleInterval = sampleInterval;
+    }
+
+    /** Starts the daemon thread. */
+    static void start(File file, int sampleInterval)
+    {
+        ShadowCompareLog log = new ShadowCompareLog(file, sampleInterval);
+        Thread thread = new Thread(log, "DigitListPatch shadow comparison log");
+        thread.setDaemon(true);
+        thread.start();
+        instance = log;
+    }
+
+    /** @return the running instance, or {@code null} if shadow comparison is not enabled */
+    static ShadowCompareLog getInstance()
+    {
+        return instance;
+    }
+
+    int getSampleInterval()
+    {
+        return sampleInterval;
+    }
+
+    /** @param sampleInterval compare one in this many decisions; zero turns sampling off */
+    void setSampleInterval(int sampleInterval)
+    {
+        if (sampleInterval < 0)
+        {
+            throw new IllegalArgumentException("Negative sample interval: " + sampleInterval);
+        }
+        this.sampleInterval = sampleInterval;
+        if (ring != null)
+        {
+            applySampleInterval();
+        }
+    }
+
+    /** @return the number of differences written to the log */
+    long getLogged()
+    {
+        return logged.get();
+    }
+
+    /** @return the number of differences lost because the ring was full */
+    long getDropped()
+    {
+        AtomicLongArray found = ring;
+        return found == null ? 0 : found.get(RING_DROPPED);
+    }
+
+    @Override
+    public void run()
+    {
+        try
+        {
+            while (true)
+            {
+                if (ring == null && DigitListPatch.applied)
+                {
+                    ring = (AtomicLongArray) PatchStatistics.targetField("__patched__ring").get(null);
+                    applySampleInterval(); // in case it changed before the class was loaded
+                }
+                if (ring != null)
+                {
+                    drainToFile();
+                }
+                Thread.sleep(POLL_MILLIS);
+            }
+        }
+        catch (InterruptedException stop)
+        {
+            // daemon thread: only ends with the JVM
+        }
+        catch (Exception e)
+        {
+            DigitListPatch.error = e;
+            System.err.println("Shadow comparison log stopped: " + e);
+        }
+        finally
+        {
+            if (out != null)
+            {
+                out.close();
+            }
+        }
+    }
+
+    private void applySampleInterval()
+    {
+        try
+        {
+            PatchStatistics.targetField("__patched__sampleInterval").setInt(null, sampleInterval);
+        }
+        catch (Exception e)
+        {
+            DigitListPatch.error = e;
+        }
+    }
+
+    private void drainToFile()
+    throws IOException
+    {
+        long droppedNow = ring.get(RING_DROPPED);
+        long tail = ring.get(RING_TAIL);
+        if (droppedNow == dropped && !isPublished(ring, tail))
+        {
+            return; // nothing new
+        }
+        if (out == null)
+        {
+            out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+        }
+        logged.addAndGet(drain(ring, out));
+        if (droppedNow != dropped)
+        {
+            out.println("# " + (droppedNow - dropped) + " difference(s) dropped: the ring was full");
+            dropped = droppedNow;
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes every published record of the ring and frees its slot.
+     *
+     * @return the number of records written
+     */
+    static int drain(AtomicLongArray ring, PrintWriter out)
+    {
+        int drained = 0;
+        for (long tail = ring.get(RING_TAIL); isPublished(ring, tail); tail++)
+        {
+            out.println(describe(ring, recordIndex(tail)));
+            ring.set(RING_TAIL, tail + 1);
+            drained++;
+        }
+        return drained;
+    }
+
+    private static boolean isPublished(AtomicLongArray ring, long sequence)
+    {
+        return ring.get(recordIndex(sequence) + RECORD_SEQUENCE) == sequence + 1;
+    }
+
+    private static int recordIndex(long sequence)
+    {
+        return RING_RECORDS + (int) (sequence % RING_CAPACITY) * RECORD_WIDTH;
+    }
+
+    static String describe(AtomicLongArray ring, int record)
+    {
+        long positions = ring.get(record + RECORD_POSITIONS);
+        int count = (int) (positions >>> 32);
+        int maximumDigits = (int) positions;
+        long flags = ring.get(record + RECORD_FLAGS);
+
+        StringBuilder line = new StringBuilder("digits=");
+        int recorded = Math.min(count, 2 * DIGITS_PER_LONG);
+        for (int i = 0; i < recorded; i++)
+        {
+            long word = ring.get(record + RECORD_DIGITS + i / DIGITS_PER_LONG);
+            line.append((char) ('0' + ((word >>> (4 * (i % DIGITS_PER_LONG))) & 0xF)));
+        }
+        if (recorded < count)
+        {
+            line.append("...");
+        }
+        return line.append(" count=").append(count)
+            .append(" maximumDigits=").append(maximumDigits)
+            .append(" alreadyRounded=").append((flags & FLAG_ALREADY_ROUNDED) != 0)
+            .append(" allDecimalDigits=").append((flags & FLAG_ALL_DECIMAL_DIGITS) != 0)
+            .append(" patched=").append((flags & FLAG_PATCHED_RESULT) != 0)
+            .append(" original=").append((flags & FLAG_ORIGINAL_RESULT) != 0)
+            .toString();
+    }
+}
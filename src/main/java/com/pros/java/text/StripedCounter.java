@@ -0,0 +1,82 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+package com.pros.java.text;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A counter that many threads can increment without contending for one cache line: each
+ * thread adds to one of several stripes, chosen by its id, and reads sum the stripes.  This is
+ * the same layout as the rounding decision counters inside the patched {@code DigitList}.
+ * It is the Java 6 {@link Platform} counter.
+ */
+final class StripedCounter extends Platform.Counter
+{
+    /**
+     * Distance between stripes, in longs: 128 bytes, so that no two share a cache line.  The
+     * first stripe is padding, which keeps the others off the cache line of the array header.
+     */
+    private static final int STRIPE_WIDTH = 16;
+
+    private final AtomicLongArray stripes;
+    private final int mask;
+
+    StripedCounter()
+    {
+        int count = 1; // a power of 2 for masking, about twice the number of processors
+        while (count < 64 && count < 2 * Runtime.getRuntime().availableProcessors())
+        {
+            count <<= 1;
+        }
+        stripes = new AtomicLongArray((count + 1) * STRIPE_WIDTH);
+        mask = count - 1;
+    }
+
+    @Override
+    void increment()
+    {
+        stripes.getAndIncrement((((int) Thread.currentThread().getId() & mask) + 1) * STRIPE_WIDTH);
+    }
+
+    @Override
+    long sum()
+    {
+        long sum = 0;
+        for (int i = STRIPE_WIDTH; i < stripes.length(); i += STRIPE_WIDTH)
+        {
+            sum += stripes.get(i);
+        }
+        return sum;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.FieldPosition;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import org.junit.Assume;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+/**
+ * Guards the number of bytes allocated per call by the {@code HALF_UP} formatting paths, as
+ * counted by the per-thread allocation counter of {@code com.sun.management.ThreadMXBean}.
+ * Each path must stay at or below its entry in {@code allocation-baseline.properties}: first
+ * the entry for the running Java specification version ({@code path.1.8}, {@code path.11}),
+ * then the entry for any version ({@code path}).  Paths without an entry are only measured.
+ * <p>
+ * {@code gradle test} runs these tests without the agent, and {@code gradle testPatched} with
+ * it, against the same baseline: on an affected JVM, the patch must not allocate more than the
+ * original code.  Run with {@code -Dcom.pros.java.text.AllocationTest.print=true} to print
+ * every measurement, in the format of the baseline file.
+ * </p>
+ */
+public class AllocationTest
+{
+    private static final int CALLS = 20000;
+    private static final int ROUNDS = 3;
+    private static final int VALUE_COUNT = 1024; // power of 2
+    private static final int SCALE = 2;
+
+    private static com.sun.management.ThreadMXBean threads;
+    private static Properties baseline;
+    private static final double[] VALUES = new double[VALUE_COUNT];
+
+    /** One formatting path, called with one value at a time. */
+    abstract static class Path
+    {
+        long sink; // keeps the results alive
+
+        abstract void call(double value);
+    }
+
+    @BeforeClass
+    public static void setUpClass()
+    throws IOException
+    {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        threads = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(threads.isThreadAllocatedMemorySupported());
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        baseline = new Properties();
+        InputStream in = AllocationTest.class.getResourceAsStream("allocation-baseline.properties");
+        assertNotNull("allocation-baseline.properties", in);
+        try
+        {
+            baseline.load(in);
+        }
+        finally
+        {
+            in.close();
+        }
+
+        // Prices with 2 to 6 decimal digits, as in HalfUpFormatBenchmark, and some ties
+        Random random = new Random(20140624L);
+        for (int i = 0; i < VALUE_COUNT; i++)
+        {
+            int decimals = 2 + random.nextInt(5);
+            long units = 1 + (long) (random.nextDouble() * 10000 * Math.pow(10, decimals));
+            VALUES[i] = i % 4 == 0
+                ? (units * 10 + 5) / Math.pow(10, SCALE + 1)
+                : units / Math.pow(10, decimals);
+        }
+    }
+
+    @Test
+    public void decimalFormat()
+    {
+        final NumberFormat format = halfUpFormat();
+        check("decimalFormat", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                sink += format.format(value).length();
+            }
+        });
+    }
+
+    @Test
+    public void decimalFormatToBuffer()
+    {
+        final NumberFormat format = halfUpFormat();
+        final StringBuffer buffer = new StringBuffer(64);
+        final FieldPosition position = new FieldPosition(NumberFormat.INTEGER_FIELD);
+        check("decimalFormatToBuffer", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                buffer.setLength(0);
+                sink += format.format(value, buffer, position).length();
+            }
+        });
+    }
+
+    @Test
+    public void halfUpFormatter()
+    {
+        final HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, SCALE);
+        final char[] chars = new char[formatter.getMaximumLength()];
+        check("halfUpFormatter", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                sink += formatter.format(value, chars, 0);
+            }
+        });
+    }
+
+    @Test
+    public void halfUpFormatterToBuilder()
+    {
+        final HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, SCALE);
+        final StringBuilder builder = new StringBuilder(formatter.getMaximumLength());
+        check("halfUpFormatterToBuilder", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                builder.setLength(0);
+                sink += formatter.format(value, builder).length();
+            }
+        });
+    }
+
+    @Test
+    public void halfUpFormatterString()
+    {
+        final HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, SCALE);
+        check("halfUpFormatterString", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                sink += formatter.format(value).length();
+            }
+        });
+    }
+
+    @Test
+    public void halfUpFormatCache()
+    {
+        final HalfUpFormatCache cache =
+            new HalfUpFormatCache(HalfUpFormatter.getInstance(Locale.US, SCALE), 4 * VALUE_COUNT);
+        for (double value : VALUES)
+        {
+            cache.format(value); // every measured call is a hit
+        }
+        check("halfUpFormatCache", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                sink += cache.format(value).length();
+            }
+        });
+    }
+
+    @Test
+    public void halfUpFormatPool()
+    {
+        final HalfUpFormatPool pool = new HalfUpFormatPool();
+        final HalfUpFormatPool.Key key = HalfUpFormatPool.Key.of(Locale.US, SCALE);
+        check("halfUpFormatPool", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                sink += pool.format(key, value).length();
+            }
+        });
+    }
+
+    @Test
+    public void halfUpScaler()
+    {
+        check("halfUpScaler", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                sink += HalfUpScaler.round(value, SCALE);
+            }
+        });
+    }
+
+    @Test
+    public void halfUpDecimalFormatter()
+    {
+        final HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, SCALE);
+        final char[] chars = new char[formatter.getMaximumLength()];
+        final HalfUpAccumulator total = new HalfUpAccumulator(SCALE + 2);
+        check("halfUpDecimalFormatter", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                // a value computed in a loop, as by HalfUpAccumulator.get()
+                total.reset();
+                sink += formatter.format(total.add((long) (value * 1e4), 4).get(), chars, 0);
+            }
+        });
+    }
+
+    @Test
+    public void halfUpAccumulator()
+    {
+        final HalfUpAccumulator total = new HalfUpAccumulator(SCALE);
+        final HalfUpDecimal price = HalfUpDecimal.valueOf(12345, 3);
+        check("halfUpAccumulator", new Path()
+        {
+            @Override
+            void call(double value)
+            {
+                total.addProduct(price, (long) value).add((long) (value * 1e4), 4);
+                sink += total.signum();
+            }
+        });
+    }
+
+    private static NumberFormat halfUpFormat()
+    {
+        NumberFormat format = DecimalFormat.getInstance(Locale.US);
+        format.setMinimumFractionDigits(SCALE);
+        format.setMaximumFractionDigits(SCALE);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        return format;
+    }
+
+    /**
+     * Measures a path after warming it up, and compares the fewest bytes per call of a few
+     * rounds (which discounts one-time allocations, such as a JIT compilation's) with the
+     * baseline.
+     */
+    private static void check(String name, Path path)
+    {
+        long thread = Thread.currentThread().getId();
+        run(path, CALLS); // warm up
+        double bytesPerCall = Double.MAX_VALUE;
+        for (int round = 0; round < ROUNDS; round++)
+        {
+            long before = threads.getThreadAllocatedBytes(thread);
+            run(path, CALLS);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            bytesPerCall = Math.min(bytesPerCall, (double) allocated / CALLS);
+        }
+
+        String version = System.getProperty("java.specification.version");
+        String limit = baseline.getProperty(name + '.' + version, baseline.getProperty(name));
+        if (Boolean.getBoolean(AllocationTest.class.getName() + ".print"))
+        {
+            System.out.printf("%s.%s=%.0f%n", name, version, Math.ceil(bytesPerCall));
+        }
+        if (limit != null)
+        {
+            assertTrue(String.format("%s allocates %.1f bytes per call, baseline %s (agent %s)",
+                    name, bytesPerCall, limit, DigitListPatch.applied ? "applied" : "not applied"),
+                bytesPerCall <= Double.parseDouble(limit));
+        }
+    }
+
+    private static void run(Path path, int calls)
+    {
+        for (int i = 0; i < calls; i++)
+        {
+            path.call(VALUES[i & (VALUE_COUNT - 1)]);
+        }
+    }
+}
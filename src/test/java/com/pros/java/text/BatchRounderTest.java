@@ -0,0 +1,196 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Rounds small files with chunks of a few bytes, so that most lines and values straddle a
+ * chunk boundary, and compares the output to {@link HalfUpFormatter}.
+ */
+public class BatchRounderTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    private File in;
+    private File out;
+    private final ByteArrayOutputStream summary = new ByteArrayOutputStream();
+
+    @Before
+    public void createFiles()
+    throws IOException
+    {
+        in = temp.newFile("prices.in");
+        out = temp.newFile("prices.out");
+    }
+
+    @Test
+    public void roundsOneColumnOfText()
+    throws Exception
+    {
+        write("id,price,note\r\n"
+            + "1,6.2089,a\r\n"
+            + "2,0.125,b,extra\n"
+            + "3,n/a,c\n"
+            + "4,-2.5\n"
+            + "\n"
+            + "5,1e3,NaN\n"
+            + "6,NaN\n"
+            + "7,99.9989");
+        BatchRounder rounder = rounder(1);
+        rounder.column = 1;
+        rounder.header = true;
+        rounder.chunkSize = 8;
+        assertEquals(5, rounder.run(new PrintStream(summary)));
+        assertEquals("id,price,note\r\n"
+            + "1,6.21,a\r\n"
+            + "2,0.13,b,extra\n"
+            + "3,n/a,c\n"
+            + "4,-2.50\n"
+            + "\n"
+            + "5,1000.00,NaN\n"
+            + "6,NaN\n"
+            + "7,100.00", read());
+        assertTrue(summary.toString(), summary.toString().contains(" 9 lines, 3 fields left unchanged"));
+    }
+
+    @Test
+    public void chunkingDoesNotChangeText()
+    throws Exception
+    {
+        Random random = new Random(16);
+        StringBuilder input = new StringBuilder();
+        StringBuilder expected = new StringBuilder();
+        HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.ROOT, 3);
+        for (int i = 0; i < 5000; i++)
+        {
+            double value = (random.nextInt(2000000) - 1000000) / 10000.0 + 0.00005;
+            input.append(i).append('\t').append(value).append('\n');
+            expected.append(i).append('\t').append(formatter.format(value)).append('\n');
+        }
+        write(input.toString());
+        for (long chunkSize : new long[] { 8, 24, 1000, 1 << 20 })
+        {
+            BatchRounder rounder = rounder(3);
+            rounder.scale = 3;
+            rounder.column = 1;
+            rounder.delimiter = '\t';
+            rounder.chunkSize = chunkSize;
+            assertEquals(5000, rounder.run(new PrintStream(summary)));
+            assertEquals("chunk " + chunkSize, expected.toString(), read());
+        }
+    }
+
+    @Test
+    public void roundsBinaryDoubles()
+    throws Exception
+    {
+        double[] values = { 0.15, 1.005, -0.125, 6.2089, 1e22, 0 };
+        ByteBuffer bytes = ByteBuffer.allocate(values.length * 8).order(ByteOrder.LITTLE_ENDIAN);
+        bytes.asDoubleBuffer().put(values);
+        FileOutputStream stream = new FileOutputStream(in);
+        try
+        {
+            stream.write(bytes.array());
+        }
+        finally
+        {
+            stream.close();
+        }
+
+        BatchRounder rounder = rounder(2);
+        rounder.binary = true;
+        rounder.order = ByteOrder.LITTLE_ENDIAN;
+        rounder.chunkSize = 12; // rounded down to whole doubles
+        assertEquals(values.length, rounder.run(new PrintStream(summary)));
+        assertEquals("0.15\n1.00\n-0.13\n6.21\n10000000000000000000000.00\n0.00\n", read());
+    }
+
+    @Test(expected = IOException.class)
+    public void partialDoubleIsRejected()
+    throws Exception
+    {
+        write("0123456789");
+        BatchRounder rounder = rounder(1);
+        rounder.binary = true;
+        rounder.run(new PrintStream(summary));
+    }
+
+    private BatchRounder rounder(int threads)
+    {
+        BatchRounder rounder = new BatchRounder();
+        rounder.in = in;
+        rounder.out = out;
+        rounder.threads = threads;
+        return rounder;
+    }
+
+    private void write(String text)
+    throws IOException
+    {
+        FileOutputStream stream = new FileOutputStream(in);
+        try
+        {
+            stream.write(text.getBytes("US-ASCII"));
+        }
+        finally
+        {
+            stream.close();
+        }
+    }
+
+    private String read()
+    throws IOException
+    {
+        return new String(DigitListPatch.readFully(new FileInputStream(out)), "US-ASCII");
+    }
+}
@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * The parts of {@code java.text.DigitList} of Java 8 GA through 8u31 that the patch rewrites,
+ * with the state and the methods they depend on, for tests that patch a class of their own.
+ * The one change is in {@code set(boolean, double, int, boolean)}: the digits and the flags
+ * that {@code FloatingDecimal} would give are worked out with {@code Double.toString} and
+ * {@code BigDecimal}, so that the class does not depend on the JDK's internal API.
+ */
+final class BuggyDigitList
+{
+    public static final int MAX_COUNT = 19; // == Long.toString(Long.MAX_VALUE).length()
+
+    public int decimalAt = 0;
+    public int count = 0;
+    public char[] digits = new char[MAX_COUNT];
+
+    private char[] data;
+    private RoundingMode roundingMode = RoundingMode.HALF_EVEN;
+    private boolean isNegative = false;
+
+    // The digit part of -9223372036854775808L; gives the class a static initializer, as in Java 8
+    private static final char[] LONG_MIN_REP = "9223372036854775808".toCharArray();
+
+    final void set(boolean isNegative, double source, int maximumDigits, boolean fixedPoint) {
+
+        String digitsString = Double.toString(source);
+        int exactComparedToDigits = new BigDecimal(source).compareTo(new BigDecimal(digitsString));
+        boolean hasBeenRoundedUp = exactComparedToDigits < 0;
+        boolean valueExactAsDecimal = exactComparedToDigits == 0;
+
+        set(isNegative, digitsString,
+            hasBeenRoundedUp, valueExactAsDecimal,
+            maximumDigits, fixedPoint);
+    }
+
+    final void set(boolean isNegative, BigDecimal source, int maximumDigits, boolean fixedPoint) {
+        String s = source.toString();
+        extendDigits(s.length());
+
+        set(isNegative, s,
+            false, true,
+            maximumDigits, fixedPoint);
+    }
+
+    private void set(boolean isNegative, String s,
+                     boolean roundedUp, boolean valueExactAsDecimal,
+                     int maximumDigits, boolean fixedPoint) {
+
+        this.isNegative = isNegative;
+        int len = s.length();
+        char[] source = getDataChars(len);
+        s.getChars(0, len, source, 0);
+
+        decimalAt = -1;
+        count = 0;
+        int exponent = 0;
+        // Number of zeros between decimal point and first non-zero digit after
+        // decimal point, for numbers < 1.
+        int leadingZerosAfterDecimal = 0;
+        boolean nonZeroDigitSeen = false;
+
+        for (int i = 0; i < len; ) {
+            char c = source[i++];
+            if (c == '.') {
+                decimalAt = count;
+            } else if (c == 'e' || c == 'E') {
+                exponent = parseInt(source, i, len);
+                break;
+            } else {
+                if (!nonZeroDigitSeen) {
+                    nonZeroDigitSeen = (c != '0');
+                    if (!nonZeroDigitSeen && decimalAt != -1)
+                        ++leadingZerosAfterDecimal;
+                }
+                if (nonZeroDigitSeen) {
+                    digits[count++] = c;
+                }
+            }
+        }
+        if (decimalAt == -1) {
+            decimalAt = count;
+        }
+        if (nonZeroDigitSeen) {
+            decimalAt += exponent - leadingZerosAfterDecimal;
+        }
+
+        if (fixedPoint) {
+            // The negative of the exponent represents the number of leading
+            // zeros between the decimal and the first non-zero digit, for
+            // a value < 0.1 (e.g., for 0.00123, -decimalAt == 2).  If this
+            // is more than the maximum fraction digits, then we have an underflow
+            // for the printed representation.
+            if (-decimalAt > maximumDigits) {
+                // Handle an underflow to zero when we round something like
+                // 0.0009 to 2 fractional digits.
+                count = 0;
+                return;
+            } else if (-decimalAt == maximumDigits) {
+                // If we round 0.0009 to 3 fractional digits, then we have to
+                // create a new one digit in the least significant location.
+                if (shouldRoundUp(0, roundedUp, valueExactAsDecimal)) {
+                    count = 1;
+                    ++decimalAt;
+                    digits[0] = '1';
+                } else {
+                    count = 0;
+                }
+                return;
+            }
+            // else fall through
+        }
+
+        // Eliminate trailing zeros.
+        while (count > 1 && digits[count - 1] == '0') {
+            --count;
+        }
+
+        // Eliminate digits beyond maximum digits to be displayed.
+        // Round up if appropriate.
+        round(fixedPoint ? (maximumDigits + decimalAt) : maximumDigits,
+              roundedUp, valueExactAsDecimal);
+     }
+
+    private final void round(int maximumDigits,
+                             boolean alreadyRounded,
+                             boolean valueExactAsDecimal) {
+        // Eliminate digits beyond maximum digits to be displayed.
+        // Round up if appropriate.
+        if (maximumDigits >= 0 && maximumDigits < count) {
+            if (shouldRoundUp(maximumDigits, alreadyRounded, valueExactAsDecimal)) {
+                // Rounding up involved incrementing digits from LSD to MSD.
+                // In most cases this is simple, but in a worst case situation
+                // (9999..99) we have to adjust the decimalAt value.
+                for (;;) {
+                    --maximumDigits;
+                    if (maximumDigits < 0) {
+                        // We have all 9's, so we increment to a single digit
+                        // of one and adjust the exponent.
+                        digits[0] = '1';
+                        ++decimalAt;
+                        maximumDigits = 0; // Adjust the count
+                        break;
+                    }
+
+                    ++digits[maximumDigits];
+                    if (digits[maximumDigits] <= '9') break;
+                    // digits[maximumDigits] = '0'; // Unnecessary since we'll truncate this
+                }
+                ++maximumDigits; // Increment for use as count
+            }
+            count = maximumDigits;
+
+            // Eliminate trailing zeros.
+            while (count > 1 && digits[count-1] == '0') {
+                --count;
+            }
+        }
+    }
+
+    private boolean shouldRoundUp(int maximumDigits,
+                                  boolean alreadyRounded,
+                                  boolean valueExactAsDecimal) {
+        if (maximumDigits < count) {
+            switch(roundingMode) {
+            case UP:
+                for (int i=maximumDigits; i<count; ++i) {
+                    if (digits[i] != '0') {
+                        return true;
+                    }
+                }
+                break;
+            case DOWN:
+                break;
+            case CEILING:
+                for (int i=maximumDigits; i<count; ++i) {
+                    if (digits[i] != '0') {
+                        return !isNegative;
+                    }
+                }
+                break;
+            case FLOOR:
+                for (int i=maximumDigits; i<count; ++i) {
+                    if (digits[i] != '0') {
+                        return isNegative;
+                    }
+                }
+                break;
+            case HALF_UP:
+                if (digits[maximumDigits] >= '5') {
+                    if ((maximumDigits == (count - 1)) &&
+                        (alreadyRounded))
+                        return false;
+                    return true;
+                }
+                break;
+            case HALF_DOWN:
+                if (digits[maximumDigits] > '5') {
+                    return true;
+                } else if (digits[maximumDigits] == '5' ) {
+                    if (maximumDigits == (count - 1)) {
+                        if (valueExactAsDecimal) return false; else return !alreadyRounded;
+                    }
+                    return true;
+                }
+                break;
+            case HALF_EVEN:
+                if (digits[maximumDigits] > '5') {
+                    return true;
+                } else if (digits[maximumDigits] == '5' ) {
+                    if (maximumDigits == (count - 1)) {
+                        if (alreadyRounded)
+                            return false;
+                        if (!valueExactAsDecimal)
+                            return true;
+                        else {
+                            return ((maximumDigits > 0) &&
+                                    (digits[maximumDigits-1] % 2 != 0));
+                        }
+                    } else {
+                        for (int i=maximumDigits+1; i<count; ++i) {
+                            if (digits[i] != '0')
+                                return true;
+                        }
+                    }
+                }
+                break;
+            case UNNECESSARY:
+                for (int i=maximumDigits; i<count; ++i) {
+                    if (digits[i] != '0') {
+                        throw new ArithmeticException(
+                            "Rounding needed with the rounding mode being set to RoundingMode.UNNECESSARY");
+                    }
+                }
+                break;
+            default:
+                assert false;
+            }
+        }
+        return false;
+    }
+
+    private static final int parseInt(char[] str, int offset, int strLen) {
+        char c;
+        boolean positive = true;
+        if ((c = str[offset]) == '-') {
+            positive = false;
+            offset++;
+        } else if (c == '+') {
+            offset++;
+        }
+
+        int value = 0;
+        while (offset < strLen) {
+            c = str[offset++];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+            } else {
+                break;
+            }
+        }
+        return positive ? value : -value;
+    }
+
+    private void extendDigits(int len) {
+        if (len > digits.length) {
+            digits = new char[len];
+        }
+    }
+
+    private final char[] getDataChars(int length) {
+        if (data == null || data.length < length) {
+            data = new char[length];
+        }
+        return data;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Checks the synthetic classes that {@link ClassLoadBenchmark} defines.  (The benchmark itself
+ * starts JVMs with the agent JAR, so it is left to {@code classload} on the command line.)
+ */
+public class ClassLoadBenchmarkTest
+{
+    @Test
+    public void classFileHasTheRequestedSize()
+    {
+        assertEquals(ClassLoadBenchmark.MIN_CLASS_BYTES,
+            ClassLoadBenchmark.classFile(ClassLoadBenchmark.MIN_CLASS_BYTES).length);
+        assertEquals(4096, ClassLoadBenchmark.classFile(4096).length);
+    }
+
+    @Test
+    public void renamedClassesAreDefined()
+    {
+        byte[] classFile = ClassLoadBenchmark.classFile(512);
+        ClassLoadBenchmark.SyntheticLoader loader = ClassLoadBenchmark.loaders(1)[0];
+        ClassLoadBenchmark.rename(classFile, 12, 345678);
+        Class<?> first = loader.define(classFile);
+        ClassLoadBenchmark.rename(classFile, 12, 9);
+        Class<?> second = loader.define(classFile);
+
+        assertEquals("synthetic.L0012.C345678", first.getName());
+        assertEquals("synthetic.L0012.C000009", second.getName());
+        assertSame(loader, first.getClassLoader());
+        assertSame(Object.class, second.getSuperclass());
+    }
+
+    @Test
+    public void definesEveryClass()
+    {
+        ClassLoadBenchmark.SyntheticLoader[] loaders = ClassLoadBenchmark.loaders(7);
+        assertTrue(ClassLoadBenchmark.defineClasses(loaders, 300, 256) > 0);
+        for (int i = 0; i < 300; i += 37)
+        {
+            String name = String.format("synthetic.L%04d.C%06d", i % 7, i);
+            try
+            {
+                Class.forName(name, false, loaders[i % 7]);
+            }
+            catch (ClassNotFoundException e)
+            {
+                fail(name + " was not defined");
+            }
+        }
+    }
+
+    @Test
+    public void medianOfOddAndEvenCounts()
+    {
+        assertEquals(2.0, ClassLoadBenchmark.median(new double[] { 3, 1, 2 }), 0);
+        assertEquals(2.5, ClassLoadBenchmark.median(new double[] { 4, 1, 3, 2 }), 0);
+    }
+}
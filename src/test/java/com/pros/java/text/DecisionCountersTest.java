@@ -0,0 +1,114 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static com.pros.java.text.DigitList.*;
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Validates the counting variant of the shim method on the template itself, with the digits
+ * that {@code java.text.DigitList} would hold.
+ */
+public class DecisionCountersTest
+{
+    private final DigitList digitList = new DigitList()
+    {
+        @Override
+        boolean __original__shouldRoundUp(int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+        {
+            throw new UnsupportedOperationException("not used by the counting variant");
+        }
+    };
+
+    @Before
+    public void resetCounters()
+    {
+        DigitList.__patched__init();
+    }
+
+    @Test
+    public void stripesDoNotShareCacheLines()
+    {
+        AtomicLongArray counters = DigitList.__patched__counters;
+        int stripes = counters.length() / STRIPE_WIDTH - 1; // after the padding
+        assertEquals("power of 2", 0, stripes & (stripes - 1));
+        assertTrue(STRIPE_WIDTH * 8 >= 128);
+        assertTrue(COUNTER_COUNT <= STRIPE_WIDTH);
+
+        int stripe = DigitList.__patched__stripe(counters.length());
+        assertTrue("past the padding: " + stripe, stripe >= STRIPE_WIDTH);
+        assertTrue("within the array: " + stripe, stripe + STRIPE_WIDTH <= counters.length());
+        decide("125", 2, false, true);
+        for (int i = 0; i < STRIPE_WIDTH; i++)
+        {
+            assertEquals("padding " + i, 0, counters.get(i));
+        }
+        assertEquals(1, counters.get(stripe + CALLS));
+    }
+
+    @Test
+    public void countsEachKindOfDecision()
+    {
+        assertFalse(decide("12345", 2, false, false)); // '3': below the tie
+        assertTrue(decide("126", 2, true, false));     // '6': above, already rounded
+        assertTrue(decide("1257", 2, false, false));   // '5' followed by more digits
+        assertTrue(decide("125", 2, false, true));     // exact tie
+        assertTrue(decide("125", 2, false, false));    // truncated to the tie
+        assertFalse(decide("125", 2, true, false));    // rounded up to the tie
+
+        AtomicLongArray counters = DigitList.__patched__counters;
+        assertEquals(6, PatchStatistics.sum(counters, CALLS));
+        assertEquals(1, PatchStatistics.sum(counters, ABOVE_FIVE));
+        assertEquals(1, PatchStatistics.sum(counters, TIE_MORE_DIGITS));
+        assertEquals(1, PatchStatistics.sum(counters, TIE_EXACT));
+        assertEquals(1, PatchStatistics.sum(counters, TIE_TRUNCATED));
+        assertEquals(1, PatchStatistics.sum(counters, TIE_ALREADY_ROUNDED));
+        assertEquals("only the rounded-up '6'", 1, PatchStatistics.sum(counters, DIFFERS));
+    }
+
+    private boolean decide(String digits, int maximumDigits, boolean alreadyRounded,
+        boolean allDecimalDigits)
+    {
+        digitList.digits = digits.toCharArray();
+        digitList.count = digits.length();
+        return digitList.__patched__shouldRoundUp_HALF_UP_counted(
+            maximumDigits, alreadyRounded, allDecimalDigits);
+    }
+}
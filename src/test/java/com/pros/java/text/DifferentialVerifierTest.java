@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.PrintStream;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Validates that {@link DifferentialVerifier} runs every case and reports the failures of a
+ * format that does not round {@code HALF_UP}.  (Whether the real {@code DecimalFormat} passes
+ * depends on the JVM and the agent, so that is left to {@code verify} on the command line.)
+ */
+public class DifferentialVerifierTest
+{
+    @Rule
+    public TemporaryFolder temp = new TemporaryFolder();
+
+    @Test
+    public void reportsHalfEvenTiesAsMismatches()
+    throws Exception
+    {
+        DecimalFormat halfEven = DifferentialVerifier.halfUpFormat();
+        halfEven.setRoundingMode(RoundingMode.HALF_EVEN);
+        DifferentialVerifier verifier = new DifferentialVerifier(halfEven);
+        verifier.maxScale = 1;
+        verifier.ties = 5000; // more than one chunk per scale
+        verifier.radius = 1;
+        verifier.random = 0;
+        verifier.threads = 3;
+        verifier.out = temp.newFile("verify.log");
+
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        long failures = verifier.run(new PrintStream(summary, true));
+        assertTrue(summary.toString(), summary.toString().contains("Total: 30,000 cases"));
+
+        // scale 0: every even k; scale 1: ties that are exact doubles, such as 0.25
+        String log = read(verifier.out);
+        assertTrue(log, log.contains("MISMATCH scale=0 value=0.5 (0x3fe0000000000000) actual=0 expected=1"));
+        assertTrue(log, log.contains("MISMATCH scale=1 value=0.25 "));
+        assertFalse(log, log.contains("NON-MONOTONIC"));
+        assertEquals(failures, log.split("\n").length);
+    }
+
+    private static String read(File file)
+    throws Exception
+    {
+        FileInputStream in = new FileInputStream(file);
+        try
+        {
+            return new String(DigitListPatch.readFully(in), "UTF-8");
+        }
+        finally
+        {
+            in.close();
+        }
+    }
+}
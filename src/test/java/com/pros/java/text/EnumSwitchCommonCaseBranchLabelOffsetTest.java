@@ -34,7 +34,7 @@
 
 package com.pros.java.text;
 
-import static com.pros.java.text.DigitListPatch.ASM_VERSION;
+import static com.pros.java.text.DigitListPatch.Rewriter.ASM_VERSION;
 import static org.junit.Assert.*;
 
 import org.junit.Test;
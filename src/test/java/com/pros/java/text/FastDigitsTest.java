@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Validates the fast digit fill of the shim against {@link HalfUpRounding#rounded}, and its
+ * fast path for {@code BigDecimal} against {@link BigDecimal#setScale(int, RoundingMode)}: the
+ * digits, count and decimal point position must be those that {@code java.text.DigitList} holds
+ * after the patched rounding, for {@code DecimalFormat} to produce the same text.
+ */
+public class FastDigitsTest
+{
+    private final DigitList digitList = new DigitList()
+    {
+        @Override
+        boolean __original__shouldRoundUp(int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+        {
+            throw new UnsupportedOperationException("not used by the fast digit fill");
+        }
+    };
+
+    {
+        digitList.digits = new char[19]; // DigitList.MAX_COUNT
+        digitList.roundingMode = RoundingMode.HALF_UP;
+    }
+
+    @Test
+    public void fillsRoundedDigits()
+    {
+        assertDigits("13", 1, 1.25, 1);
+        assertDigits("1", 2, 9.96, 1);        // carries into a new digit
+        assertDigits("5", -1, 0.0456, 2);
+        assertDigits("1", 3, 100.0, 2);       // no trailing zeros
+        assertDigits("1", -2, 0.0005, 3);     // lone 5 below 10^-3
+        assertDigits("1", 1, 1.005, 2);       // 1.00499999999999989...
+    }
+
+    @Test
+    public void matchesBigDecimalRounding()
+    {
+        Random random = new Random(20140624L);
+        for (int i = 0; i < 200000; i++)
+        {
+            int scale = random.nextInt(9);
+            long units = random.nextInt(10000000);
+            double value = i % 2 == 0
+                ? (units * 10 + 5) / Math.pow(10, scale + 1)
+                : units / Math.pow(10, random.nextInt(12));
+            BigDecimal expected = HalfUpRounding.rounded(value, scale).stripTrailingZeros();
+            if (expected.signum() == 0 || expected.unscaledValue().bitLength() > 52)
+            {
+                continue;
+            }
+            assertDigits(expected.unscaledValue().toString(), expected.precision() - expected.scale(),
+                value, scale);
+        }
+    }
+
+    @Test
+    public void leavesOtherCasesToTheOriginalCode()
+    {
+        assertFalse("exponential", digitList.__patched__fastSet(false, 1.25, 1, false));
+        assertFalse("rounds to zero", digitList.__patched__fastSet(false, 0.004, 2, true));
+        assertFalse("zero", digitList.__patched__fastSet(false, 0.0, 2, true));
+        assertFalse("scale", digitList.__patched__fastSet(false, 1.25, DigitList.MAX_FAST_SCALE + 1, true));
+        assertFalse("magnitude", digitList.__patched__fastSet(false, 1e300, 2, true));
+
+        digitList.roundingMode = RoundingMode.HALF_EVEN;
+        assertFalse("HALF_EVEN", digitList.__patched__fastSet(false, 1.25, 1, true));
+    }
+
+    @Test
+    public void fillsRoundedBigDecimalDigits()
+    {
+        assertDigits("13", 1, new BigDecimal("1.25"), 1);      // exact tie rounds up
+        assertDigits("12", 1, new BigDecimal("1.2499"), 1);
+        assertDigits("1", 2, new BigDecimal("9.96"), 1);       // carries into a new digit
+        assertDigits("101", 1, new BigDecimal("1.005"), 2);    // no binary approximation
+        assertDigits("12", 4, new BigDecimal("1200"), 2);      // no trailing zeros
+        assertDigits("12", 4, new BigDecimal("1.2E+3"), 2);    // negative scale
+        assertDigits("5", -1, new BigDecimal("0.05"), 3);      // not rounded
+        assertDigits("1", 1, new BigDecimal("0.999999999999999999"), 17);
+        assertDigits("1", -16, new BigDecimal("0.000000000000000005"), 17);
+    }
+
+    @Test
+    public void matchesBigDecimalSetScale()
+    {
+        Random random = new Random(20140624L);
+        for (int i = 0; i < 200000; i++)
+        {
+            int scale = random.nextInt(9);
+            long digits = DigitList.__patched__fastPow10[1 + random.nextInt(18)];
+            long unscaled = (random.nextLong() >>> 1) % digits;
+            BigDecimal value = BigDecimal.valueOf(unscaled, random.nextInt(20) - 2);
+            BigDecimal expected = value.setScale(scale, RoundingMode.HALF_UP).stripTrailingZeros();
+            if (expected.signum() == 0)
+            {
+                continue;
+            }
+            assertDigits(expected.unscaledValue().toString(), expected.precision() - expected.scale(),
+                value, scale);
+        }
+    }
+
+    @Test
+    public void leavesOtherBigDecimalsToTheOriginalCode()
+    {
+        BigDecimal value = new BigDecimal("1.25");
+        assertFalse("exponential", digitList.__patched__fastSet(false, value, 1, false));
+        assertFalse("rounds to zero",
+            digitList.__patched__fastSet(false, new BigDecimal("0.004"), 2, true));
+        assertFalse("zero", digitList.__patched__fastSet(false, BigDecimal.ZERO, 2, true));
+        assertFalse("precision",
+            digitList.__patched__fastSet(false, new BigDecimal("1234567890.123456789"), 2, true));
+        assertFalse("exponent",
+            digitList.__patched__fastSet(false, new BigDecimal("1E+19"), 2, true));
+
+        digitList.roundingMode = RoundingMode.HALF_EVEN;
+        assertFalse("HALF_EVEN", digitList.__patched__fastSet(false, value, 1, true));
+    }
+
+    private void assertDigits(String digits, int decimalAt, BigDecimal value, int scale)
+    {
+        String message = value + " to " + scale + " digits";
+        assertTrue(message, digitList.__patched__fastSet(true, value, scale, true));
+        assertEquals(message, digits, new String(digitList.digits, 0, digitList.count));
+        assertEquals(message, decimalAt, digitList.decimalAt);
+        assertTrue(message, digitList.isNegative);
+    }
+
+    private void assertDigits(String digits, int decimalAt, double value, int scale)
+    {
+        String message = value + " to " + scale + " digits";
+        assertTrue(message, digitList.__patched__fastSet(true, value, scale, true));
+        assertEquals(message, digits, new String(digitList.digits, 0, digitList.count));
+        assertEquals(message, decimalAt, digitList.decimalAt);
+        assertTrue(message, digitList.isNegative);
+    }
+}
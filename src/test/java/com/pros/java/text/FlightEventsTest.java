@@ -0,0 +1,66 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeNotNull;
+
+import org.junit.Test;
+
+/**
+ * Creates the {@link FlightEvents} types and commits each event, where the JVM running the
+ * tests has the {@code jdk.jfr} API.  (Whether they reach a recording is left to a run with
+ * {@code -XX:StartFlightRecording}.)
+ */
+public class FlightEventsTest
+{
+    @Test
+    public void eventsCanBeCommitted()
+    {
+        FlightEvents.enable(DigitListPatch.COUNTED_VARIANT);
+        FlightEvents events = FlightEvents.getInstance();
+        assumeNotNull(events); // no jdk.jfr before 8u262
+
+        events.agentStarted("premain", "jfr,counters", "transformer registered");
+        Object event = events.beginTransform();
+        assertNotNull(event);
+        events.commitTransform(event, "java/text/DigitList", new byte[100], new byte[120],
+            "applied by ASM5", "ASM5");
+        event = events.beginTransform();
+        events.commitTransform(event, "java/text/DigitList", new byte[100], null,
+            "not needed: class file major version 55", null);
+        assertSame("not disabled by a failure", events, FlightEvents.getInstance());
+    }
+}
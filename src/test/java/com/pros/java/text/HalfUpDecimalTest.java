@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link HalfUpDecimal} and {@link HalfUpAccumulator} against the same operations on
+ * {@code BigDecimal}, including results that do not fit in a {@code long}.
+ */
+public class HalfUpDecimalTest
+{
+    @Test
+    public void roundsHalfUp()
+    {
+        assertEquals("1.01", HalfUpDecimal.valueOf(new BigDecimal("1.005")).setScale(2).toString());
+        assertEquals("-1.01", HalfUpDecimal.valueOf(-1005, 3).setScale(2).toString());
+        assertEquals("1.00", HalfUpDecimal.valueOf(1.005, 2).toString()); // 1.00499999999999989...
+        assertEquals("0.13", HalfUpDecimal.valueOf(0.125, 2).toString());
+        assertEquals("0.67", HalfUpDecimal.ONE.multiply(2).divide(HalfUpDecimal.valueOf(3), 2).toString());
+        assertEquals("-0.67", HalfUpDecimal.valueOf(-2).divide(HalfUpDecimal.valueOf(3), 2).toString());
+        assertEquals("12.35", HalfUpDecimal.valueOf(1235, 3).multiply(HalfUpDecimal.valueOf(10), 2).toString());
+        assertEquals("1.000", HalfUpDecimal.ONE.setScale(3).toString());
+    }
+
+    @Test
+    public void overflowFallsBackToBigDecimal()
+    {
+        HalfUpDecimal max = HalfUpDecimal.valueOf(Long.MAX_VALUE, 2);
+        assertTrue(max.isCompact());
+        HalfUpDecimal above = max.add(HalfUpDecimal.valueOf(1, 2));
+        assertFalse(above.isCompact());
+        assertEquals(new BigDecimal("92233720368547758.08"), above.toBigDecimal());
+        assertEquals(max, above.subtract(HalfUpDecimal.valueOf(1, 2)));
+        assertTrue(above.subtract(HalfUpDecimal.valueOf(1, 2)).isCompact());
+        assertFalse(HalfUpDecimal.valueOf(Long.MIN_VALUE, 0).isCompact());
+        assertEquals(new BigDecimal("9223372036854775807.00"), HalfUpDecimal.valueOf(Long.MAX_VALUE).setScale(2).toBigDecimal());
+
+        try
+        {
+            above.unscaledValue();
+            fail("unscaled value does not fit");
+        }
+        catch (ArithmeticException expected)
+        {
+            // as documented
+        }
+    }
+
+    @Test
+    public void arithmeticMatchesBigDecimal()
+    {
+        Random random = new Random(20140624L);
+        for (int i = 0; i < 100000; i++)
+        {
+            HalfUpDecimal a = randomValue(random);
+            HalfUpDecimal b = randomValue(random);
+            BigDecimal x = a.toBigDecimal();
+            BigDecimal y = b.toBigDecimal();
+            int scale = random.nextInt(HalfUpDecimal.MAX_SCALE + 1);
+            long factor = random.nextInt(2001) - 1000;
+
+            assertSame(x.add(y), a.add(b));
+            assertSame(x.subtract(y), a.subtract(b));
+            assertSame(x.multiply(BigDecimal.valueOf(factor)), a.multiply(factor));
+            assertSame(x.multiply(y).setScale(scale, RoundingMode.HALF_UP), a.multiply(b, scale));
+            assertSame(x.setScale(scale, RoundingMode.HALF_UP), a.setScale(scale));
+            if (y.signum() != 0)
+            {
+                assertSame(x.divide(y, scale, RoundingMode.HALF_UP), a.divide(b, scale));
+            }
+            assertEquals(a + " <=> " + b, x.compareTo(y), a.compareTo(b));
+            assertEquals(x.doubleValue(), a.doubleValue(), 0.0);
+            assertEquals(x.longValue(), a.longValue());
+        }
+    }
+
+    @Test
+    public void valueOfDoubleRoundsAsDecimalFormat()
+    {
+        Random random = new Random(20140624L);
+        for (int i = 0; i < 100000; i++)
+        {
+            int scale = random.nextInt(9);
+            long units = random.nextInt(10000000);
+            double value = (units * 10 + 5) / Math.pow(10, scale + 1) * (i % 2 == 0 ? 1 : -1);
+            BigDecimal expected = HalfUpRounding.rounded(Math.abs(value), scale);
+            assertSame(value < 0 ? expected.negate() : expected, HalfUpDecimal.valueOf(value, scale));
+        }
+        assertSame(new BigDecimal("1000000000000000000000.00"), HalfUpDecimal.valueOf(1e21, 2));
+    }
+
+    @Test
+    public void equalsComparesScale()
+    {
+        assertEquals(HalfUpDecimal.valueOf(150, 2), HalfUpDecimal.valueOf(new BigDecimal("1.50")));
+        assertEquals(HalfUpDecimal.valueOf(150, 2).hashCode(), HalfUpDecimal.valueOf(150, 2).hashCode());
+        assertFalse(HalfUpDecimal.valueOf(150, 2).equals(HalfUpDecimal.valueOf(15, 1)));
+        assertEquals(0, HalfUpDecimal.valueOf(150, 2).compareTo(HalfUpDecimal.valueOf(15, 1)));
+        assertEquals(HalfUpDecimal.valueOf(15, 0), HalfUpDecimal.valueOf(new BigDecimal("1.5E+1")));
+    }
+
+    @Test
+    public void rejectsScalesOutOfRange()
+    {
+        try
+        {
+            HalfUpDecimal.valueOf(1, HalfUpDecimal.MAX_SCALE + 1);
+            fail("scale too large");
+        }
+        catch (IllegalArgumentException expected)
+        {
+            // as documented
+        }
+        try
+        {
+            HalfUpDecimal.ONE.divide(HalfUpDecimal.ZERO, 2);
+            fail("division by zero");
+        }
+        catch (ArithmeticException expected)
+        {
+            // as documented
+        }
+    }
+
+    @Test
+    public void accumulatorRoundsEachTerm()
+    {
+        HalfUpAccumulator total = new HalfUpAccumulator(2);
+        HalfUpDecimal price = HalfUpDecimal.valueOf(3335, 3); // 3.335
+        total.addProduct(price, 3);                            // 10.005 -> 10.01
+        total.add(price);                                      // 3.335 -> 3.34
+        total.addProduct(price, HalfUpDecimal.valueOf(15, 1)); // 5.0025 -> 5.00
+        total.subtract(HalfUpDecimal.valueOf(1, 2));
+        assertEquals(HalfUpDecimal.valueOf(1834, 2), total.get());
+        total.reset();
+        assertEquals(0, total.signum());
+    }
+
+    @Test
+    public void accumulatorMatchesBigDecimal()
+    {
+        Random random = new Random(20140624L);
+        for (int run = 0; run < 100; run++)
+        {
+            int scale = random.nextInt(HalfUpDecimal.MAX_SCALE + 1);
+            HalfUpAccumulator total = new HalfUpAccumulator(scale);
+            BigDecimal expected = BigDecimal.ZERO.setScale(scale);
+            for (int i = 0; i < 1000; i++)
+            {
+                HalfUpDecimal a = randomValue(random);
+                HalfUpDecimal b = randomValue(random);
+                long quantity = random.nextInt(100);
+                switch (i % 4)
+                {
+                    case 0:
+                        total.add(a);
+                        expected = expected.add(a.toBigDecimal().setScale(scale, RoundingMode.HALF_UP));
+                        break;
+                    case 1:
+                        total.subtract(a);
+                        expected = expected.subtract(a.toBigDecimal().setScale(scale, RoundingMode.HALF_UP));
+                        break;
+                    case 2:
+                        total.addProduct(a, quantity);
+                        expected = expected.add(a.multiply(quantity).toBigDecimal().setScale(scale, RoundingMode.HALF_UP));
+                        break;
+                    default:
+                        total.addProduct(a, b);
+                        expected = expected.add(a.multiply(b, scale).toBigDecimal());
+                }
+                assertSame(expected, total.get());
+            }
+        }
+    }
+
+    /** Values of every magnitude and scale, some near or beyond the range of a long. */
+    private static HalfUpDecimal randomValue(Random random)
+    {
+        int scale = random.nextInt(HalfUpDecimal.MAX_SCALE + 1);
+        long unscaled = random.nextLong() >> random.nextInt(64);
+        if (random.nextInt(20) == 0)
+        {
+            return HalfUpDecimal.valueOf(BigDecimal.valueOf(unscaled, scale).multiply(BigDecimal.TEN));
+        }
+        return HalfUpDecimal.valueOf(unscaled, scale);
+    }
+
+    /** Same value and scale, and compact exactly when the unscaled value fits in a long. */
+    private static void assertSame(BigDecimal expected, HalfUpDecimal actual)
+    {
+        assertEquals(expected, actual.toBigDecimal());
+        assertEquals(expected.toString(),
+            expected.unscaledValue().bitLength() < Long.SIZE
+                && expected.unscaledValue().longValue() != Long.MIN_VALUE,
+            actual.isCompact());
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Checks that {@link HalfUpFormatCache} returns the formatter's text, counts hits and misses,
+ * and keeps frequently used values when a set overflows.
+ */
+public class HalfUpFormatCacheTest
+{
+    private final HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, 2);
+
+    @Test
+    public void hitsReturnTheSameText()
+    {
+        HalfUpFormatCache cache = new HalfUpFormatCache(formatter, 1024);
+        assertEquals("0.13", cache.format(0.125));
+        assertEquals("1.00", cache.format(1.005));
+        assertEquals("0.13", cache.format(0.125));
+        assertEquals("-0.00", cache.format(-0.0));
+        assertEquals("0.00", cache.format(0.0));
+        assertEquals(1, cache.getHitCount());
+        assertEquals(4, cache.getMissCount());
+        assertEquals(0, cache.getEvictionCount());
+    }
+
+    @Test
+    public void capacityIsRoundedUpToPowerOfTwo()
+    {
+        assertEquals(HalfUpFormatCache.SET_SIZE, new HalfUpFormatCache(formatter, 1).getCapacity());
+        assertEquals(1024, new HalfUpFormatCache(formatter, 1000).getCapacity());
+        assertEquals(1024, new HalfUpFormatCache(formatter, 1024).getCapacity());
+    }
+
+    @Test
+    public void clockKeepsReferencedValues()
+    {
+        HalfUpFormatCache cache = new HalfUpFormatCache(formatter, HalfUpFormatCache.SET_SIZE);
+        for (int i = 0; i < 100; i++)
+        {
+            assertEquals(i + ".50", cache.format(i + 0.5)); // each seen once
+            assertEquals("42.00", cache.format(42.0));      // used between every sweep
+        }
+        assertEquals("42.00 formatted once", 101, cache.getMissCount());
+        assertEquals(99, cache.getHitCount());
+        assertEquals(100 + 1 - HalfUpFormatCache.SET_SIZE, cache.getEvictionCount());
+    }
+
+    @Test
+    public void concurrentUseMatchesFormatter()
+    throws Exception
+    {
+        final HalfUpFormatCache cache = new HalfUpFormatCache(formatter, 256);
+        final double[] values = new double[2000];
+        Random random = new Random(42);
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = random.nextInt(100000) / 1000.0;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 4; t++)
+            {
+                final int seed = t;
+                results.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                    {
+                        Random random = new Random(seed);
+                        int wrong = 0;
+                        for (int i = 0; i < 100000; i++)
+                        {
+                            double value = values[random.nextInt(random.nextBoolean() ? 100 : values.length)];
+                            if (!formatter.format(value).equals(cache.format(value)))
+                            {
+                                wrong++;
+                            }
+                        }
+                        return wrong;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results)
+            {
+                assertEquals(Integer.valueOf(0), result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertEquals(400000, cache.getHitCount() + cache.getMissCount());
+        assertTrue(cache.getHitCount() > cache.getMissCount());
+    }
+}
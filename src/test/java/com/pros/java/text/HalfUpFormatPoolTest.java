@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.Test;
+
+/**
+ * Validates reuse, bounds, and thread safety of {@link HalfUpFormatPool}.
+ */
+public class HalfUpFormatPoolTest
+{
+    @Test
+    public void configuresFormats()
+    {
+        HalfUpFormatPool pool = new HalfUpFormatPool(4, 2);
+        HalfUpFormatPool.Key key = new HalfUpFormatPool.Key(Locale.GERMANY, "#,##0.00##", 2, 4, true);
+        DecimalFormat format = pool.acquire(key);
+        assertEquals(RoundingMode.HALF_UP, format.getRoundingMode());
+        assertEquals(2, format.getMinimumFractionDigits());
+        assertEquals(4, format.getMaximumFractionDigits());
+        assertTrue(format.isGroupingUsed());
+        assertEquals("12,3457", format.format(12.34567));
+        assertEquals("1.234,50", format.format(1234.5));
+        pool.release(key, format);
+
+        assertEquals("1,234.57", pool.format(HalfUpFormatPool.Key.of(Locale.US, 2), 1234.565));
+    }
+
+    @Test
+    public void reusesReleasedFormats()
+    {
+        HalfUpFormatPool pool = new HalfUpFormatPool(4, 2);
+        HalfUpFormatPool.Key key = HalfUpFormatPool.Key.of(Locale.US, 2);
+        DecimalFormat first = pool.acquire(key);
+        DecimalFormat second = pool.acquire(key);
+        assertNotSame(first, second);
+        pool.release(key, first);
+        pool.release(key, second);
+        pool.release(key, (DecimalFormat) first.clone()); // slots are full: dropped
+        assertEquals(2, pool.getCreatedCount());
+
+        assertNotNull(pool.acquire(key));
+        assertNotNull(pool.acquire(key));
+        assertEquals(2, pool.getCreatedCount());
+        pool.acquire(key);
+        assertEquals(3, pool.getCreatedCount());
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedKeys()
+    {
+        HalfUpFormatPool pool = new HalfUpFormatPool(2, 1);
+        HalfUpFormatPool.Key two = HalfUpFormatPool.Key.of(Locale.US, 2);
+        HalfUpFormatPool.Key three = HalfUpFormatPool.Key.of(Locale.US, 3);
+        HalfUpFormatPool.Key four = HalfUpFormatPool.Key.of(Locale.US, 4);
+        pool.format(two, 1);
+        pool.format(three, 1);
+        pool.format(two, 1);
+        pool.format(four, 1);
+        assertEquals(2, pool.size());
+        assertEquals(1, pool.getEvictedCount());
+
+        long created = pool.getCreatedCount();
+        pool.format(two, 1);
+        assertEquals("'two' was used more recently than 'three'", created, pool.getCreatedCount());
+        pool.format(three, 1);
+        assertEquals(created + 1, pool.getCreatedCount());
+        assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void concurrentUse()
+    throws Exception
+    {
+        final HalfUpFormatPool pool = new HalfUpFormatPool(8, 2);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try
+        {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int t = 0; t < 32; t++)
+            {
+                final int scale = t % 4;
+                results.add(executor.submit(new Callable<Integer>()
+                {
+                    @Override
+                    public Integer call()
+                    {
+                        HalfUpFormatPool.Key key = HalfUpFormatPool.Key.of(Locale.US, scale);
+                        NumberFormat expected = NumberFormat.getInstance(Locale.US);
+                        expected.setMinimumFractionDigits(scale);
+                        expected.setMaximumFractionDigits(scale);
+                        expected.setRoundingMode(RoundingMode.HALF_UP);
+                        int mismatches = 0;
+                        for (int i = 0; i < 5000; i++)
+                        {
+                            double value = i * 1.0005;
+                            if (!expected.format(value).equals(pool.format(key, value)))
+                            {
+                                mismatches++;
+                            }
+                        }
+                        return mismatches;
+                    }
+                }));
+            }
+            for (Future<Integer> result : results)
+            {
+                assertEquals(Integer.valueOf(0), result.get());
+            }
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+        assertTrue(pool.getCreatedCount() <= 8 * 4 + 4);
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.math.RoundingMode;
+import java.nio.ByteBuffer;
+import java.text.DecimalFormat;
+import java.text.DecimalFormatSymbols;
+import java.text.NumberFormat;
+import java.util.Locale;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link HalfUpFormatter} against the output of a patched (or fixed) {@code DecimalFormat}.
+ * The expected strings are spelled out, so the tests do not depend on the Java version running them.
+ */
+public class HalfUpFormatterTest
+{
+    @Test
+    public void tiesResolvedByExactBinaryValue()
+    {
+        assertEquals("0.1", format(Locale.US, 1, 0.15));
+        assertEquals("0.3", format(Locale.US, 1, 0.35));
+        assertEquals("0.805", format(Locale.US, 3, 0.8055));
+        assertEquals("1.00", format(Locale.US, 2, 1.005));
+        assertEquals("0.13", format(Locale.US, 2, 0.125));
+        assertEquals("0.950001", format(Locale.US, 6, 0.95000055));
+        assertEquals("6.209", format(Locale.US, 3, 6.2088));
+        assertEquals("100.00", format(Locale.US, 2, 99.9989));
+        assertEquals("100.00", format(Locale.US, 2, 99.999));
+    }
+
+    @Test
+    public void floatingDecimalDigitQuirks()
+    {
+        // "5.0E-13": the trailing zero counts as a digit beyond the tie
+        assertEquals("0.000000000001", format(Locale.US, 12, 5.0E-13));
+        // exactly midway between the shortest candidates .2 and .3; the even one wins
+        assertEquals("622,796,528,664,750.2", format(Locale.US, 1, 6.227965286647502E14));
+        // shortest digits are used as they are, not the exact binary value
+        assertEquals("0.10000000000000000000", format(Locale.US, 20, 0.1));
+    }
+
+    @Test
+    public void signsAndSymbols()
+    {
+        assertEquals("-0.00", format(Locale.US, 2, -0.001));
+        assertEquals("-0", format(Locale.US, 0, -0.0));
+        assertEquals("1,234,567.89", format(Locale.US, 2, 1234567.891));
+        assertEquals("-1.234.567,90", format(Locale.GERMANY, 2, -1234567.895));
+
+        DecimalFormatSymbols symbols = DecimalFormatSymbols.getInstance(Locale.US);
+        symbols.setZeroDigit('\u0660'); // ARABIC-INDIC DIGIT ZERO
+        symbols.setNaN("NaN");
+        symbols.setInfinity("Inf");
+        DecimalFormat format = new DecimalFormat("#,##0.00;(#,##0.00)", symbols);
+        format.setRoundingMode(RoundingMode.HALF_UP);
+        HalfUpFormatter formatter = new HalfUpFormatter(format);
+        assertEquals("(\u0661\u0662.\u0663\u0665)", formatter.format(-12.345));
+        assertEquals("NaN", formatter.format(Double.NaN));
+        assertEquals("(Inf)", formatter.format(Double.NEGATIVE_INFINITY));
+    }
+
+    @Test
+    public void largeValuesUseBigDecimal()
+    {
+        String expected = "1" + repeat(",000", 100) + ".00";
+        assertEquals(expected, format(Locale.US, 2, 1e300));
+    }
+
+    @Test
+    public void destinations()
+    throws Exception
+    {
+        HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, 2);
+        char[] dest = new char[2 + formatter.getMaximumLength()];
+        int end = formatter.format(1234.565, dest, 2);
+        assertEquals("1,234.57", new String(dest, 2, end - 2));
+        assertEquals("x1,234.57", formatter.format(1234.565, new StringBuilder("x")).toString());
+        assertEquals("x1,234.57", formatter.format(1234.565, (Appendable) new StringBuffer("x")).toString());
+    }
+
+    @Test
+    public void bulkIntoByteBuffers()
+    throws Exception
+    {
+        double[] values = new double[40];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = (i - 20) * 12345.6785;
+        }
+        values[7] = Double.NaN;
+        values[8] = Double.NEGATIVE_INFINITY;
+        for (Locale locale : new Locale[] {Locale.US, Locale.FRANCE})
+        {
+            HalfUpFormatter formatter = HalfUpFormatter.getInstance(locale, 2);
+            StringBuilder expected = new StringBuilder();
+            for (int i = 1; i < values.length; i++)
+            {
+                expected.append(formatter.format(values[i])).append('\n');
+            }
+
+            // small buffer: resume after draining it, as a channel writer would
+            ByteBuffer[] buffers = {ByteBuffer.allocate(160), ByteBuffer.allocateDirect(160)};
+            for (ByteBuffer buffer : buffers)
+            {
+                int[] ends = new int[values.length];
+                StringBuilder actual = new StringBuilder();
+                int offset = 1;
+                int batches = 0;
+                while (offset < values.length)
+                {
+                    buffer.clear();
+                    int written = formatter.format(values, offset, values.length - offset,
+                        buffer, (byte) '\n', ends);
+                    assertTrue("buffer has room for at least one value", written > 0);
+                    assertEquals(buffer.position(), ends[offset + written - 1]);
+                    buffer.flip();
+                    byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    actual.append(new String(bytes, "UTF-8"));
+                    offset += written;
+                    batches++;
+                }
+                assertEquals(expected.toString(), actual.toString());
+                assertTrue(batches > 2);
+            }
+        }
+    }
+
+    @Test
+    public void decimalsFormattedAsBigDecimal()
+    {
+        // DecimalFormat was always right for BigDecimal, so it is the reference on any version
+        Random random = new Random(20140624L);
+        for (Locale locale : new Locale[] { Locale.US, Locale.GERMANY, Locale.FRANCE })
+        {
+            for (int scale = 0; scale <= 20; scale += 4)
+            {
+                NumberFormat format = NumberFormat.getInstance(locale);
+                format.setMinimumFractionDigits(Math.min(scale, 2));
+                format.setMaximumFractionDigits(scale);
+                format.setRoundingMode(RoundingMode.HALF_UP);
+                HalfUpFormatter formatter = new HalfUpFormatter((DecimalFormat) format);
+                for (int i = 0; i < 2000; i++)
+                {
+                    HalfUpDecimal value = HalfUpDecimal.valueOf(random.nextLong() >> random.nextInt(64),
+                        random.nextInt(HalfUpDecimal.MAX_SCALE + 1));
+                    if (i % 10 == 0)
+                    {
+                        value = value.multiply(value, value.scale()); // usually beyond a long
+                    }
+                    assertEquals(format.format(value.toBigDecimal()), formatter.format(value));
+                }
+            }
+        }
+        HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.US, 2);
+        assertEquals("-0.00", formatter.format(HalfUpDecimal.valueOf(-1, 3)));
+        assertEquals("1,234.57",
+            formatter.format(HalfUpDecimal.valueOf(1234565, 3), new StringBuilder()).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsOtherRoundingModes()
+    {
+        new HalfUpFormatter(new DecimalFormat("0.00")); // HALF_EVEN by default
+    }
+
+    private static String format(Locale locale, int scale, double value)
+    {
+        return HalfUpFormatter.getInstance(locale, scale).format(value);
+    }
+
+    private static String repeat(String s, int count)
+    {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++)
+        {
+            sb.append(s);
+        }
+        return sb.toString();
+    }
+}
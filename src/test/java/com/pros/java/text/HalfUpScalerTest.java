@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.Test;
+
+/**
+ * Checks {@link HalfUpScaler} against spelled-out results, and against {@link HalfUpFormatter}
+ * (which prints the same digits as a patched {@code DecimalFormat}) for many more values.
+ */
+public class HalfUpScalerTest
+{
+    @Test
+    public void tiesResolvedByExactBinaryValue()
+    {
+        assertEquals(1, HalfUpScaler.round(0.15, 1));
+        assertEquals(805, HalfUpScaler.round(0.8055, 3));
+        assertEquals(100, HalfUpScaler.round(1.005, 2));
+        assertEquals(13, HalfUpScaler.round(0.125, 2));
+        assertEquals(-13, HalfUpScaler.round(-0.125, 2));
+        assertEquals(-3, HalfUpScaler.round(-2.5, 0));
+        assertEquals(10000, HalfUpScaler.round(99.9989, 2));
+        assertEquals(1, HalfUpScaler.round(5.0E-13, 12));
+        assertEquals(6227965286647502L, HalfUpScaler.round(6.227965286647502E14, 1));
+    }
+
+    @Test
+    public void slowPathForLargeScalesAndResults()
+    {
+        assertEquals(100000000000000000L, HalfUpScaler.round(0.1, 18));
+        assertEquals(1000000000000000000L, HalfUpScaler.round(0.1, 19));
+        assertEquals("shortest digits", 922337203685477600L, HalfUpScaler.round(9.223372036854776E16, 1));
+        assertEquals(0, HalfUpScaler.round(-0.0, 25));
+    }
+
+    @Test(expected = ArithmeticException.class)
+    public void overflowIsReported()
+    {
+        HalfUpScaler.round(1e17, 2);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void nanIsRejected()
+    {
+        HalfUpScaler.round(new double[] { 1, Double.NaN }, 0, new long[2], 0, 2, 2);
+    }
+
+    @Test
+    public void sameDigitsAsFormatter()
+    {
+        Random random = new Random(20140624L);
+        double[] values = new double[20000];
+        for (int i = 0; i < values.length; i++)
+        {
+            long units = random.nextInt(2000000) - 1000000;
+            values[i] = (units * 10 + (i % 2 == 0 ? 5 : random.nextInt(10))) / 100000.0;
+        }
+        for (int scale = 0; scale <= 6; scale++)
+        {
+            HalfUpFormatter formatter = HalfUpFormatter.getInstance(Locale.ROOT, scale);
+            long[] rounded = new long[values.length];
+            HalfUpScaler.round(values, 0, rounded, 0, values.length, scale);
+            for (int i = 0; i < values.length; i++)
+            {
+                String expected = formatter.format(values[i]).replace(",", "").replace(".", "");
+                assertEquals(values[i] + " at scale " + scale,
+                    Long.parseLong(expected), rounded[i]);
+            }
+        }
+    }
+
+    @Test
+    public void parallelMatchesSequential()
+    {
+        Random random = new Random(6);
+        int length = HalfUpScaler.PARALLEL_THRESHOLD * 3 + 17;
+        double[] values = new double[length + 2];
+        for (int i = 0; i < values.length; i++)
+        {
+            values[i] = (random.nextInt() / 1000.0) + 0.0005;
+        }
+        long[] sequential = new long[length];
+        HalfUpScaler.round(values, 2, sequential, 0, length, 3, null, 0);
+
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try
+        {
+            long[] parallel = new long[length + 1];
+            HalfUpScaler.round(values, 2, parallel, 1, length, 3, executor, 3);
+            for (int i = 0; i < length; i++)
+            {
+                assertEquals(sequential[i], parallel[i + 1]);
+            }
+            assertEquals("untouched", 0, parallel[0]);
+        }
+        finally
+        {
+            executor.shutdown();
+        }
+
+        long[] shared = new long[length];
+        HalfUpScaler.round(values, 2, shared, 0, length, 3);
+        assertArrayEquals(sequential, shared);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import static com.pros.java.text.DigitListPatch.Rewriter.ASM_VERSION;
+import static org.junit.Assert.*;
+
+import java.math.RoundingMode;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Label;
+import org.objectweb.asm.MethodVisitor;
+
+/**
+ * Validates that the inline patch replaces the original {@code HALF_UP} case instead of
+ * leaving it behind, so that {@code shouldRoundUp} only grows by the difference between the
+ * fix and the code it replaces, and no longer calls out to a separate method.
+ */
+public class InlinePatchSizeTest
+{
+    private static final String PATCH_METHOD_NAME = "__patched__shouldRoundUp_HALF_UP";
+
+    /** Measures one method of a class, by writing it again. */
+    static class MethodSize extends ClassVisitor
+    {
+        private final String methodName;
+        int codeLength = -1;
+        int halfUpCaseLength = -1;
+        boolean callsPatchMethod;
+        boolean hasPatchMethod;
+
+        MethodSize(String methodName)
+        {
+            super(ASM_VERSION, new ClassWriter(/* flags */ 0));
+            this.methodName = methodName;
+        }
+
+        MethodSize of(byte[] bytecode)
+        {
+            new ClassReader(bytecode).accept(this, /* flags */ 0);
+            return this;
+        }
+
+        @Override
+        public MethodVisitor visitMethod(
+            int access, String name, String desc, String signature, String[] exceptions)
+        {
+            hasPatchMethod |= PATCH_METHOD_NAME.equals(name);
+            MethodVisitor writerVisitor = super.visitMethod(access, name, desc, signature, exceptions);
+            if (!methodName.equals(name))
+            {
+                return writerVisitor;
+            }
+            return new MethodVisitor(ASM_VERSION, writerVisitor)
+            {
+                private Label[] caseLabels;
+
+                @Override
+                public void visitTableSwitchInsn(int min, int max, Label dflt, Label... labels)
+                {
+                    caseLabels = labels;
+                    super.visitTableSwitchInsn(min, max, dflt, labels);
+                }
+
+                @Override
+                public void visitMethodInsn(int opcode, String owner, String name, String desc, boolean itf)
+                {
+                    callsPatchMethod |= PATCH_METHOD_NAME.equals(name);
+                    super.visitMethodInsn(opcode, owner, name, desc, itf);
+                }
+
+                @Override
+                public void visitMaxs(int maxStack, int maxLocals)
+                {
+                    Label end = new Label();
+                    super.visitLabel(end);
+                    codeLength = end.getOffset();
+                    if (caseLabels != null)
+                    {
+                        halfUpCaseLength = caseLabels[RoundingMode.HALF_DOWN.ordinal()].getOffset()
+                            - caseLabels[RoundingMode.HALF_UP.ordinal()].getOffset();
+                    }
+                    super.visitMaxs(maxStack, maxLocals);
+                }
+            };
+        }
+    }
+
+    @Test
+    public void inlinePatchReplacesOriginalCase()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        MethodSize before = new MethodSize("shouldRoundUp").of(original);
+        int fixLength =
+            new MethodSize(PATCH_METHOD_NAME).of(DigitListPatch.templateBytecode()).codeLength;
+        assertTrue("HALF_UP case found", before.halfUpCaseLength > 0);
+
+        byte[] inline =
+            DigitListPatch.Rewriter.rewrite(original.clone(), null, true, false, false);
+        assertNotNull("patched", inline);
+        MethodSize after = new MethodSize("shouldRoundUp").of(inline);
+        assertFalse("no call", after.callsPatchMethod);
+        assertFalse("no added method", after.hasPatchMethod);
+        assertTrue("original case removed: " + before.codeLength + " bytes - "
+                + before.halfUpCaseLength + " + " + fixLength + " >= " + after.codeLength,
+            after.codeLength <= before.codeLength - before.halfUpCaseLength + fixLength);
+    }
+
+    @Test
+    public void inlinePatchIsSmallerThanRedirect()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        int fixLength =
+            new MethodSize(PATCH_METHOD_NAME).of(DigitListPatch.templateBytecode()).codeLength;
+
+        MethodSize redirect = new MethodSize("shouldRoundUp")
+            .of(DigitListPatch.Rewriter.rewrite(original.clone(), null, false, false, false));
+        MethodSize inline = new MethodSize("shouldRoundUp")
+            .of(DigitListPatch.Rewriter.rewrite(original.clone(), null, true, false, false));
+        assertTrue("redirect calls the fix", redirect.callsPatchMethod);
+        assertTrue("inline " + inline.codeLength + " < redirect " + redirect.codeLength
+                + " + fix " + fixLength,
+            inline.codeLength < redirect.codeLength + fixLength);
+    }
+}
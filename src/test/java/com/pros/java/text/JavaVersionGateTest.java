@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static com.pros.java.text.DigitListPatch.mayRequirePatch;
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Validates the early {@code java.version} check that decides whether the agent needs to
+ * register its transformer at all.
+ */
+public class JavaVersionGateTest
+{
+    @Test
+    public void affectedJava8Releases()
+    {
+        assertTrue("GA", mayRequirePatch("1.8.0"));
+        assertTrue("u5", mayRequirePatch("1.8.0_05"));
+        assertTrue("u31", mayRequirePatch("1.8.0_31"));
+        assertTrue("u40 early access", mayRequirePatch("1.8.0_40-ea"));
+        assertTrue("private build", mayRequirePatch("1.8.0-internal"));
+    }
+
+    @Test
+    public void fixedJava8Releases()
+    {
+        assertFalse("u40", mayRequirePatch("1.8.0_40"));
+        assertFalse("u45", mayRequirePatch("1.8.0_45"));
+        assertFalse("u392", mayRequirePatch("1.8.0_392"));
+    }
+
+    @Test
+    public void otherJavaVersions()
+    {
+        assertFalse("Java 6", mayRequirePatch("1.6.0_45"));
+        assertFalse("Java 7", mayRequirePatch("1.7.0_51"));
+        assertFalse("Java 9", mayRequirePatch("9"));
+        assertFalse("Java 17", mayRequirePatch("17.0.9"));
+    }
+
+    @Test
+    public void unknownVersionDefersToBytecodeChecks()
+    {
+        assertTrue("null", mayRequirePatch(null));
+        assertTrue("empty", mayRequirePatch(""));
+    }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import org.objectweb.asm.Opcodes;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Validates that the patch cache returns exactly what was stored, and never returns an
+ * entry that was damaged after it was written.
+ */
+public class PatchCacheTest
+{
+    private static final byte[] ORIGINAL = {
+        (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 0x34, 1 };
+    private static final byte[] PATCHED = {
+        (byte) 0xCA, (byte) 0xFE, (byte) 0xBA, (byte) 0xBE, 0, 0, 0, 0x34, 2, 3 };
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void storedEntryIsReturned()
+    {
+        File dir = new File(folder.getRoot(), "created/on/demand");
+        PatchCache cache = new PatchCache(dir);
+        String key = PatchCache.keyFor(ORIGINAL, null);
+        assertNull("before store", cache.lookup(key));
+
+        cache.store(key, PATCHED);
+        assertArrayEquals("same instance", PATCHED, cache.lookup(key));
+        assertArrayEquals("other instance", PATCHED, new PatchCache(dir).lookup(key));
+    }
+
+    @Test
+    public void unpatchedOutcomeIsReturned()
+    {
+        PatchCache cache = new PatchCache(folder.getRoot());
+        String key = PatchCache.keyFor(ORIGINAL, null);
+        cache.store(key, null);
+        assertSame(PatchCache.UNPATCHED, cache.lookup(key));
+    }
+
+    @Test
+    public void keyDependsOnOriginalBytes()
+    {
+        assertEquals(PatchCache.keyFor(ORIGINAL, null), PatchCache.keyFor(ORIGINAL.clone(), null));
+        assertFalse(PatchCache.keyFor(ORIGINAL, null).equals(PatchCache.keyFor(PATCHED, null)));
+    }
+
+    @Test
+    public void keyDependsOnVariant()
+    {
+        String key = PatchCache.keyFor(ORIGINAL, null);
+        assertFalse(key.equals(PatchCache.keyFor(ORIGINAL, DigitListPatch.COUNTED_VARIANT)));
+        assertFalse(key.equals(PatchCache.keyFor(ORIGINAL, "")));
+    }
+
+    @Test
+    public void keyDependsOnRewriteVersion()
+    {
+        assertEquals(PatchCache.keyFor(ORIGINAL, null),
+            PatchCache.keyFor(ORIGINAL, null, DigitListPatch.REWRITE_VERSION));
+        assertFalse(PatchCache.keyFor(ORIGINAL, null).equals(
+            PatchCache.keyFor(ORIGINAL, null, DigitListPatch.REWRITE_VERSION + 1)));
+    }
+
+    @Test
+    public void keyDependsOnAsmVersion()
+    {
+        int version = DigitListPatch.REWRITE_VERSION;
+        String asm4 = PatchCache.keyFor(ORIGINAL, null, version, Opcodes.ASM4);
+        String asm5 = PatchCache.keyFor(ORIGINAL, null, version, Opcodes.ASM5);
+        assertEquals(asm5, PatchCache.keyFor(ORIGINAL.clone(), null, version, Opcodes.ASM5));
+        assertFalse(asm4.equals(asm5));
+        assertFalse("catalogue key", asm5.equals(PatchCache.keyFor(ORIGINAL, null)));
+    }
+
+    @Test
+    public void corruptEntryIsDiscarded()
+    throws IOException
+    {
+        PatchCache cache = new PatchCache(folder.getRoot());
+        String key = PatchCache.keyFor(ORIGINAL, null);
+        cache.store(key, PATCHED);
+
+        File[] entries = folder.getRoot().listFiles();
+        assertEquals("entries (no leftover temp files)", 1, entries.length);
+        RandomAccessFile raf = new RandomAccessFile(entries[0], "rw");
+        try
+        {
+            raf.seek(raf.length() - 1);
+            int last = raf.read();
+            raf.seek(raf.length() - 1);
+            raf.write(last ^ 0xFF);
+        }
+        finally
+        {
+            raf.close();
+        }
+
+        assertNull("corrupt entry", cache.lookup(key));
+        assertFalse("corrupt entry removed", entries[0].exists());
+    }
+}
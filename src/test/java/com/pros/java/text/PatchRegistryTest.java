@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+/**
+ * Validates dispatch by class name in {@link PatchRegistry}, and that the HALF_UP fix is
+ * registered and gated as before.
+ */
+public class PatchRegistryTest
+{
+    @Test
+    public void dispatchesByInternalClassName()
+    {
+        PatchRegistry registry = new PatchRegistry();
+        ClassPatch first = new FakePatch("java/text/First", true);
+        ClassPatch second = new FakePatch("java/text/Second", true);
+        registry.register(first);
+        registry.register(second);
+
+        assertSame(first, registry.get("java/text/First"));
+        assertSame(second, registry.get("java/text/Second"));
+        assertNull(registry.get("java.text.First"));
+        assertNull("lambdas and other anonymous classes", registry.get(null));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTwoPatchesForOneClass()
+    {
+        PatchRegistry registry = new PatchRegistry();
+        registry.register(new FakePatch("java/text/First", true));
+        registry.register(new FakePatch("java/text/First", true));
+    }
+
+    @Test
+    public void removesEachPatchOnce()
+    {
+        PatchRegistry registry = new PatchRegistry();
+        ClassPatch patch = new FakePatch("java/text/First", true);
+        registry.register(patch);
+
+        assertTrue(registry.remove(patch));
+        assertFalse(registry.remove(patch));
+        assertTrue(registry.isEmpty());
+    }
+
+    @Test
+    public void retainsOnlyApplicablePatches()
+    {
+        PatchRegistry registry = new PatchRegistry();
+        registry.register(new FakePatch("java/text/First", false));
+        registry.register(new FakePatch("java/text/Second", true));
+
+        registry.retainApplicable("1.8.0");
+        assertEquals(1, registry.size());
+        assertNotNull(registry.get("java/text/Second"));
+    }
+
+    @Test
+    public void halfUpFixIsRegisteredAndGated()
+    {
+        PatchRegistry affected = DigitListPatch.createRegistry(null, null, false, false, false);
+        affected.retainApplicable("1.8.0_31");
+        assertNotNull(affected.get("java/text/DigitList"));
+
+        PatchRegistry fixed = DigitListPatch.createRegistry(null, null, false, false, false);
+        fixed.retainApplicable("1.8.0_40");
+        assertTrue(fixed.isEmpty());
+    }
+
+    private static final class FakePatch implements ClassPatch
+    {
+        private final String className;
+        private final boolean applicable;
+
+        FakePatch(String className, boolean applicable)
+        {
+            this.className = className;
+            this.applicable = applicable;
+        }
+
+        @Override
+        public String getTargetClassName()
+        {
+            return className;
+        }
+
+        @Override
+        public boolean mayApply(String javaVersion)
+        {
+            return applicable;
+        }
+
+        @Override
+        public byte[] apply(byte[] classfileBytes)
+        {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+/**
+ * Checks that the {@link Platform} for the JVM running the tests was chosen, and that its
+ * counter and executor work.  The build runs every test twice: once as is, once with
+ * {@value Platform#BASELINE_PROPERTY} set, which must choose the Java 6 implementation.
+ */
+public class PlatformTest
+{
+    @Test
+    public void chosenForThisJvm()
+    {
+        String expected = Boolean.getBoolean(Platform.BASELINE_PROPERTY)
+            || System.getProperty("java.specification.version").startsWith("1.")
+                && System.getProperty("java.specification.version").compareTo("1.8") < 0
+            ? "Java 6 baseline" : "Java 8";
+        assertEquals(expected, Platform.get().getName());
+    }
+
+    @Test
+    public void counterSumsEveryThread()
+    throws InterruptedException
+    {
+        final Platform.Counter counter = Platform.get().newCounter();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++)
+        {
+            threads[i] = new Thread()
+            {
+                @Override
+                public void run()
+                {
+                    for (int j = 0; j < 10000; j++)
+                    {
+                        counter.increment();
+                    }
+                }
+            };
+            threads[i].start();
+        }
+        for (Thread thread : threads)
+        {
+            thread.join();
+        }
+        assertEquals(40000, counter.sum());
+    }
+
+    @Test
+    public void sharedExecutorRunsTasks()
+    throws InterruptedException
+    {
+        Executor executor = Platform.get().sharedExecutor();
+        assertSame(executor, Platform.get().sharedExecutor());
+        final CountDownLatch done = new CountDownLatch(3);
+        for (int i = 0; i < 3; i++)
+        {
+            executor.execute(new Runnable()
+            {
+                @Override
+                public void run()
+                {
+                    done.countDown();
+                }
+            });
+        }
+        done.await();
+    }
+}
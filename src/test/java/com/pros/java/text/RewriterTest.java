@@ -0,0 +1,487 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+
+package com.pros.java.text;
+
+import static com.pros.java.text.DigitListPatch.Rewriter.ASM_VERSION;
+import static org.junit.Assert.*;
+
+import com.pros.java.text.DigitListPatch.Rewriter;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import org.junit.Test;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Type;
+
+/**
+ * Checks the classes that {@link Rewriter#rewrite} produces from a copy of the affected code.
+ * The patched copy is loaded in a class loader of its own, with its references to
+ * {@code java.text.DigitList} pointed back at itself, and its behavior compared with that of
+ * the fix in the {@link DigitList} shim and of the original code.
+ */
+public class RewriterTest
+{
+    private static final String TARGET = "java/text/DigitList";
+
+    private static final RoundingMode[] HALF_MODES =
+        { RoundingMode.HALF_UP, RoundingMode.HALF_EVEN };
+    private static final char[] DIGITS = { '0', '4', '5', '6', '9' };
+    @Test
+    public void patchedClassIsNotPatchedAgain()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        // The inline form adds no members: patching it again only replaces the copy of the fix
+        boolean[][] forms = {
+            // inline, fastDigits, fastBigDecimal
+            { false, false, false },
+            { true, true, false },
+            { false, true, true },
+        };
+        for (boolean[] form : forms)
+        {
+            byte[] patched = Rewriter.rewrite(original.clone(), null, form[0], form[1], form[2]);
+            assertNotNull("patched", patched);
+            assertNull("patched again: " + Arrays.toString(form),
+                Rewriter.rewrite(patched.clone(), null, form[0], form[1], form[2]));
+        }
+        byte[] counted = Rewriter.rewrite(
+            original.clone(), DigitListPatch.COUNTED_VARIANT, false, false, false);
+        assertNull("counted, patched again",
+            Rewriter.rewrite(counted.clone(), null, false, false, false));
+    }
+
+    @Test
+    public void inlinePatchRoundsAsTheFix()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        assertSameDecisions(Rewriter.rewrite(original.clone(), null, true, false, false, true));
+    }
+
+    @Test
+    public void inlinePatchKeepingTheOriginalCaseRoundsAsTheFix()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        assertSameDecisions(Rewriter.rewrite(original.clone(), null, true, false, false, false));
+    }
+
+    @Test
+    public void fastDigitsSetsTheSameDigits()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        Object fast = newInstance(
+            load(Rewriter.rewrite(original.clone(), null, false, true, false)));
+        Object fixed = newInstance(
+            load(Rewriter.rewrite(original.clone(), null, false, false, false)));
+        assertNotNull("tables initialized", get(fast, "__patched__fastPow10"));
+
+        Random random = new Random(20140624L);
+        int cases = 0;
+        int fastCases = 0;
+        for (int scale = 0; scale <= 8; scale++)
+        {
+            List<Double> values = new ArrayList<Double>();
+            for (int i = 0; i < 200; i++)
+            {
+                // the neighbors of a tie, a tie, and a value of any magnitude
+                double tie = (random.nextInt(1000000) + 0.5) / HalfUpRounding.POW10[scale];
+                values.add(tie);
+                values.add(Math.nextUp(tie));
+                values.add(Math.nextAfter(tie, 0));
+                values.add(random.nextDouble() * Math.pow(10, random.nextInt(16) - 8));
+            }
+            for (double value : values)
+            {
+                for (RoundingMode mode : HALF_MODES)
+                {
+                    for (boolean fixedPoint : new boolean[] { true, false })
+                    {
+                        String label =
+                            value + " " + mode + " " + scale + (fixedPoint ? "" : " digits");
+                        Method set = setMethod(fast, double.class);
+                        boolean fastPath = set(fast, set, value, scale, fixedPoint, mode);
+                        set(fixed, setMethod(fixed, double.class), value, scale, fixedPoint, mode);
+                        assertSameDigits(label, fixed, fast);
+                        assertFalse(label, fastPath && (mode != RoundingMode.HALF_UP || !fixedPoint));
+                        fastCases += fastPath ? 1 : 0;
+                        cases++;
+                    }
+                }
+            }
+        }
+        assertTrue(fastCases + " of " + cases + " took the fast path", fastCases > cases / 5);
+    }
+
+    @Test
+    public void fastBigDecimalSetsTheSameDigits()
+    throws Exception
+    {
+        byte[] original = DigitListPatch.extractBytecode(BuggyDigitList.class);
+        Object fast = newInstance(
+            load(Rewriter.rewrite(original.clone(), null, false, false, true)));
+        Object fixed = newInstance(
+            load(Rewriter.rewrite(original.clone(), null, false, false, false)));
+
+        Random random = new Random(20140624L);
+        int cases = 0;
+        int fastCases = 0;
+        for (int scale = -5; scale <= 20; scale++)
+        {
+            List<BigDecimal> values = new ArrayList<BigDecimal>();
+            for (int i = 0; i < 100; i++)
+            {
+                // a tie at every number of digits kept, and up to 18 digits of any value
+                long unscaled = (long) (random.nextDouble() * HalfUpRounding.POW10[1 + i % 18]);
+                values.add(BigDecimal.valueOf(unscaled / 10 * 10 + 5, scale));
+                values.add(BigDecimal.valueOf(unscaled + 1, scale));
+            }
+            for (BigDecimal value : values)
+            {
+                for (int maximumDigits = 0; maximumDigits <= 10; maximumDigits++)
+                {
+                    for (RoundingMode mode : HALF_MODES)
+                    {
+                        for (boolean fixedPoint : new boolean[] { true, false })
+                        {
+                            String label = value + " " + mode + " " + maximumDigits
+                                + (fixedPoint ? "" : " digits");
+                            Method set = setMethod(fast, BigDecimal.class);
+                            boolean fastPath =
+                                set(fast, set, value, maximumDigits, fixedPoint, mode);
+                            set(fixed, setMethod(fixed, BigDecimal.class),
+                                value, maximumDigits, fixedPoint, mode);
+                            assertSameDigits(label, fixed, fast);
+                            assertFalse(label,
+                                fastPath && (mode != RoundingMode.HALF_UP || !fixedPoint));
+                            fastCases += fastPath ? 1 : 0;
+                            cases++;
+                        }
+                    }
+                }
+            }
+        }
+        // only HALF_UP in fixed-point notation, a quarter of the cases, can take it
+        assertTrue(fastCases + " of " + cases + " took the fast path", fastCases > cases / 8);
+    }
+
+    private static Method setMethod(Object digitList, Class<?> sourceType)
+    throws Exception
+    {
+        Method set = digitList.getClass().getDeclaredMethod(
+            "set", boolean.class, sourceType, int.class, boolean.class);
+        set.setAccessible(true);
+        return set;
+    }
+
+    /**
+     * Calls one of the {@code set} methods for a positive value.
+     *
+     * @return whether it took the fast path: only the original code lays the value out as text
+     *     in its {@code data} buffer
+     */
+    private static boolean set(Object digitList, Method set, Object value, int maximumDigits,
+        boolean fixedPoint, RoundingMode mode)
+    throws Exception
+    {
+        set(digitList, "roundingMode", mode);
+        set(digitList, "data", null);
+        set.invoke(digitList, false, value, maximumDigits, fixedPoint);
+        return get(digitList, "data") == null;
+    }
+
+    private static void assertSameDigits(String label, Object expected, Object actual)
+    throws Exception
+    {
+        int count = (Integer) get(expected, "count");
+        assertEquals(label + ": count", count, get(actual, "count"));
+        assertEquals(label + ": digits", new String((char[]) get(expected, "digits"), 0, count),
+            new String((char[]) get(actual, "digits"), 0, count));
+        if (count > 0)
+        {
+            assertEquals(label + ": decimalAt", get(expected, "decimalAt"), get(actual, "decimalAt"));
+        }
+    }
+
+    /**
+     * Compares {@code shouldRoundUp} of the patched class with the fix for {@code HALF_UP}, and
+     * with the original code for every other rounding mode, over every position of the rounding
+     * digit in lists of up to four digits around a 5.
+     */
+    private static void assertSameDecisions(byte[] patched)
+    throws Exception
+    {
+        assertNotNull("patched", patched);
+        Object subject = newInstance(load(patched));
+        Object original = newInstance(BuggyDigitList.class);
+        DigitList fix = new DigitList()
+        {
+            @Override
+            boolean __original__shouldRoundUp(
+                int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+            {
+                throw new AssertionError();
+            }
+        };
+
+        int cases = 0;
+        for (int count = 1; count <= 4; count++)
+        {
+            char[] digits = new char[count];
+            for (int combination = 0; combination < Math.pow(DIGITS.length, count); combination++)
+            {
+                for (int i = 0, rest = combination; i < count; i++, rest /= DIGITS.length)
+                {
+                    digits[i] = DIGITS[rest % DIGITS.length];
+                }
+                set(subject, "digits", digits.clone());
+                set(subject, "count", count);
+                set(original, "digits", digits.clone());
+                set(original, "count", count);
+                fix.digits = digits.clone();
+                fix.count = count;
+                for (RoundingMode mode : RoundingMode.values())
+                {
+                    set(subject, "roundingMode", mode);
+                    set(original, "roundingMode", mode);
+                    for (int flags = 0; flags < 4; flags++)
+                    {
+                        for (int maximumDigits = 0; maximumDigits < count; maximumDigits++)
+                        {
+                            boolean alreadyRounded = (flags & 1) != 0;
+                            boolean allDecimalDigits = (flags & 2) != 0;
+                            String expected = mode == RoundingMode.HALF_UP
+                                ? String.valueOf(fix.__patched__shouldRoundUp_HALF_UP(
+                                    maximumDigits, alreadyRounded, allDecimalDigits))
+                                : shouldRoundUp(original,
+                                    maximumDigits, alreadyRounded, allDecimalDigits);
+                            assertEquals(mode + " " + new String(digits) + " at " + maximumDigits
+                                    + ", alreadyRounded " + alreadyRounded
+                                    + ", allDecimalDigits " + allDecimalDigits,
+                                expected, shouldRoundUp(
+                                    subject, maximumDigits, alreadyRounded, allDecimalDigits));
+                            cases++;
+                        }
+                    }
+                }
+            }
+        }
+        assertTrue(cases > 10000);
+    }
+
+    /** @return the result of {@code shouldRoundUp}, or the name of the exception it threw */
+    private static String shouldRoundUp(
+        Object digitList, int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+    throws Exception
+    {
+        Method method = digitList.getClass().getDeclaredMethod(
+            "shouldRoundUp", int.class, boolean.class, boolean.class);
+        method.setAccessible(true);
+        try
+        {
+            return String.valueOf(
+                method.invoke(digitList, maximumDigits, alreadyRounded, allDecimalDigits));
+        }
+        catch (InvocationTargetException e)
+        {
+            return e.getCause().getClass().getName();
+        }
+    }
+
+    static Object newInstance(Class<?> type)
+    throws Exception
+    {
+        Constructor<?> constructor = type.getDeclaredConstructor();
+        constructor.setAccessible(true);
+        return constructor.newInstance();
+    }
+
+    static Object get(Object target, String field)
+    throws Exception
+    {
+        Field declared = target.getClass().getDeclaredField(field);
+        declared.setAccessible(true);
+        return declared.get(target);
+    }
+
+    static void set(Object target, String field, Object value)
+    throws Exception
+    {
+        Field declared = target.getClass().getDeclaredField(field);
+        declared.setAccessible(true);
+        declared.set(target, value);
+    }
+
+    /**
+     * Defines a patched class in a class loader of its own, with every reference to
+     * {@code java.text.DigitList} (which the patch masquerades as) pointed back at the class.
+     */
+    static Class<?> load(byte[] patched)
+    {
+        ClassReader reader = new ClassReader(patched);
+        final String self = reader.getClassName();
+        ClassWriter writer = new ClassWriter(/* flags */ 0);
+        reader.accept(
+            new ClassVisitor(ASM_VERSION, writer)
+            {
+                @Override
+                public MethodVisitor visitMethod(
+                    int access, String name, String desc, String signature, String[] exceptions)
+                {
+                    return new MethodVisitor(
+                        ASM_VERSION, super.visitMethod(access, name, desc, signature, exceptions))
+                    {
+                        @Override
+                        public void visitFieldInsn(
+                            int opcode, String owner, String name, String desc)
+                        {
+                            super.visitFieldInsn(opcode, retarget(owner), name, desc);
+                        }
+
+                        @Override
+                        public void visitMethodInsn(
+                            int opcode, String owner, String name, String desc, boolean itf)
+                        {
+                            super.visitMethodInsn(opcode, retarget(owner), name, desc, itf);
+                        }
+
+                        @Override
+                        public void visitTypeInsn(int opcode, String type)
+                        {
+                            super.visitTypeInsn(opcode, retarget(type));
+                        }
+
+                        @Override
+                        public void visitLdcInsn(Object constant)
+                        {
+                            super.visitLdcInsn(constant instanceof Type
+                                && TARGET.equals(((Type) constant).getInternalName())
+                                ? Type.getObjectType(self) : constant);
+                        }
+
+                        @Override
+                        public void visitFrame(
+                            int type, int nLocal, Object[] local, int nStack, Object[] stack)
+                        {
+                            super.visitFrame(
+                                type, nLocal, retarget(local), nStack, retarget(stack));
+                        }
+
+                        private Object[] retarget(Object[] types)
+                        {
+                            Object[] retargeted = types == null ? null : types.clone();
+                            for (int i = 0; retargeted != null && i < retargeted.length; i++)
+                            {
+                                if (TARGET.equals(retargeted[i]))
+                                {
+                                    retargeted[i] = self;
+                                }
+                            }
+                            return retargeted;
+                        }
+
+                        private String retarget(String owner)
+                        {
+                            return TARGET.equals(owner) ? self : owner;
+                        }
+                    };
+                }
+            },
+            /* flags */ 0);
+        return new PatchedClassLoader(self, writer.toByteArray()).patched;
+    }
+
+    /**
+     * Holds one patched class, along with its anonymous classes, such as javac's package-private
+     * map for a switch on an enum; leaves every other class to the test's own class loader.
+     */
+    private static final class PatchedClassLoader extends ClassLoader
+    {
+        final Class<?> patched;
+        private final String anonymousPrefix;
+
+        /** @param name the name of the patched class, in internal form */
+        PatchedClassLoader(String name, byte[] bytecode)
+        {
+            super(RewriterTest.class.getClassLoader());
+            anonymousPrefix = name.replace('/', '.') + '$';
+            patched = defineClass(null, bytecode, 0, bytecode.length);
+        }
+
+        @Override
+        protected synchronized Class<?> loadClass(String name, boolean resolve)
+        throws ClassNotFoundException
+        {
+            Class<?> loaded = findLoadedClass(name);
+            if (loaded == null && name.startsWith(anonymousPrefix)
+                && name.substring(anonymousPrefix.length()).matches("\\d+"))
+            {
+                try
+                {
+                    byte[] bytecode = DigitListPatch.extractResourceBytes(
+                        getParent(), name.replace('.', '/') + ".class");
+                    loaded = defineClass(name, bytecode, 0, bytecode.length);
+                }
+                catch (IOException e)
+                {
+                    throw new ClassNotFoundException(name, e);
+                }
+            }
+            if (loaded == null)
+            {
+                return super.loadClass(name, resolve);
+            }
+            if (resolve)
+            {
+                resolveClass(loaded);
+            }
+            return loaded;
+        }
+    }
+}
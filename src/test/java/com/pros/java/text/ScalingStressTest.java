@@ -0,0 +1,105 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.math.RoundingMode;
+import java.text.DecimalFormat;
+
+import org.junit.Test;
+
+/**
+ * Runs {@link ScalingStress} briefly, with the efficiency check disabled, since the scaling of
+ * a build machine proves nothing.  (Whether the real {@code DecimalFormat} passes depends on
+ * the JVM and the agent, so that is left to {@code stress} on the command line.)
+ */
+public class ScalingStressTest
+{
+    @Test
+    public void reportsEveryStep()
+    throws Exception
+    {
+        ScalingStress stress = stress(DifferentialVerifier.halfUpFormat());
+        stress.maxThreads = 3;
+        stress.scale = 0; // the ties are exact doubles, so the JVM's own fix gets them right
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        assertEquals(summary.toString(), 0, stress.run(new PrintStream(summary, true)));
+
+        String[] lines = summary.toString().split("\r?\n");
+        assertEquals(summary.toString(), 6, lines.length);
+        assertTrue(lines[2], lines[2].trim().startsWith("1 "));
+        assertTrue(lines[3], lines[3].trim().startsWith("2 "));
+        assertTrue(lines[4], lines[4].trim().startsWith("3 "));
+        assertEquals("Wrong results: 0, steps below 0% efficiency: 0", lines[5]);
+    }
+
+    @Test
+    public void reportsWrongResults()
+    throws Exception
+    {
+        DecimalFormat halfEven = DifferentialVerifier.halfUpFormat();
+        halfEven.setRoundingMode(RoundingMode.HALF_EVEN);
+        ScalingStress stress = stress(halfEven);
+        stress.maxThreads = 2;
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        assertTrue(stress.run(new PrintStream(summary, true)) > 0);
+        assertTrue(summary.toString(), summary.toString().contains("WRONG ScalingStress-0 scale=3"));
+    }
+
+    @Test
+    public void efficiencyIsChecked()
+    throws Exception
+    {
+        ScalingStress stress = stress(DifferentialVerifier.halfUpFormat());
+        stress.maxThreads = 1;
+        stress.scale = 0;
+        stress.efficiency = 1.01; // one thread is exactly 100%
+        ByteArrayOutputStream summary = new ByteArrayOutputStream();
+        assertEquals(1, stress.run(new PrintStream(summary, true)));
+        assertTrue(summary.toString(), summary.toString().contains("100%!"));
+    }
+
+    private static ScalingStress stress(DecimalFormat format)
+    {
+        ScalingStress stress = new ScalingStress(format);
+        stress.seconds = 0.2;
+        stress.warmup = 0.05;
+        stress.efficiency = 0;
+        return stress;
+    }
+}
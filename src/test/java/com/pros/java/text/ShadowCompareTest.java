@@ -0,0 +1,158 @@
+/*
+ * Copyright (c) 2014 by PROS, Inc.  All Rights Reserved.
+ * DO NOT ALTER OR REMOVE COPYRIGHT NOTICES OR THIS FILE HEADER.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License version 2 only, as
+ * published by the Free Software Foundation.
+ *
+ * Linking this library statically or dynamically with other modules is making
+ * a combined work based on this library.  Thus, the terms and conditions of
+ * the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module.  An independent
+ * module is a module which is not derived from or based on this library.  If
+ * you modify this library, you may extend this exception to your version of
+ * the library, but you are not obligated to do so.  If you do not wish to do
+ * so, delete this exception statement from your version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * version 2 for more details (a copy is included in the LICENSE file that
+ * accompanied this code).
+ *
+ * You should have received a copy of the GNU General Public License version
+ * 2 along with this work; if not, write to the Free Software Foundation,
+ * Inc., 51 Franklin St, Fifth Floor, Boston, MA 02110-1301 USA.
+ */
+
+package com.pros.java.text;
+
+import static com.pros.java.text.DigitList.*;
+import static org.junit.Assert.*;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Validates the shadow comparing variant of the shim method on the template itself, with an
+ * original method that ignores ties, and the decoding of the ring by {@link ShadowCompareLog}.
+ */
+public class ShadowCompareTest
+{
+    private final DigitList digitList = new DigitList()
+    {
+        @Override
+        boolean __original__shouldRoundUp(int maximumDigits, boolean alreadyRounded, boolean allDecimalDigits)
+        {
+            return digits[maximumDigits] > '5';
+        }
+    };
+
+    @Before
+    public void resetRing()
+    {
+        System.setProperty(SAMPLE_INTERVAL_PROPERTY, "1");
+        DigitList.__patched__init();
+    }
+
+    @After
+    public void stopSampling()
+    {
+        System.clearProperty(SAMPLE_INTERVAL_PROPERTY);
+        DigitList.__patched__sampleInterval = 0;
+    }
+
+    @Test
+    public void recordsOnlyDifferences()
+    {
+        assertFalse(decide("12345", 2, false, false));
+        assertTrue(decide("126", 2, true, false));
+        assertTrue(decide("125", 2, false, true));
+        assertFalse(decide("125", 2, true, false));
+
+        assertEquals("digits=125 count=3 maximumDigits=2 alreadyRounded=false allDecimalDigits=true"
+            + " patched=true original=false" + System.getProperty("line.separator"), drain());
+        assertEquals("already drained", "", drain());
+    }
+
+    @Test
+    public void recordsLongDigitsTruncated()
+    {
+        String digits = "1234567890123456789012345678901234567895";
+        assertTrue(decide(digits, digits.length() - 1, false, true));
+        assertEquals("digits=12345678901234567890123456789012... count=40 maximumDigits=39"
+            + " alreadyRounded=false allDecimalDigits=true patched=true original=false",
+            drain().trim());
+    }
+
+    @Test
+    public void samplesOneInInterval()
+    {
+        DigitList.__patched__sampleInterval = 10;
+        for (int i = 0; i < 100; i++)
+        {
+            decide("125", 2, false, true);
+        }
+        assertEquals(10, drain().split(System.getProperty("line.separator")).length);
+    }
+
+    @Test
+    public void countsSamplesInTheStripeOfTheThread()
+    {
+        DigitList.__patched__sampleInterval = 10;
+        for (int i = 0; i < 5; i++)
+        {
+            decide("125", 2, false, true);
+        }
+        long[] sampleCounts = DigitList.__patched__sampleCounts;
+        int stripe = DigitList.__patched__stripe(sampleCounts.length);
+        for (int i = 0; i < sampleCounts.length; i++)
+        {
+            assertEquals("count " + i, i == stripe ? 5 : 0, sampleCounts[i]);
+        }
+    }
+
+    @Test
+    public void dropsWhenFullWithoutBlocking()
+    {
+        for (int i = 0; i < RING_CAPACITY + 10; i++)
+        {
+            decide("125", 2, false, true);
+        }
+        AtomicLongArray ring = DigitList.__patched__ring;
+        assertEquals(10, ring.get(RING_DROPPED));
+        drain();
+        assertTrue(decide("125", 2, false, true));
+        assertEquals("room again after draining", 1, drain().split(System.getProperty("line.separator")).length);
+    }
+
+    private String drain()
+    {
+        StringWriter text = new StringWriter();
+        PrintWriter out = new PrintWriter(text);
+        ShadowCompareLog.drain(DigitList.__patched__ring, out);
+        out.flush();
+        return text.toString();
+    }
+
+    private boolean decide(String digits, int maximumDigits, boolean alreadyRounded,
+        boolean allDecimalDigits)
+    {
+        digitList.digits = digits.toCharArray();
+        digitList.count = digits.length();
+        return digitList.__patched__shouldRoundUp_HALF_UP_shadow(
+            maximumDigits, alreadyRounded, allDecimalDigits);
+    }
+}